@@ -0,0 +1,60 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the color mapping of the map renderer for each layer, without a JavaFX toolkit:
+ * every cell is rendered into the ARGB pixel buffer by {@link LayerRenderer},
+ * which the map writes into its image in one call, but no image is created.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ColorMappingBenchmark {
+
+    @Param({"1024"})
+    int size;
+
+    @Param({"Terrain", "Biomes", "Temperature", "Humidity", "Slope", "States"})
+    String layer;
+
+    private World world;
+    private LayerRenderer renderer;
+
+
+    /**
+     * Generates the world, with states, that is rendered.
+     */
+    @Setup
+    public void setUp() {
+        world = new World(size, 0.5, 2.0, 5, null);
+        world.setSeed(WorldGenerationBenchmark.SEED);
+        world.setParallelism(1);
+        world.generate(true, 250);
+        renderer = new LayerRenderer();
+    }
+
+
+    /**
+     * Maps every cell of the selected layer to its color.
+     * @return The packed pixels.
+     */
+    @Benchmark
+    public int[] mapColors() {
+        return renderer.render(world, world.layers, layer);
+    }
+}
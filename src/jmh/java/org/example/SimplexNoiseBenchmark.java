@@ -0,0 +1,114 @@
+package org.example;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of one simplex noise sample, in 2D and 3D, per point and in batches.
+ * The points are a fixed pseudo-random set on the unit sphere, scaled like a high octave, so every
+ * run samples exactly the same inputs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimplexNoiseBenchmark {
+
+    private static final int POINTS = 4096;
+    private static final long SEED = 42;
+    private static final double FREQUENCY = 16.0;
+
+    private SimplexNoise noise;
+    private final double[] xs = new double[POINTS];
+    private final double[] ys = new double[POINTS];
+    private final double[] zs = new double[POINTS];
+    private final double[] out = new double[POINTS];
+    private final double[] gradX = new double[POINTS];
+    private final double[] gradY = new double[POINTS];
+    private final double[] gradZ = new double[POINTS];
+
+
+    /**
+     * Creates the noise and the sample points from the fixed seed.
+     */
+    @Setup
+    public void setUp() {
+        noise = new SimplexNoise(SEED);
+        Random rand = new Random(SEED);
+        for (int i = 0; i < POINTS; i++) {
+            double z = 2 * rand.nextDouble() - 1;
+            double lon = 2 * Math.PI * rand.nextDouble();
+            double r = Math.sqrt(1 - z * z);
+            xs[i] = r * Math.cos(lon);
+            ys[i] = r * Math.sin(lon);
+            zs[i] = z;
+        }
+    }
+
+
+    /**
+     * Samples 2D noise one point at a time.
+     * @return The sum of the samples, so none of them is optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double noise2D() {
+        double sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += noise.noise(xs[i] * FREQUENCY, ys[i] * FREQUENCY);
+        }
+        return sum;
+    }
+
+
+    /**
+     * Samples 3D noise one point at a time.
+     * @return The sum of the samples, so none of them is optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double noise3D() {
+        double sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += noise.noise(xs[i] * FREQUENCY, ys[i] * FREQUENCY, zs[i] * FREQUENCY);
+        }
+        return sum;
+    }
+
+
+    /**
+     * Samples 3D noise through the batch API, which uses the SIMD kernel when the vector module is present.
+     * @return The sampled values.
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] noise3DBatch() {
+        noise.noise(xs, ys, zs, FREQUENCY, out, POINTS);
+        return out;
+    }
+
+
+    /**
+     * Samples 3D noise with its analytic gradient through the batch API.
+     * @return The sampled values.
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] noise3DGradientBatch() {
+        noise.noise(xs, ys, zs, FREQUENCY, out, gradX, gradY, gradZ, POINTS);
+        return out;
+    }
+}
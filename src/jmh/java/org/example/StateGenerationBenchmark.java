@@ -0,0 +1,59 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures state generation (capital placement and growth) for several numbers of states.
+ * The world is generated once per trial from a fixed seed, so every invocation grows the same
+ * states over the same terrain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class StateGenerationBenchmark {
+
+    @Param({"1024"})
+    int size;
+
+    @Param({"10", "250", "5000"})
+    int states;
+
+    private World world;
+
+
+    /**
+     * Generates the world the states are grown on.
+     */
+    @Setup
+    public void setUp() {
+        world = new World(size, 0.5, 2.0, 5, null);
+        world.setSeed(WorldGenerationBenchmark.SEED);
+        world.setParallelism(1);
+        world.generate(false, 0);
+    }
+
+
+    /**
+     * Places the capitals and grows the states.
+     * @return The world, so the states are not optimized away.
+     */
+    @Benchmark
+    public World runStateGeneration() {
+        world.runPhase(GenerationProgress.Phase.STATES, states);
+        return world;
+    }
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each phase of {@link World#generate} on its own, for several world sizes.
+ * The world is generated once per trial from a fixed seed and each invocation re-runs one phase
+ * over it, sequentially, so the numbers do not depend on the core count of the machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class WorldGenerationBenchmark {
+
+    static final long SEED = 42;
+
+    @Param({"256", "1024", "4096"})
+    int size;
+
+    @Param({"ELEVATION", "TEMPERATURE", "HUMIDITY", "BIOMES"})
+    String phase;
+
+    private GenerationProgress.Phase worldPhase;
+    private World world;
+
+
+    /**
+     * Generates the world whose phases are re-run.
+     */
+    @Setup
+    public void setUp() {
+        worldPhase = GenerationProgress.Phase.valueOf(phase);
+        world = new World(size, 0.5, 2.0, 5, null);
+        world.setSeed(SEED);
+        world.setParallelism(1);
+        world.generate(false, 0);
+    }
+
+
+    /**
+     * Runs the selected phase over the whole world.
+     * @return The world, so the phase is not optimized away.
+     */
+    @Benchmark
+    public World generatePhase() {
+        world.runPhase(worldPhase, 0);
+        return world;
+    }
+}
@@ -0,0 +1,156 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-octave accumulation cache for the fractal elevation noise of one world.
+ * Entry k holds, for every cell, the running fBm sum after octaves 0..k and the running sums of its
+ * gradient along x and y, interleaved ({@link #VALUES_PER_CELL} doubles per cell), exactly as the
+ * elevation pass accumulates them. Raising the octave count then only evaluates the new octaves,
+ * and lowering it is a lookup. Worlds are keyed by (seed, size, scale): up to {@link #MAX_WORLDS}
+ * sizes of the most recent seed and scale are kept, so the smaller stages of a progressive generation
+ * do not evict the final world, and no more octaves are stored per size than fit in {@link #MAX_BYTES}.
+ */
+final class ElevationOctaveCache {
+
+    private static final long MAX_BYTES = 256L << 20;
+
+    /** The number of doubles stored per cell and octave: the sum, its x-gradient and its y-gradient. */
+    static final int VALUES_PER_CELL = 3;
+
+    /** The number of cached sizes: one per stage of a progressive generation. */
+    private static final int MAX_WORLDS = 4;
+
+    private static final Map<Key, ElevationOctaveCache> CACHES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ElevationOctaveCache> eldest) {
+            return size() > MAX_WORLDS;
+        }
+    };
+
+    /**
+     * Identifies the elevation noise of a world.
+     * @param seed The world seed.
+     * @param size The size of the world grid.
+     * @param scale The base frequency of the elevation noise.
+     */
+    private record Key(long seed, int size, double scale) {
+    }
+
+    final long seed;
+    final int size;
+    final double scale;
+    private final int capacity;
+    private final List<double[]> sums = new ArrayList<>();
+
+
+    /**
+     * Constructs a new, empty cache.
+     * @param seed The world seed the elevation noise is derived from.
+     * @param size The size of the world grid (size x size).
+     * @param scale The base frequency of the elevation noise.
+     */
+    private ElevationOctaveCache(long seed, int size, double scale) {
+        this.seed = seed;
+        this.size = size;
+        this.scale = scale;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, MAX_BYTES / (8L * VALUES_PER_CELL * size * size));
+    }
+
+
+    /**
+     * Returns the cache for the given key. A new key replaces the cached worlds of other seeds or
+     * scales, and the least recently used size if there are too many.
+     * @param seed The world seed.
+     * @param size The size of the world grid.
+     * @param scale The base frequency of the elevation noise.
+     * @return The cache for that world.
+     */
+    static synchronized ElevationOctaveCache forWorld(long seed, int size, double scale) {
+        Key key = new Key(seed, size, scale);
+        ElevationOctaveCache cache = CACHES.get(key);
+        if (cache == null) {
+            CACHES.keySet().removeIf(cached -> cached.seed() != seed || cached.scale() != scale);
+            cache = new ElevationOctaveCache(seed, size, scale);
+            CACHES.put(key, cache);
+        }
+        return cache;
+    }
+
+
+    /**
+     * Returns the cache for the given key if it exists, without creating one.
+     * @param seed The world seed.
+     * @param size The size of the world grid.
+     * @param scale The base frequency of the elevation noise.
+     * @return The cache for that world, or null if it is not cached.
+     */
+    static synchronized ElevationOctaveCache find(long seed, int size, double scale) {
+        return CACHES.get(new Key(seed, size, scale));
+    }
+
+
+    /**
+     * Drops every cached world, releasing its memory.
+     */
+    static synchronized void clear() {
+        CACHES.clear();
+    }
+
+
+    /**
+     * Returns the per-octave sum arrays to use for a pass with the given number of octaves.
+     * Entries below {@link #cachedOctaves()} are already filled; the remaining non-null entries are
+     * freshly allocated and must be filled by the pass before calling {@link #commit}.
+     * Entries beyond the memory budget are null and are not cached.
+     * @param octaves The number of octaves of the pass.
+     * @return An array of length `octaves`.
+     */
+    synchronized double[][] prepare(int octaves) {
+        double[][] result = new double[octaves][];
+        for (int k = 0; k < octaves; k++) {
+            if (k < sums.size()) {
+                result[k] = sums.get(k);
+            } else if (k < capacity) {
+                result[k] = new double[VALUES_PER_CELL * size * size];
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Stores the arrays filled by a pass, making them available to later passes.
+     * @param filled The array returned by {@link #prepare}, after the pass has filled it.
+     */
+    synchronized void commit(double[][] filled) {
+        for (int k = sums.size(); k < filled.length && filled[k] != null; k++) {
+            sums.add(filled[k]);
+        }
+    }
+
+
+    /**
+     * Returns the accumulated sums of the leading octaves, if that many are cached.
+     * @param octaves The number of leading octaves needed.
+     * @return The arrays of octaves 0 to octaves - 1, or null if fewer octaves are cached.
+     */
+    synchronized double[][] cached(int octaves) {
+        if (octaves > sums.size()) {
+            return null;
+        }
+        return sums.subList(0, octaves).toArray(new double[0][]);
+    }
+
+
+    /**
+     * Returns how many leading octaves are already accumulated.
+     * @return The number of cached octaves.
+     */
+    synchronized int cachedOctaves() {
+        return sums.size();
+    }
+}
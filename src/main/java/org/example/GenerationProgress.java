@@ -0,0 +1,119 @@
+package org.example;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress reporting and cooperative cancellation for one world generation.
+ * Each pass starts a {@link Phase} and advances it as rows (or cells) are completed; the listener
+ * is told whenever the completed percentage of the current phase changes.
+ * Cancelling does not interrupt anything: the passes check {@link #checkCancelled()} between row bands
+ * and stop with a {@link CancellationException}.
+ */
+final class GenerationProgress {
+
+    /**
+     * The phases of a generation, in the order they run.
+     */
+    enum Phase {
+        ELEVATION("Elevation"),
+        TEMPERATURE("Temperature"),
+        HUMIDITY("Humidity"),
+        BIOMES("Biomes"),
+        STATES("States"),
+        RENDER("Render");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Receives progress updates. Called from the generating threads, so implementations must hand
+     * the update over to the UI thread themselves.
+     */
+    @FunctionalInterface
+    interface Listener {
+        void progress(Phase phase, double fraction);
+    }
+
+    private final Listener listener;
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger reportedPercent = new AtomicInteger(-1);
+    private volatile Phase phase;
+    private volatile int total;
+    private volatile boolean cancelled;
+
+
+    /**
+     * Constructs a new progress tracker.
+     * @param listener The listener to notify, or null to only track cancellation.
+     */
+    GenerationProgress(Listener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Starts a new phase, reporting it at 0%.
+     * @param phase The phase that starts.
+     * @param total The number of units (rows or cells) the phase will complete.
+     */
+    void begin(Phase phase, int total) {
+        this.phase = phase;
+        this.total = Math.max(1, total);
+        done.set(0);
+        reportedPercent.set(0);
+        if (listener != null) {
+            listener.progress(phase, 0);
+        }
+    }
+
+
+    /**
+     * Records completed units of the current phase. Safe to call from several threads.
+     * @param units The number of units just completed.
+     */
+    void advance(int units) {
+        int percent = (int) (100L * done.addAndGet(units) / total);
+        int reported = reportedPercent.get();
+        if (listener != null && percent > reported && reportedPercent.compareAndSet(reported, percent)) {
+            listener.progress(phase, Math.min(1.0, percent / 100.0));
+        }
+    }
+
+
+    /**
+     * Requests the generation to stop at its next check.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+
+    /**
+     * Returns whether the generation has been cancelled.
+     * @return True if {@link #cancel()} was called.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    /**
+     * Stops the calling pass if the generation has been cancelled.
+     * @throws CancellationException If the generation has been cancelled.
+     */
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("World generation cancelled");
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.example;
+
+import java.util.Arrays;
+import javafx.scene.Group;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+
+/**
+ * The 3D globe: a cube-sphere whose six faces are separate meshes with their own textures.
+ * <p>
+ * Each face of a cube is subdivided into a grid of quads and projected onto the sphere. The grid is
+ * spaced by equal angles rather than equal distances on the cube, so cells keep a similar size across
+ * the face. Land vertices are raised by their height above sea level; the sea is left flat. The detail
+ * of the grid follows the distance of the camera, and the meshes of every detail level are kept until
+ * the world changes, so zooming back and forth does not rebuild them.
+ * <p>
+ * The textures are resampled from the rendered layer of the world on the same grid, so texels are
+ * spread evenly over the sphere instead of crowding at the poles as an equirectangular texture does,
+ * and no single texture holds the whole world. Faces are rebuilt one at a time and never touch the
+ * meshes or textures of the other faces.
+ * <p>
+ * The globe is only used on the JavaFX application thread.
+ */
+final class GlobeMesh extends Group {
+
+    private static final int FACES = 6;
+    /** The number of quads along an edge of a face, per detail level. */
+    private static final int[] SUBDIVISIONS = {32, 64, 128};
+    /** The camera distances, in globe radii, below which the next detail level is used. */
+    private static final double[] LEVEL_DISTANCE = {6.5, 3.5};
+    /** The height of the highest land above sea level, as a fraction of the radius. */
+    private static final double RELIEF = 0.04;
+    private static final int MIN_TEXTURE_SIZE = 64;
+    private static final int MAX_TEXTURE_SIZE = 1024;
+    /** The normal of each face of the cube, then the directions in which its u and v grow. */
+    private static final double[][] FACE_AXES = {
+            {1, 0, 0, 0, 0, -1, 0, 1, 0},
+            {-1, 0, 0, 0, 0, 1, 0, 1, 0},
+            {0, 1, 0, 1, 0, 0, 0, 0, -1},
+            {0, -1, 0, 1, 0, 0, 0, 0, 1},
+            {0, 0, 1, 1, 0, 0, 0, 1, 0},
+            {0, 0, -1, -1, 0, 0, 0, 1, 0}
+    };
+
+    private final double radius;
+    private final MeshView[] faceViews = new MeshView[FACES];
+    private final TriangleMesh[][] meshes = new TriangleMesh[FACES][SUBDIVISIONS.length];
+    /** Per face and level, the direction and then the map position of every vertex, 5 values each. */
+    private final double[][][] vertexGrids = new double[FACES][SUBDIVISIONS.length][];
+    /** Per face, the index of the pixel of the rendered layer that each texel shows. */
+    private final int[][] texelSources = new int[FACES][];
+    private int sourceWidth;
+    private int sourceHeight;
+    private int level = 1;
+    private WorldLayers view;
+    private double seaLevel;
+    private int revision;
+    private Image image;
+
+
+    /**
+     * Constructs a plain globe, without relief or texture until a world is shown.
+     * @param radius The radius of the globe at sea level.
+     */
+    GlobeMesh(double radius) {
+        this.radius = radius;
+        PhongMaterial material = new PhongMaterial(Color.LIGHTBLUE);
+        for (int face = 0; face < FACES; face++) {
+            faceViews[face] = new MeshView();
+            faceViews[face].setCullFace(CullFace.NONE);
+            faceViews[face].setMaterial(material);
+            getChildren().add(faceViews[face]);
+            rebuildFace(face);
+        }
+    }
+
+
+    /**
+     * Shows a world on the globe. The meshes are rebuilt if the world changed since the last call and
+     * the textures if the image did.
+     * @param w The world.
+     * @param source The view of the world the image was rendered from, for the relief.
+     * @param layerImage The rendered layer, one pixel per cell of the view.
+     */
+    void show(World w, WorldLayers source, Image layerImage) {
+        if (source != view || w.revision() != revision) {
+            Metrics.Span span = Metrics.global().begin("Globe relief", SUBDIVISIONS[level] + " quads per edge", 0);
+            view = source;
+            revision = w.revision();
+            seaLevel = w.seaLevel;
+            for (TriangleMesh[] faceMeshes : meshes) {
+                Arrays.fill(faceMeshes, null);
+            }
+            for (int face = 0; face < FACES; face++) {
+                rebuildFace(face);
+            }
+            int n = SUBDIVISIONS[level];
+            span.cells((long) FACES * (n + 1) * (n + 1));
+            span.end();
+        }
+        if (layerImage != image) {
+            image = layerImage;
+            int width = (int) layerImage.getWidth();
+            int height = (int) layerImage.getHeight();
+            int[] pixels = new int[width * height];
+            layerImage.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            if (width != sourceWidth || height != sourceHeight) {
+                sourceWidth = width;
+                sourceHeight = height;
+                Arrays.fill(texelSources, null);
+            }
+            int textureSize = Math.max(MIN_TEXTURE_SIZE, Math.min(MAX_TEXTURE_SIZE, width / 4));
+            Metrics.Span span = Metrics.global().begin("Globe texture", textureSize + " px per face",
+                    (long) FACES * textureSize * textureSize);
+            for (int face = 0; face < FACES; face++) {
+                faceViews[face].setMaterial(new PhongMaterial(Color.WHITE,
+                        faceTexture(face, pixels, textureSize), null, null, null));
+            }
+            span.end();
+        }
+    }
+
+
+    /**
+     * Picks the detail level for a camera distance, and switches the faces to it.
+     * @param distance The distance of the camera from the center of the globe.
+     */
+    void setCameraDistance(double distance) {
+        int next = 0;
+        while (next < LEVEL_DISTANCE.length && distance < LEVEL_DISTANCE[next] * radius) {
+            next++;
+        }
+        if (next != level) {
+            level = next;
+            for (int face = 0; face < FACES; face++) {
+                rebuildFace(face);
+            }
+        }
+    }
+
+
+    /**
+     * Shows the mesh of a face at the current detail level, building it if it is not cached.
+     * @param face The index of the face.
+     */
+    private void rebuildFace(int face) {
+        TriangleMesh mesh = meshes[face][level];
+        if (mesh == null) {
+            mesh = buildMesh(face, SUBDIVISIONS[level]);
+            meshes[face][level] = mesh;
+        }
+        faceViews[face].setMesh(mesh);
+    }
+
+
+    /**
+     * Builds the mesh of a face: an n x n grid of quads, two triangles each, with one texture coordinate
+     * per vertex. All triangles share one smoothing group, so the relief is shaded smoothly.
+     * @param face The index of the face.
+     * @param n The number of quads along an edge.
+     * @return The mesh.
+     */
+    private TriangleMesh buildMesh(int face, int n) {
+        int vertices = (n + 1) * (n + 1);
+        double[] grid = vertexGrid(face, n);
+        float[] points = new float[3 * vertices];
+        float[] texCoords = new float[2 * vertices];
+        for (int j = 0; j <= n; j++) {
+            for (int i = 0; i <= n; i++) {
+                int vertex = j * (n + 1) + i;
+                int g = 5 * vertex;
+                double r = radius * (1 + RELIEF * height(grid[g + 3], grid[g + 4]));
+                points[3 * vertex] = (float) (r * grid[g]);
+                points[3 * vertex + 1] = (float) (r * grid[g + 1]);
+                points[3 * vertex + 2] = (float) (r * grid[g + 2]);
+                texCoords[2 * vertex] = (float) i / n;
+                texCoords[2 * vertex + 1] = (float) j / n;
+            }
+        }
+
+        int[] faces = new int[12 * n * n];
+        int f = 0;
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                int v00 = j * (n + 1) + i;
+                int v10 = v00 + 1;
+                int v01 = v00 + n + 1;
+                int v11 = v01 + 1;
+                // Point and texture coordinate indices coincide
+                for (int v : new int[] {v00, v11, v10, v00, v01, v11}) {
+                    faces[f++] = v;
+                    faces[f++] = v;
+                }
+            }
+        }
+
+        TriangleMesh mesh = new TriangleMesh();
+        mesh.getPoints().setAll(points);
+        mesh.getTexCoords().setAll(texCoords);
+        mesh.getFaces().setAll(faces);
+        int[] smoothing = new int[2 * n * n];
+        Arrays.fill(smoothing, 1);
+        mesh.getFaceSmoothingGroups().setAll(smoothing);
+        return mesh;
+    }
+
+
+    /**
+     * Returns the unit direction and map position of every vertex of a face at the current level,
+     * computing them on first use; they do not depend on the world.
+     * @param face The index of the face.
+     * @param n The number of quads along an edge at the current level.
+     * @return The x, y and z of the direction, then the horizontal and vertical map position (0.0 to 1.0),
+     *         for each vertex in row-major order.
+     */
+    private double[] vertexGrid(int face, int n) {
+        double[] grid = vertexGrids[face][level];
+        if (grid == null) {
+            grid = new double[5 * (n + 1) * (n + 1)];
+            double[] direction = new double[3];
+            for (int j = 0, g = 0; j <= n; j++) {
+                for (int i = 0; i <= n; i++, g += 5) {
+                    direction(face, (double) (2 * i - n) / n, (double) (2 * j - n) / n, direction);
+                    grid[g] = direction[0];
+                    grid[g + 1] = direction[1];
+                    grid[g + 2] = direction[2];
+                    grid[g + 3] = longitude(direction);
+                    grid[g + 4] = latitude(direction);
+                }
+            }
+            vertexGrids[face][level] = grid;
+        }
+        return grid;
+    }
+
+
+    /**
+     * Resamples the rendered layer onto the grid of a face. Which pixel each texel shows only depends
+     * on the size of the layer, so it is worked out once and reused for every layer of that size.
+     * @param face The index of the face.
+     * @param pixels The ARGB pixels of the rendered layer, in row-major order.
+     * @param size The width and height of the texture.
+     * @return The texture.
+     */
+    private WritableImage faceTexture(int face, int[] pixels, int size) {
+        int[] sources = texelSources[face];
+        if (sources == null || sources.length != size * size) {
+            sources = new int[size * size];
+            double[] direction = new double[3];
+            for (int j = 0; j < size; j++) {
+                for (int i = 0; i < size; i++) {
+                    direction(face, (2 * i + 1 - size) / (double) size, (2 * j + 1 - size) / (double) size, direction);
+                    int x = Math.min(sourceWidth - 1, (int) (longitude(direction) * sourceWidth));
+                    int y = Math.min(sourceHeight - 1, (int) (latitude(direction) * sourceHeight));
+                    sources[j * size + i] = y * sourceWidth + x;
+                }
+            }
+            texelSources[face] = sources;
+        }
+        int[] texels = new int[size * size];
+        for (int t = 0; t < texels.length; t++) {
+            texels[t] = pixels[sources[t]];
+        }
+        WritableImage texture = new WritableImage(size, size);
+        texture.getPixelWriter().setPixels(0, 0, size, size, PixelFormat.getIntArgbInstance(), texels, 0, size);
+        return texture;
+    }
+
+
+    /**
+     * Returns the height above sea level of the cell of the view at a map position.
+     * @param mapX The horizontal map position (0.0 to 1.0).
+     * @param mapY The vertical map position (0.0 to 1.0).
+     * @return The height as a fraction of the highest land (0.0 to 1.0); 0 for the sea and without a view.
+     */
+    private double height(double mapX, double mapY) {
+        if (view == null) {
+            return 0;
+        }
+        int x = Math.min(view.width - 1, (int) (mapX * view.width));
+        int y = Math.min(view.height - 1, (int) (mapY * view.height));
+        double elevation = view.elevation(view.index(x, y));
+        return elevation < seaLevel ? 0 : (elevation - seaLevel) / (1.0 - seaLevel);
+    }
+
+
+    /**
+     * Computes the unit direction of a point of a face, spacing the grid by equal angles.
+     * Points on a shared edge of two faces get bit-identical directions, so the meshes meet without cracks.
+     * @param face The index of the face.
+     * @param u The horizontal position on the face (-1.0 to 1.0).
+     * @param v The vertical position on the face (-1.0 to 1.0).
+     * @param direction Receives the x, y and z components.
+     */
+    private static void direction(int face, double u, double v, double[] direction) {
+        double[] axes = FACE_AXES[face];
+        double s = equalAngle(u);
+        double t = equalAngle(v);
+        double length = Math.sqrt(1 + (s * s + t * t));
+        direction[0] = (axes[0] + s * axes[3] + t * axes[6]) / length;
+        direction[1] = (axes[1] + s * axes[4] + t * axes[7]) / length;
+        direction[2] = (axes[2] + s * axes[5] + t * axes[8]) / length;
+    }
+
+
+    /**
+     * Maps a position on a face of the cube to the position whose direction is at the same fraction of
+     * the 90° the face spans.
+     * @param position The position (-1.0 to 1.0).
+     * @return The equal-angle position (-1.0 to 1.0), exactly -1 and 1 at the edges.
+     */
+    private static double equalAngle(double position) {
+        return Math.abs(position) == 1 ? position : Math.tan(position * Math.PI / 4);
+    }
+
+
+    /**
+     * Returns the horizontal map position of a direction. The map starts at longitude -180° and its
+     * center faces the default camera, which looks along +z; y points down, as in the scene.
+     * @param direction The unit direction.
+     * @return The position from the left edge of the map (0.0 to 1.0).
+     */
+    private static double longitude(double[] direction) {
+        return (Math.atan2(direction[0], -direction[2]) + Math.PI) / (2 * Math.PI);
+    }
+
+
+    /**
+     * Returns the vertical map position of a direction.
+     * @param direction The unit direction.
+     * @return The position from the top edge of the map, the north pole (0.0 to 1.0).
+     */
+    private static double latitude(double[] direction) {
+        return Math.acos(Math.max(-1, Math.min(1, -direction[1]))) / Math.PI;
+    }
+}
@@ -0,0 +1,60 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+import javafx.scene.image.WritableImage;
+
+/**
+ * The rendered images of the layers of one view of one world, shared by the 2D map and the globe.
+ * <p>
+ * An image stays valid until the world changes: every change bumps {@link World#revision()}, which
+ * empties the cache at the next lookup. Switching between layers that were rendered before is then a
+ * lookup instead of a render. Images rendered from an older revision, e.g. in the background while the
+ * sea level was moved, are not stored.
+ * <p>
+ * The cache is only used on the JavaFX application thread.
+ */
+final class LayerImageCache {
+
+    private World world;
+    private WorldLayers view;
+    private int revision;
+    private final Map<String, WritableImage> images = new HashMap<>();
+
+
+    /**
+     * Returns the cached image of a layer.
+     * @param world The world.
+     * @param view The view of the world that is shown.
+     * @param layer The name of the layer.
+     * @return The image, or null if the layer has not been rendered since the world last changed.
+     */
+    WritableImage get(World world, WorldLayers view, String layer) {
+        if (world != this.world || view != this.view || world.revision() != revision) {
+            return null;
+        }
+        return images.get(layer);
+    }
+
+
+    /**
+     * Stores the image of a layer, dropping the images of any other view or revision.
+     * @param world The world.
+     * @param view The view of the world the image was rendered from.
+     * @param revision The revision of the world when rendering started.
+     * @param layer The name of the layer.
+     * @param image The rendered image.
+     */
+    void put(World world, WorldLayers view, int revision, String layer, WritableImage image) {
+        if (world.revision() != revision) {
+            return; // The world changed while the image was rendered
+        }
+        if (world != this.world || view != this.view || revision != this.revision) {
+            images.clear();
+            this.world = world;
+            this.view = view;
+            this.revision = revision;
+        }
+        images.put(layer, image);
+    }
+}
@@ -0,0 +1,306 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.function.DoubleToIntFunction;
+import javafx.scene.paint.Color;
+
+/**
+ * Renders the layers of a world view into packed ARGB pixels, one per cell in row-major order.
+ * <p>
+ * Colors come from precomputed palette tables instead of being built per cell: each continuous layer
+ * has a ramp of {@link #RAMP_SIZE} colors indexed by its value normalized to [0, 1], and biomes have a
+ * table indexed by ordinal. The terrain ramps are indexed by depth below and height above sea level,
+ * so they do not depend on the sea level and never need to be rebuilt; state colors are converted
+ * once per change of the state color array. The layer is chosen once per render, outside the pixel
+ * loop, and the pixel buffer is reused, so a render allocates nothing once the buffer has grown.
+ * <p>
+ * A renderer is not thread-safe; each thread that renders uses its own.
+ */
+final class LayerRenderer {
+
+    /** The number of entries of each color ramp. */
+    static final int RAMP_SIZE = 4096;
+    /** Vertical exaggeration of the slope layer; typical slopes are a few elevation units per radian. */
+    private static final double HILLSHADE_RELIEF = 0.5;
+    private static final int BLACK = 0xFF000000;
+
+    private static final int[] OCEAN_RAMP = ramp(depth ->
+            rgb(0, (int) (100 * (1 - depth)), (int) (150 + 105 * (1 - depth))));
+    private static final int[] LAND_RAMP = ramp(height -> {
+        if (height < 0.05) return rgb(81, 154, 45);
+        else if (height < 0.2) return rgb(34, 139, 34);
+        else if (height < 0.4) return rgb(107, 142, 35);
+        else if (height < 0.65) return rgb(139, 137, 137);
+        else if (height < 0.70) return rgb(105, 105, 100);
+        else return rgb(255, 250, 250);
+    });
+    /** Temperatures from -30°C to 40°C, from blue to red. */
+    private static final int[] TEMPERATURE_RAMP = ramp(normalized -> normalized < 0.5
+            ? rgb(0, (int) (normalized * 255 * 2), 255)
+            : rgb((int) ((normalized - 0.5) * 255 * 2), (int) ((1 - normalized) * 255 * 2), 0));
+    /** Humidity from 0 to 1; higher humidity is darker. */
+    private static final int[] HUMIDITY_RAMP = ramp(humidity -> {
+        int val = (int) (humidity * 255);
+        return rgb(255 - val, 255 - val, 255);
+    });
+    private static final int[] BIOME_COLORS = biomeColors();
+
+    private int[] pixels = new int[0];
+    private Color[] stateColorSource;
+    private int[] stateColors;
+
+
+    /**
+     * Renders a layer of a world view.
+     * @param w The world the view belongs to.
+     * @param view The layers to render.
+     * @param layer The name of the layer (e.g., "Terrain", "Biomes", "Temperature", "Slope", "States").
+     * @return The pixels, width * height of the view; the buffer is reused by the next render.
+     */
+    int[] render(World w, WorldLayers view, String layer) {
+        int cells = view.width * view.height;
+        Metrics.Span span = Metrics.global().begin("Render", layer, cells);
+        if (pixels.length < cells) {
+            pixels = new int[cells];
+        }
+        switch (layer) {
+            case "Terrain" -> renderTerrain(view, w.seaLevel, cells);
+            case "Biomes" -> renderBiomes(view, cells);
+            case "Temperature" -> renderRamp(view, cells, TEMPERATURE_RAMP, true);
+            case "Humidity" -> renderRamp(view, cells, HUMIDITY_RAMP, false);
+            case "Slope" -> renderHillshade(view, w.seaLevel, cells);
+            case "States" -> {
+                StateTopology topology = w.stateTopology(view);
+                if (topology == null) {
+                    renderTerrain(view, w.seaLevel, cells);
+                } else {
+                    renderStates(view, w.seaLevel, cells, topology, stateColors(w.stateColors));
+                }
+            }
+            default -> Arrays.fill(pixels, 0, cells, BLACK);
+        }
+        span.end();
+        return pixels;
+    }
+
+
+    /**
+     * Renders the terrain colors of every cell.
+     * @param view The layers to render.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param cells The number of cells.
+     */
+    private void renderTerrain(WorldLayers view, double seaLevel, int cells) {
+        double depthScale = (RAMP_SIZE - 1) / seaLevel;
+        double heightScale = (RAMP_SIZE - 1) / (1.0 - seaLevel);
+        for (int i = 0; i < cells; i++) {
+            pixels[i] = terrain(view.elevation(i), seaLevel, depthScale, heightScale);
+        }
+    }
+
+
+    /**
+     * Renders the biome colors of every cell.
+     * @param view The layers to render.
+     * @param cells The number of cells.
+     */
+    private void renderBiomes(WorldLayers view, int cells) {
+        for (int i = 0; i < cells; i++) {
+            pixels[i] = BIOME_COLORS[view.biomeOrdinal(i)];
+        }
+    }
+
+
+    /**
+     * Renders a climate layer through its color ramp.
+     * @param view The layers to render.
+     * @param cells The number of cells.
+     * @param ramp The color ramp.
+     * @param temperature True for the temperature layer, false for humidity.
+     */
+    private void renderRamp(WorldLayers view, int cells, int[] ramp, boolean temperature) {
+        for (int i = 0; i < cells; i++) {
+            double normalized = temperature ? (view.temperature(i) + 30) / 70.0 : view.humidity(i);
+            pixels[i] = ramp[index(normalized * (RAMP_SIZE - 1))];
+        }
+    }
+
+
+    /**
+     * Renders the terrain colors shaded by slope, lit from the top left of the map.
+     * The surface normal follows from the analytic elevation gradient; flat land keeps its terrain color
+     * and the sea is not shaded.
+     * @param view The layers to render.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param cells The number of cells.
+     */
+    private void renderHillshade(WorldLayers view, double seaLevel, int cells) {
+        double depthScale = (RAMP_SIZE - 1) / seaLevel;
+        double heightScale = (RAMP_SIZE - 1) / (1.0 - seaLevel);
+        double root2 = Math.sqrt(2);
+        for (int i = 0; i < cells; i++) {
+            double elevation = view.elevation(i);
+            int base = terrain(elevation, seaLevel, depthScale, heightScale);
+            if (elevation < seaLevel) {
+                pixels[i] = base;
+                continue;
+            }
+            double sx = HILLSHADE_RELIEF * view.slopeX(i);
+            double sy = HILLSHADE_RELIEF * view.slopeY(i);
+            // Normal (-sx, -sy, 1) against the light direction (-1, -1, sqrt 2) / 2, relative to flat ground
+            double shade = (sx + sy + root2) / (root2 * Math.sqrt(sx * sx + sy * sy + 1));
+            pixels[i] = scaleBrightness(base, Math.max(0.2, shade));
+        }
+    }
+
+
+    /**
+     * Renders the state colors of owned land cells, black on borders, and the terrain everywhere else.
+     * @param view The layers to render.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param cells The number of cells.
+     * @param topology The state topology of the view, for the borders.
+     * @param colors The ARGB color of each state.
+     */
+    private void renderStates(WorldLayers view, double seaLevel, int cells, StateTopology topology, int[] colors) {
+        double depthScale = (RAMP_SIZE - 1) / seaLevel;
+        double heightScale = (RAMP_SIZE - 1) / (1.0 - seaLevel);
+        for (int i = 0; i < cells; i++) {
+            double elevation = view.elevation(i);
+            int owner = view.stateID(i);
+            if (owner == 0 || elevation < seaLevel) {
+                pixels[i] = terrain(elevation, seaLevel, depthScale, heightScale);
+            } else {
+                pixels[i] = topology.isBorder(i) ? BLACK : colors[owner];
+            }
+        }
+    }
+
+
+    /**
+     * Looks up the terrain color of an elevation in the ocean or land ramp.
+     * @param elevation The elevation (0.0 to 1.0).
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param depthScale The ramp index per unit of depth below sea level.
+     * @param heightScale The ramp index per unit of height above sea level.
+     * @return The ARGB color.
+     */
+    private static int terrain(double elevation, double seaLevel, double depthScale, double heightScale) {
+        return elevation < seaLevel
+                ? OCEAN_RAMP[index((seaLevel - elevation) * depthScale)]
+                : LAND_RAMP[index((elevation - seaLevel) * heightScale)];
+    }
+
+
+    /**
+     * Converts a scaled value to a ramp index, clamping it to the ramp.
+     * @param scaled The value normalized to [0, 1] times {@code RAMP_SIZE - 1}.
+     * @return The index of the nearest entry.
+     */
+    private static int index(double scaled) {
+        return (int) Math.max(0, Math.min(RAMP_SIZE - 1, scaled + 0.5));
+    }
+
+
+    /**
+     * Returns the ARGB colors of the states, converting them again only when the array changes.
+     * @param source The state colors of the world.
+     * @return The ARGB color of each state.
+     */
+    private int[] stateColors(Color[] source) {
+        if (source != stateColorSource) {
+            int[] converted = new int[source.length];
+            for (int s = 0; s < source.length; s++) {
+                converted[s] = source[s] == null ? BLACK : toArgb(source[s]);
+            }
+            stateColors = converted;
+            stateColorSource = source;
+        }
+        return stateColors;
+    }
+
+
+    /**
+     * Multiplies the brightness (in HSB terms) of a color, keeping its hue and saturation.
+     * The brightness is capped at full, as {@link Color#deriveColor} does.
+     * @param argb The color.
+     * @param factor The brightness factor.
+     * @return The scaled color.
+     */
+    private static int scaleBrightness(int argb, double factor) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int max = Math.max(r, Math.max(g, b));
+        if (max > 0) {
+            factor = Math.min(factor, 255.0 / max);
+        }
+        return (argb & 0xFF000000)
+                | (int) Math.round(r * factor) << 16
+                | (int) Math.round(g * factor) << 8
+                | (int) Math.round(b * factor);
+    }
+
+
+    /**
+     * Builds a color ramp by sampling a color function at {@link #RAMP_SIZE} evenly spaced values.
+     * @param color The color of a value in [0, 1].
+     * @return The ramp.
+     */
+    private static int[] ramp(DoubleToIntFunction color) {
+        int[] ramp = new int[RAMP_SIZE];
+        for (int i = 0; i < RAMP_SIZE; i++) {
+            ramp[i] = color.applyAsInt((double) i / (RAMP_SIZE - 1));
+        }
+        return ramp;
+    }
+
+
+    /**
+     * Builds the table of biome colors.
+     * @return The ARGB color of each biome, by ordinal.
+     */
+    private static int[] biomeColors() {
+        int[] colors = new int[Biome.values().length];
+        for (Biome biome : Biome.values()) {
+            colors[biome.ordinal()] = switch (biome) {
+                case OCEAN -> rgb(0, 105, 148);
+                case TUNDRA -> rgb(182, 182, 107);
+                case TAIGA -> rgb(143, 173, 83);
+                case GRASSLAND -> rgb(154, 199, 80);
+                case TEMPERATE_FOREST -> rgb(84, 108, 47);
+                case TROPICAL_RAINFOREST -> rgb(99, 197, 53);
+                case DESERT -> rgb(238, 218, 130);
+                case SAVANNA -> rgb(155, 190, 82);
+                case MEDITERRANEAN -> rgb(164, 189, 100);
+                case MOUNTAIN -> rgb(158, 158, 158);
+            };
+        }
+        return colors;
+    }
+
+
+    /**
+     * Packs an opaque color into an ARGB pixel.
+     * @param r The red component (0 to 255).
+     * @param g The green component (0 to 255).
+     * @param b The blue component (0 to 255).
+     * @return The pixel.
+     */
+    private static int rgb(int r, int g, int b) {
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+
+    /**
+     * Packs a color into an ARGB pixel.
+     * @param c The color.
+     * @return The pixel, 8 bits per channel.
+     */
+    static int toArgb(Color c) {
+        return ((int) Math.round(c.getOpacity() * 255) << 24)
+                | ((int) Math.round(c.getRed() * 255) << 16)
+                | ((int) Math.round(c.getGreen() * 255) << 8)
+                | (int) Math.round(c.getBlue() * 255);
+    }
+}
@@ -1,25 +1,36 @@
 package org.example;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.*;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
-import javafx.scene.paint.PhongMaterial;
-import javafx.scene.shape.Sphere;
 import javafx.scene.transform.Rotate;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.embed.swing.SwingFXUtils;
 import javax.imageio.ImageIO;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import javafx.scene.Cursor;
 import javafx.scene.image.Image;
+import javafx.scene.input.MouseButton;
 // import javafx.scene.text.Font;
 // import javafx.scene.text.Text;
 
@@ -28,18 +39,32 @@ public class MainApplication extends Application {
     private World world;
     private Canvas mapCanvas;
     private SubScene globeScene;
-    private Sphere globe;
+    private GlobeMesh globe;
     private ToggleGroup layerGroup;
     private Label tooltipLabel;
+    private Label progressLabel;
+    private ProgressBar progressBar;
     private Slider seaLevelSlider;
     private Slider worldScaleSlider;
     private Slider numStatesSlider;
     private CheckBox statesCheckBox;
+    private CheckBox parallelCheckBox;
+    private CheckBox chunkedCheckBox;
+    private CheckBox metricsCheckBox;
+    private Label metricsLabel;
+    private long metricsShownAt;
+    private ChoiceBox<Integer> chunkedSizeChoice;
+    private ChoiceBox<TerrainStyle> terrainChoice;
+    private TextField seedField;
     private Slider worldDetailSlider;
     private Slider worldSizeSlider;
     private TabPane tabPane;
 
     private double mouseX = 0, mouseY = 0;
+    /** The world point at the center of the map, as a fraction of the world size, and the map zoom. */
+    private double mapCenterX = 0.5, mapCenterY = 0.5, mapZoom = 1;
+    private double dragX, dragY;
+    private WritableImage mapImage;
     private Rotate rotateX = new Rotate(0, Rotate.X_AXIS);
     private Rotate rotateY = new Rotate(0, Rotate.Y_AXIS);
     private boolean autoRotate = true;
@@ -73,6 +98,38 @@ public class MainApplication extends Application {
 
     private static final double MAX_LAND_ELEVATION = 8848.0;
     private static final double MAX_OCEAN_DEPTH = 11000.0;
+    private static final int MAX_OVERVIEW_SIZE = 1024;
+    private static final int MAX_CACHED_TILES = 64;
+    private static final int PREVIEW_LEVELS = 3;
+    private static final long MAX_CACHE_BYTES = 1L << 30;
+    private static final int MAX_MAP_TILES = 256;
+    private static final double MAX_CELL_PIXELS = 16;
+    private static final Color MAP_BACKGROUND = Color.web("#222");
+    private static final double GLOBE_RADIUS = 150;
+    private static final double MIN_CAMERA_DISTANCE = 300;
+    private static final double MAX_CAMERA_DISTANCE = 1500;
+    private static final long METRICS_REFRESH_NANOS = 500_000_000L;
+
+    private final LayerRenderer mapRenderer = new LayerRenderer();
+    private final LayerRenderer stageRenderer = new LayerRenderer();
+    private final LayerImageCache imageCache = new LayerImageCache();
+    private final TilePyramid mapTiles = new TilePyramid(MAX_MAP_TILES, this::drawMap);
+    private final WorldCache worldCache = new WorldCache(
+            Paths.get(System.getProperty("user.home"), ".world-simulator", "cache"), MAX_CACHE_BYTES);
+
+    private final ExecutorService generator = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "world-generator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private GenerationProgress currentGeneration;
+    private int overviewResolution = MAX_OVERVIEW_SIZE;
+    /** The world that edits apply to: the stage published or the world opened last. Generator thread only. */
+    private World editedWorld;
+    /** The sea level and detail of the sliders, applied to the world on the generator thread. */
+    private volatile double seaLevelTarget;
+    private volatile int detailTarget;
+    private final AtomicBoolean sliderEditQueued = new AtomicBoolean();
 
 
     /**
@@ -83,8 +140,7 @@ public class MainApplication extends Application {
     @Override
     public void start(Stage primaryStage) {
         primaryStage.setTitle("World Simulator");
-
-        world = new World(512, 0.5, 2.0, 5, null);
+        Metrics.global().registerMBean();
 
         BorderPane root = new BorderPane();
         root.setTop(createToolBar());
@@ -110,8 +166,20 @@ public class MainApplication extends Application {
 
         tooltipLabel = new Label("Hover over the map to see details");
         tooltipLabel.setPadding(new Insets(5));
-        tooltipLabel.getStyleClass().add("tooltip-bar");
-        root.setBottom(tooltipLabel);
+        tooltipLabel.setMaxWidth(Double.MAX_VALUE);
+        HBox.setHgrow(tooltipLabel, Priority.ALWAYS);
+        // Phase timings from the metrics registry, shown while "Show Metrics" is checked
+        metricsLabel = new Label();
+        metricsLabel.visibleProperty().bind(metricsCheckBox.selectedProperty());
+        metricsLabel.managedProperty().bind(metricsCheckBox.selectedProperty());
+        progressLabel = new Label();
+        progressBar = new ProgressBar(0);
+        progressBar.setVisible(false);
+        HBox statusBar = new HBox(10, tooltipLabel, metricsLabel, progressLabel, progressBar);
+        statusBar.setAlignment(Pos.CENTER_LEFT);
+        statusBar.setPadding(new Insets(0, 10, 0, 0));
+        statusBar.getStyleClass().add("tooltip-bar");
+        root.setBottom(statusBar);
 
 
         try {
@@ -138,6 +206,10 @@ public class MainApplication extends Application {
                 if (autoRotate && tabPane.getSelectionModel().getSelectedIndex() == 1) {
                     rotateY.setAngle(rotateY.getAngle() + 0.04);
                 }
+                if (metricsCheckBox.isSelected() && now - metricsShownAt > METRICS_REFRESH_NANOS) {
+                    metricsLabel.setText(Metrics.global().overlay());
+                    metricsShownAt = now;
+                }
             }
         };
         timer.start();
@@ -154,6 +226,12 @@ public class MainApplication extends Application {
         Button saveBtn = new Button("Save Image");
         saveBtn.setOnAction(e -> saveImage());
 
+        Button saveWorldBtn = new Button("Save World");
+        saveWorldBtn.setOnAction(e -> saveWorld());
+
+        Button openWorldBtn = new Button("Open World");
+        openWorldBtn.setOnAction(e -> openWorld());
+
         layerGroup = new ToggleGroup();
 
         ToggleButton terrainBtn = new ToggleButton("Terrain");
@@ -173,6 +251,10 @@ public class MainApplication extends Application {
         humidBtn.setToggleGroup(layerGroup);
         humidBtn.setOnAction(e -> onLayerChange());
 
+        ToggleButton slopeBtn = new ToggleButton("Slope");
+        slopeBtn.setToggleGroup(layerGroup);
+        slopeBtn.setOnAction(e -> onLayerChange());
+
         ToggleButton statesBtn = new ToggleButton("States");
         statesBtn.setToggleGroup(layerGroup);
         statesBtn.setOnAction(e -> onLayerChange());
@@ -180,11 +262,14 @@ public class MainApplication extends Application {
         ToolBar toolBar = new ToolBar(
                 generateBtn,
                 saveBtn,
+                saveWorldBtn,
+                openWorldBtn,
                 new Separator(),
                 new Label("Layers:"),
                 terrainBtn,
                 tempBtn,
                 humidBtn,
+                slopeBtn,
                 statesBtn
         );
 
@@ -211,8 +296,10 @@ public class MainApplication extends Application {
         // --- Sea Level Slider ---
         Label seaLabel = new Label("Sea Level: 0.50");
         seaLevelSlider = new Slider(0.3, 0.7, 0.5);
-        seaLevelSlider.valueProperty().addListener((obs, old, val) ->
-                seaLabel.setText(String.format("Sea Level: %.2f", val.doubleValue())));
+        seaLevelSlider.valueProperty().addListener((obs, old, val) -> {
+            seaLabel.setText(String.format("Sea Level: %.2f", val.doubleValue()));
+            updateSeaLevel(val.doubleValue());
+        });
 
         // --- World Scale Slider ---
         Label scaleLabel = new Label("World Scale: 2.0");
@@ -227,14 +314,50 @@ public class MainApplication extends Application {
         worldDetailSlider.setMajorTickUnit(1);
         worldDetailSlider.setMinorTickCount(0);
         worldDetailSlider.setSnapToTicks(true);
-        worldDetailSlider.valueProperty().addListener((obs, old, val) ->
-                detailLabel.setText("Detail Level: " + val.intValue()));
+        worldDetailSlider.valueProperty().addListener((obs, old, val) -> {
+            detailLabel.setText("Detail Level: " + val.intValue());
+            updateDetail(val.intValue());
+        });
+
+        // --- Terrain style ---
+        Label terrainLabel = new Label("Terrain");
+        terrainChoice = new ChoiceBox<>();
+        terrainChoice.getItems().addAll(TerrainStyle.values());
+        terrainChoice.setValue(TerrainStyle.CONTINENTS);
+
+        // Parallel generation (unchecked = sequential, for comparison)
+        parallelCheckBox = new CheckBox("Parallel Generation");
+        parallelCheckBox.setSelected(true);
+
+        // Chunked worlds are generated tile by tile as they are viewed
+        chunkedCheckBox = new CheckBox("Chunked World");
+        chunkedCheckBox.setSelected(false);
+        chunkedSizeChoice = new ChoiceBox<>();
+        chunkedSizeChoice.getItems().addAll(4096, 8192, 16384, 32768, 65536);
+        chunkedSizeChoice.setValue(8192);
+        chunkedSizeChoice.disableProperty().bind(chunkedCheckBox.selectedProperty().not());
+        worldSizeSlider.disableProperty().bind(chunkedCheckBox.selectedProperty());
+
+        // Shows the last duration of every generation and render phase in the status bar
+        metricsCheckBox = new CheckBox("Show Metrics");
+        metricsCheckBox.setSelected(false);
+        sizeLabel.disableProperty().bind(chunkedCheckBox.selectedProperty());
+
+        // --- Seed (blank = random) ---
+        Label seedLabel = new Label("Seed");
+        seedField = new TextField();
+        seedField.setPromptText("Random");
 
         worldSettingsBox.getChildren().addAll(
+                seedLabel, seedField,
                 sizeLabel, worldSizeSlider,
                 seaLabel, seaLevelSlider,
                 scaleLabel, worldScaleSlider,
-                detailLabel, worldDetailSlider
+                detailLabel, worldDetailSlider,
+                terrainLabel, terrainChoice,
+                parallelCheckBox,
+                chunkedCheckBox, chunkedSizeChoice,
+                metricsCheckBox
         );
 
         TitledPane worldPane = new TitledPane("World Shape", worldSettingsBox);
@@ -255,9 +378,10 @@ public class MainApplication extends Application {
         numStatesSlider.valueProperty().addListener((obs, old, val) ->
                 statesLabel.setText("Number of States: " + val.intValue()));
 
-        // Bind slider to checkbox
-        numStatesSlider.disableProperty().bind(statesCheckBox.selectedProperty().not());
-        statesLabel.disableProperty().bind(statesCheckBox.selectedProperty().not());
+        // Bind slider to checkbox; chunked worlds have no states
+        statesCheckBox.disableProperty().bind(chunkedCheckBox.selectedProperty());
+        numStatesSlider.disableProperty().bind(statesCheckBox.selectedProperty().not().or(chunkedCheckBox.selectedProperty()));
+        statesLabel.disableProperty().bind(statesCheckBox.selectedProperty().not().or(chunkedCheckBox.selectedProperty()));
 
         statesSettingsBox.getChildren().addAll(
                 statesCheckBox,
@@ -279,25 +403,23 @@ public class MainApplication extends Application {
 
     /**
      * Creates the 3D globe view using a JavaFX `SubScene`.
-     * Adds mouse interaction for rotating the globe and sets up auto-rotation.
+     * Adds mouse interaction for rotating the globe, the scroll wheel moves the camera closer or
+     * further away, and sets up auto-rotation.
      * @return A `Parent` node containing the 3D globe view.
      */
     private Parent create3DGlobe() {
         Group root3D = new Group();
 
-        globe = new Sphere(150);
+        globe = new GlobeMesh(GLOBE_RADIUS);
         globe.getTransforms().addAll(rotateX, rotateY);
 
-        PhongMaterial material = new PhongMaterial();
-        material.setDiffuseColor(Color.LIGHTBLUE);
-        globe.setMaterial(material);
-
         root3D.getChildren().add(globe);
 
         PerspectiveCamera camera = new PerspectiveCamera(true);
         camera.setTranslateZ(-800);
         camera.setNearClip(0.1);
         camera.setFarClip(2000.0);
+        globe.setCameraDistance(-camera.getTranslateZ());
 
         SubScene subScene = new SubScene(root3D, 800, 600, true, SceneAntialiasing.BALANCED);
         subScene.setFill(Color.BLACK);
@@ -330,6 +452,13 @@ public class MainApplication extends Application {
             subScene.setCursor(Cursor.DEFAULT);
         });
 
+        subScene.setOnScroll(event -> {
+            double distance = -camera.getTranslateZ() * Math.exp(-event.getDeltaY() / 400);
+            distance = Math.max(MIN_CAMERA_DISTANCE, Math.min(MAX_CAMERA_DISTANCE, distance));
+            camera.setTranslateZ(-distance);
+            globe.setCameraDistance(distance);
+        });
+
         globeScene = subScene;
 
         StackPane container = new StackPane(subScene);
@@ -341,19 +470,73 @@ public class MainApplication extends Application {
 
 
     /**
-     * Sets up mouse move interactions for the 2D map canvas.
-     * Displays a tooltip with details of the cell under the cursor.
+     * Sets up mouse interactions for the 2D map canvas.
+     * The scroll wheel zooms in and out around the cursor, dragging pans the map and a double-click
+     * zooms out to the whole world again. Displays a tooltip with details of the cell under the cursor,
+     * and edits the states on right-click: a plain click founds a state with its capital there, a
+     * Ctrl-click moves the capital of the state under the cursor there, and a Shift-click removes the
+     * state under the cursor.
      */
     private void setupMapInteraction() {
+        mapCanvas.setOnScroll(event -> {
+            double width = mapCanvas.getWidth();
+            double height = mapCanvas.getHeight();
+            // Keep the world point under the cursor in place
+            double pointX = mapCenterX + (event.getX() - width / 2) / (width * mapZoom);
+            double pointY = mapCenterY + (event.getY() - height / 2) / (height * mapZoom);
+            mapZoom *= Math.exp(event.getDeltaY() / 200);
+            clampMapView();
+            mapCenterX = pointX - (event.getX() - width / 2) / (width * mapZoom);
+            mapCenterY = pointY - (event.getY() - height / 2) / (height * mapZoom);
+            drawMap();
+        });
+        mapCanvas.setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        mapCanvas.setOnMouseDragged(event -> {
+            if (event.getButton() != MouseButton.PRIMARY) {
+                return;
+            }
+            mapCenterX -= (event.getX() - dragX) / (mapCanvas.getWidth() * mapZoom);
+            mapCenterY -= (event.getY() - dragY) / (mapCanvas.getHeight() * mapZoom);
+            dragX = event.getX();
+            dragY = event.getY();
+            drawMap();
+        });
+        mapCanvas.setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
+                mapCenterX = 0.5;
+                mapCenterY = 0.5;
+                mapZoom = 1;
+                drawMap();
+                return;
+            }
+            if (event.getButton() != MouseButton.SECONDARY || world == null
+                    || world.stateColors == null || world.isChunked()) {
+                return;
+            }
+            int[] cell = mapCell(event.getX(), event.getY());
+            if (cell == null) {
+                return;
+            }
+            boolean remove = event.isShiftDown();
+            boolean move = event.isControlDown();
+            editWorld(w -> editStates(w, cell[0], cell[1], remove, move));
+        });
         mapCanvas.setOnMouseMoved(event -> {
-            int x = (int)(event.getX() / mapCanvas.getWidth() * world.size);
-            int y = (int)(event.getY() / mapCanvas.getHeight() * world.size);
+            if (world == null) {
+                return; // Nothing generated yet
+            }
+            int[] cell = mapCell(event.getX(), event.getY());
 
-            if (x >= 0 && x < world.size && y >= 0 && y < world.size) {
+            if (cell != null) {
+                int x = cell[0];
+                int y = cell[1];
                 double lat = 90 - (y * 180.0 / world.size);
                 double lon = (x * 360.0 / world.size) - 180;
 
-                double rawElevation = world.elevation[x][y];
+                double rawElevation = world.getElevation(x, y);
                 double seaLevel = world.seaLevel;
                 double displayElevation;
 
@@ -365,13 +548,13 @@ public class MainApplication extends Application {
                     displayElevation = heightPercentage * MAX_LAND_ELEVATION;
                 }
 
-                double temp = world.temperature[x][y];
-                double humid = world.humidity[x][y];
-                String biome = world.biomes[x][y].toString();
+                double temp = world.getTemperature(x, y);
+                double humid = world.getHumidity(x, y);
+                String biome = world.getBiome(x, y).toString();
 
                 String capitalInfo = "";
-                if (world.stateNames != null && world.stateID[x][y] > 0) {
-                    String capitalName = world.stateNames[world.stateID[x][y]];
+                if (world.stateNames != null && world.getStateID(x, y) > 0) {
+                    String capitalName = world.stateNames[world.getStateID(x, y)];
                     if (capitalName != null) {
                         capitalInfo = " | Capital: " + capitalName;
                     }
@@ -388,258 +571,587 @@ public class MainApplication extends Application {
 
     /**
      * Generates a new world based on the current slider values.
-     * Updates the world size, sea level, scale, detail level, and state generation settings.
-     * Renders the 2D map and updates the 3D globe texture.
+     * Updates the world size, sea level, scale, detail level, terrain style, and state generation settings.
+     * Generation runs progressively on the generator thread: a coarse preview (1/8 of the size) is
+     * shown first and refined in successive passes, each rendered off the UI thread and then pushed to
+     * the 2D map and the 3D globe. Each phase is reported in the status bar, and starting a new
+     * generation cancels the running one at its next row band. Each stage is generated with the sea
+     * level and detail the sliders have when it starts.
      */
     private void generateWorld() {
         int size = (int)worldSizeSlider.getValue();
         double seaLevel = seaLevelSlider.getValue();
         double scale = worldScaleSlider.getValue();
         int octaves = (int)worldDetailSlider.getValue();
-        boolean generateStates = statesCheckBox.isSelected();
+        TerrainStyle terrainStyle = terrainChoice.getValue();
+        boolean chunked = chunkedCheckBox.isSelected();
+        int chunkedSize = chunkedSizeChoice.getValue();
+        boolean generateStates = statesCheckBox.isSelected() && !chunked;
         int numStates = (int)numStatesSlider.getValue();
+        int parallelism = parallelCheckBox.isSelected() ? Runtime.getRuntime().availableProcessors() : 1;
+        seaLevelTarget = seaLevel;
+        detailTarget = octaves;
 
+        long seed = readSeed();
+        Random rand = new Random(seed);
         String[] stateNames = null;
         if (generateStates) {
-            Random rand = new Random();
             stateNames = new String[numStates + 1];
             for (int i = 1; i <= numStates; i++) {
                 stateNames[i] = CAPITAL_NAMES[rand.nextInt(CAPITAL_NAMES.length)];
             }
         }
+        String[] names = stateNames;
 
-        world = new World(size, seaLevel, scale, octaves, stateNames);
-        world.generate(generateStates, numStates);
+        String layer = selectedLayer();
+        List<String> layerNames = layerNames();
 
-        renderMap();
-        updateGlobeTexture();
+        if (currentGeneration != null) {
+            currentGeneration.cancel();
+        }
+        GenerationProgress progress = new GenerationProgress(
+                (phase, fraction) -> Platform.runLater(() -> showProgress(phase, fraction)));
+        currentGeneration = progress;
+        generator.execute(() -> {
+            try {
+                if (chunked) {
+                    World chunkedWorld = World.chunked(chunkedSize, seaLevel, scale, octaves, MAX_CACHED_TILES);
+                    chunkedWorld.setSeed(seed);
+                    chunkedWorld.setTerrainStyle(terrainStyle);
+                    chunkedWorld.setParallelism(parallelism);
+                    chunkedWorld.generate(false, 0);
+                    for (int res = MAX_OVERVIEW_SIZE >> PREVIEW_LEVELS; res <= MAX_OVERVIEW_SIZE; res *= 2) {
+                        progress.checkCancelled();
+                        chunkedWorld.overview(res);
+                        publishStage(progress, chunkedWorld, res, layer, res == MAX_OVERVIEW_SIZE);
+                    }
+                    prerenderLayers(progress, chunkedWorld, MAX_OVERVIEW_SIZE, layer, layerNames);
+                    return;
+                }
+
+                // A cached world loads faster than any preview stage
+                boolean cached = worldCache.contains(seed, size, seaLevel, scale, octaves, terrainStyle,
+                        generateStates ? numStates : 0);
+                World previous = null;
+                for (int level = cached ? 0 : PREVIEW_LEVELS; level >= 0; level--) {
+                    progress.checkCancelled();
+                    boolean last = level == 0;
+                    World stage = new World(size >> level, seaLevelTarget, scale, detailTarget, last ? names : null);
+                    stage.setSeed(seed);
+                    stage.setTerrainStyle(terrainStyle);
+                    stage.setParallelism(parallelism);
+                    stage.setDiskCache(last ? worldCache : null);
+                    stage.setProgress(progress);
+                    stage.generateRefined(previous, last && generateStates, numStates);
+                    publishStage(progress, stage, MAX_OVERVIEW_SIZE, layer, last);
+                    previous = stage;
+                }
+                prerenderLayers(progress, previous, MAX_OVERVIEW_SIZE, layer, layerNames);
+            } catch (CancellationException e) {
+                // Superseded by a newer generation, which now owns the progress display
+            }
+        });
     }
 
     /**
-     * Called when the layer selection changes.
-     * Redraws both the 2D map and the 3D globe.
+     * Reads the seed from the seed field, or picks a random one if the field is blank.
+     * Text that is not a number is hashed, so any word can be used as a seed.
+     * @return The seed to generate the world from.
      */
-    private void onLayerChange() {
-        renderMap();
-        updateGlobeTexture();
+    private long readSeed() {
+        String text = seedField.getText().trim();
+        long seed;
+        if (text.isEmpty()) {
+            seed = new Random().nextLong();
+        } else {
+            try {
+                seed = Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                seed = text.hashCode();
+            }
+        }
+        seedField.setPromptText("Random (last: " + seed + ")");
+        return seed;
+    }
+
+    /**
+     * Renders one finished stage of a progressive generation on the generator thread, then shows it,
+     * unless the generation has been cancelled since. The stage is first brought to the sea level and
+     * detail of the sliders, in case they moved while it was generating, and becomes the world that
+     * later edits apply to.
+     * @param progress The progress of the generation the stage belongs to.
+     * @param stage The generated world of this stage.
+     * @param resolution The overview resolution to render the stage at.
+     * @param layer The layer selected when the generation started.
+     * @param last Whether this is the final stage of the generation.
+     */
+    private void publishStage(GenerationProgress progress, World stage, int resolution, String layer, boolean last) {
+        progress.checkCancelled();
+        applySliders(stage);
+        editedWorld = stage;
+        progress.begin(GenerationProgress.Phase.RENDER, 1);
+        int revision = stage.revision();
+        WorldLayers view = stage.overview(resolution);
+        WritableImage image = layer == null ? null : renderLayer(stage, view, layer);
+        progress.advance(1);
+
+        Platform.runLater(() -> {
+            if (progress.isCancelled()) {
+                return;
+            }
+            world = stage;
+            overviewResolution = resolution;
+            if (last) {
+                progressBar.setVisible(false);
+                progressLabel.setText("");
+            }
+            showRendered(stage, view, revision, layer, image);
+        });
     }
 
 
     /**
-     * Renders the 2D map onto the canvas based on the selected layer.
-     * Iterates through each cell of the world grid and determines the color
-     * based on the selected layer (e.g., Terrain, Biomes, Temperature, etc.).
-     * Handles special cases such as state borders for the "States" layer.
+     * Shows a layer rendered on the generator thread, if its world is still the current one.
+     * If another layer was selected meanwhile, that one is drawn instead.
+     * @param rendered The world the layer was rendered from.
+     * @param view The view of the world the layer was rendered from.
+     * @param revision The revision of the world when rendering started.
+     * @param layer The name of the rendered layer, or null if none was rendered.
+     * @param image The rendered layer, or null.
      */
-    private void renderMap() {
-        GraphicsContext gc = mapCanvas.getGraphicsContext2D();
-        double w = mapCanvas.getWidth();
-        double h = mapCanvas.getHeight();
+    private void showRendered(World rendered, WorldLayers view, int revision, String layer, WritableImage image) {
+        if (world != rendered) {
+            return;
+        }
+        if (layer == null || !layer.equals(selectedLayer())) {
+            redraw();
+        } else {
+            imageCache.put(rendered, view, revision, layer, image);
+            showImage(view, image);
+        }
+    }
+
+
+    /**
+     * Renders the layers that are not shown yet of a finished generation on the generator thread, and
+     * adds them to the image cache, so switching to them later only swaps images.
+     * Stops as soon as the generation is cancelled or the world is replaced.
+     * @param progress The progress of the generation.
+     * @param finished The generated world.
+     * @param resolution The overview resolution the world is shown at.
+     * @param shown The layer rendered when the generation was published, or null.
+     * @param layers The names of all layers.
+     */
+    private void prerenderLayers(GenerationProgress progress, World finished, int resolution, String shown,
+                                 List<String> layers) {
+        for (String layer : layers) {
+            if (layer.equals(shown)) {
+                continue;
+            }
+            if (progress.isCancelled()) {
+                return;
+            }
+            int revision = finished.revision();
+            WorldLayers view = finished.overview(resolution);
+            WritableImage image = renderLayer(finished, view, layer);
+            Platform.runLater(() -> {
+                if (!progress.isCancelled() && world == finished && imageCache.get(finished, view, layer) == null) {
+                    imageCache.put(finished, view, revision, layer, image);
+                }
+            });
+        }
+    }
 
-        if (layerGroup.getSelectedToggle() == null) {
+    /**
+     * Shows the phase and progress of the running generation in the status bar.
+     * @param phase The current phase.
+     * @param fraction The completed fraction of the phase (0.0 to 1.0).
+     */
+    private void showProgress(GenerationProgress.Phase phase, double fraction) {
+        if (currentGeneration == null || currentGeneration.isCancelled()) {
             return;
         }
-        ToggleButton selected = (ToggleButton) layerGroup.getSelectedToggle();
-        String layer = selected.getText();
-
-        for (int y = 0; y < world.size; y++) {
-            for (int x = 0; x < world.size; x++) {
-                Color color = switch (layer) {
-                    case "Terrain" -> getTerrainColor(world.elevation[x][y], world.seaLevel);
-                    case "Biomes" -> getBiomeColor(world.biomes[x][y]);
-                    case "Temperature" -> getTemperatureColor(world.temperature[x][y]);
-                    case "Humidity" -> getHumidityColor(world.humidity[x][y]);
-                    case "States" -> {
-                        if (world.stateColors == null || world.stateID == null) {
-                            yield getTerrainColor(world.elevation[x][y], world.seaLevel);
-                        }
-                        if (world.elevation[x][y] < world.seaLevel) {
-                            yield getTerrainColor(world.elevation[x][y], world.seaLevel);
-                        }
+        progressBar.setVisible(true);
+        progressBar.setProgress(fraction);
+        progressLabel.setText(String.format("%s %d%%", phase, Math.round(fraction * 100)));
+    }
 
-                        int owner = world.stateID[x][y];
-                        if (owner == 0) {
-                            yield getTerrainColor(world.elevation[x][y], world.seaLevel);
-                        }
+    /**
+     * Applies a new sea level to the current world and redraws it.
+     * The world keeps its seed and noise fields, so only the sea-level dependent layers are recomputed.
+     * @param seaLevel The new sea level threshold (0.0 to 1.0).
+     */
+    private void updateSeaLevel(double seaLevel) {
+        seaLevelTarget = seaLevel;
+        scheduleSliderEdit();
+    }
 
-                        boolean isBorder = false;
-                        int[] dx = {0, 0, 1, -1};
-                        int[] dy = {1, -1, 0, 0};
-
-                        for (int i = 0; i < 4; i++) {
-                            int nx = (x + dx[i] + world.size) % world.size;
-                            int ny = y + dy[i];
-                            if (ny < 0 || ny >= world.size) continue;
-
-                            if (world.elevation[nx][ny] < world.seaLevel) {
-                                isBorder = true; // Border with the ocean
-                                break;
-                            }
-
-                            int neighborOwner = world.stateID[nx][ny];
-                            if (neighborOwner != 0 && neighborOwner != owner) {
-                                isBorder = true; // Border with another state
-                                break;
-                            }
-                        }
+    /**
+     * Applies a new detail level (number of elevation octaves) to the current world and redraws it.
+     * Octaves that were already evaluated for this world are reused from the per-octave cache.
+     * @param octaves The new number of octaves.
+     */
+    private void updateDetail(int octaves) {
+        detailTarget = octaves;
+        scheduleSliderEdit();
+    }
 
-                        yield isBorder ? Color.BLACK : world.stateColors[owner];
-                    }
+    /**
+     * Queues bringing the world to the sea level and detail of the sliders, unless that is queued already.
+     * Recomputing the world can take as long as growing all states again, so it runs on the generator
+     * thread; slider ticks that arrive meanwhile only move the target, and are applied together by the
+     * one queued edit.
+     */
+    private void scheduleSliderEdit() {
+        if (world != null && sliderEditQueued.compareAndSet(false, true)) {
+            editWorld(w -> {
+                sliderEditQueued.set(false);
+                return applySliders(w);
+            });
+        }
+    }
 
-                    default -> Color.BLACK;
-                };
+    /**
+     * Brings a world to the sea level and detail of the sliders. Runs on the generator thread.
+     * @param w The world.
+     * @return Whether the world changed.
+     */
+    private boolean applySliders(World w) {
+        boolean changed = false;
+        int octaves = detailTarget;
+        if (w.worldOctaves != octaves) {
+            w.setWorldOctaves(octaves);
+            changed = true;
+        }
+        double seaLevel = seaLevelTarget;
+        if (w.seaLevel != seaLevel) {
+            w.setSeaLevel(seaLevel);
+            changed = true;
+        }
+        return changed;
+    }
 
-                gc.setFill(color);
-                double px = x * w / world.size;
-                double py = y * h / world.size;
-                double pw = Math.ceil(w / world.size) + 1;
-                double ph = Math.ceil(h / world.size) + 1;
-                gc.fillRect(px, py, pw, ph);
+    /**
+     * Edits the states at a cell, as asked for by a right-click on the map: founds a state with its
+     * capital there, moves the capital of the state there, or removes the state there. Runs on the
+     * generator thread, so the cell is checked against the world as it is when the edit runs.
+     * @param w The world.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @param remove Whether to remove the state at the cell.
+     * @param move Whether to move the capital of the state at the cell there.
+     * @return Whether the world changed.
+     */
+    private static boolean editStates(World w, int x, int y, boolean remove, boolean move) {
+        if (w.stateColors == null || w.isChunked() || x >= w.size || y >= w.size) {
+            return false;
+        }
+        int stateID = w.getStateID(x, y);
+        boolean land = w.getElevation(x, y) >= w.seaLevel;
+        if (remove) {
+            if (stateID == 0) {
+                return false;
+            }
+            w.removeCapital(stateID);
+        } else if (move) {
+            if (stateID == 0 || !land) {
+                return false;
             }
+            w.moveCapital(stateID, x, y);
+        } else {
+            if (!land || w.stateColors.length > WorldLayers.MAX_STATE_ID) {
+                return false;
+            }
+            w.addCapital(x, y, CAPITAL_NAMES);
         }
+        return true;
     }
 
+    /**
+     * Runs an edit of the world on the generator thread, after the generation and edits queued before
+     * it, so the world is never changed while it is generated, rendered or edited elsewhere. The edited
+     * world is then rendered there too and shown.
+     * @param edit Edits the world that was published or opened last; returns whether it changed it.
+     */
+    private void editWorld(Predicate<World> edit) {
+        String layer = selectedLayer();
+        int resolution = overviewResolution;
+        generator.execute(() -> {
+            World edited = editedWorld;
+            if (!edit.test(edited)) {
+                return;
+            }
+            int revision = edited.revision();
+            WorldLayers view = edited.overview(resolution);
+            WritableImage image = layer == null ? null : renderLayer(edited, view, layer);
+            Platform.runLater(() -> showRendered(edited, view, revision, layer, image));
+        });
+    }
 
     /**
-     * Updates the globe texture by rendering the selected layer (e.g., Terrain, Biomes, Temperature, etc.)
-     * onto a WritableImage and applying it as the diffuse map of the globe.
+     * Called when the layer selection changes.
+     * Redraws both the 2D map and the 3D globe.
      */
-    private void updateGlobeTexture() {
-        WritableImage texture = new WritableImage(world.size, world.size);
+    private void onLayerChange() {
+        redraw();
+    }
+
 
-        if (layerGroup.getSelectedToggle() == null) {
+    /**
+     * Renders the selected layer of the current world and shows it on the 2D map and the 3D globe.
+     * Layers rendered since the world last changed are taken from the image cache instead.
+     */
+    private void redraw() {
+        String layer = selectedLayer();
+        if (world == null || layer == null) {
             return;
         }
+        WorldLayers view = world.overview(overviewResolution);
+        WritableImage image = imageCache.get(world, view, layer);
+        if (image == null) {
+            int revision = world.revision();
+            image = renderLayer(world, view, layer);
+            imageCache.put(world, view, revision, layer, image);
+        }
+        showImage(view, image);
+    }
+
+
+    /**
+     * Returns the names of all layer toggles.
+     * @return The layer names, in the order of the toggles.
+     */
+    private List<String> layerNames() {
+        List<String> names = new ArrayList<>();
+        for (Toggle toggle : layerGroup.getToggles()) {
+            names.add(((ToggleButton) toggle).getText());
+        }
+        return names;
+    }
+
+
+    /**
+     * Returns the name of the selected layer toggle.
+     * @return The layer name (e.g., "Terrain", "States"), or null if no layer is selected.
+     */
+    private String selectedLayer() {
         ToggleButton selected = (ToggleButton) layerGroup.getSelectedToggle();
-        String layer = selected.getText();
-
-        for (int y = 0; y < world.size; y++) {
-            for (int x = 0; x < world.size; x++) {
-
-                Color color = switch (layer) {
-                    case "Terrain" -> getTerrainColor(world.elevation[x][y], world.seaLevel);
-                    case "Biomes" -> getBiomeColor(world.biomes[x][y]);
-                    case "Temperature" -> getTemperatureColor(world.temperature[x][y]);
-                    case "Humidity" -> getHumidityColor(world.humidity[x][y]);
-                    case "States" -> {
-                        if (world.stateColors == null || world.stateID == null) {
-                            yield getTerrainColor(world.elevation[x][y], world.seaLevel);
-                        }
-                        if (world.elevation[x][y] < world.seaLevel) {
-                            yield getTerrainColor(world.elevation[x][y], world.seaLevel);
-                        }
+        return selected == null ? null : selected.getText();
+    }
 
-                        int owner = world.stateID[x][y];
-                        if (owner == 0) {
-                            yield getTerrainColor(world.elevation[x][y], world.seaLevel);
-                        }
 
-                        boolean isBorder = false;
-                        int[] dx = {0, 0, 1, -1};
-                        int[] dy = {1, -1, 0, 0};
-
-                        for (int i = 0; i < 4; i++) {
-                            int nx = (x + dx[i] + world.size) % world.size;
-                            int ny = y + dy[i];
-                            if (ny < 0 || ny >= world.size) continue;
-
-                            if (world.elevation[nx][ny] < world.seaLevel) {
-                                isBorder = true;
-                                break;
-                            }
-
-                            int neighborOwner = world.stateID[nx][ny];
-                            if (neighborOwner != 0 && neighborOwner != owner) {
-                                isBorder = true;
-                                break;
-                            }
-                        }
+    /**
+     * Renders a layer of a world view into an image with one pixel per cell.
+     * The pixels are rendered into an ARGB buffer and written into the image in one call. The UI thread
+     * and the generator thread each render with their own {@link LayerRenderer}, reusing its buffer.
+     * The image is not attached to the scene yet, so this can run on the generator thread.
+     * @param w The world the view belongs to.
+     * @param view The layers to render.
+     * @param layer The name of the layer (e.g., "Terrain", "Biomes", "Temperature").
+     * @return The rendered image.
+     */
+    private WritableImage renderLayer(World w, WorldLayers view, String layer) {
+        LayerRenderer renderer = Platform.isFxApplicationThread() ? mapRenderer : stageRenderer;
+        WritableImage image = new WritableImage(view.width, view.height);
+        image.getPixelWriter().setPixels(0, 0, view.width, view.height, PixelFormat.getIntArgbInstance(),
+                renderer.render(w, view, layer), 0, view.width);
+        return image;
+    }
 
-                        yield isBorder ? Color.BLACK : world.stateColors[owner];
-                    }
 
-                    default -> Color.BLACK;
-                };
+    /**
+     * Shows a rendered layer on the map canvas and on the globe, with the relief of the view.
+     * @param view The view the layer was rendered from.
+     * @param image The rendered layer of the view.
+     */
+    private void showImage(WorldLayers view, WritableImage image) {
+        mapImage = image;
+        drawMap();
+        globe.show(world, view, image);
+    }
+
+
+    /**
+     * Draws the visible part of the map. The overview image is drawn first, scaled to the viewport;
+     * once the map is zoomed in past its resolution, the tiles of the pyramid level with at least one
+     * cell per pixel are drawn over it, for the visible tiles only. Tiles that are not rendered yet are
+     * requested, and the map is drawn again as they arrive. The map wraps around horizontally.
+     */
+    private void drawMap() {
+        GraphicsContext gc = mapCanvas.getGraphicsContext2D();
+        double width = mapCanvas.getWidth();
+        double height = mapCanvas.getHeight();
+        gc.setFill(MAP_BACKGROUND);
+        gc.fillRect(0, 0, width, height);
+        if (world == null || mapImage == null) {
+            return;
+        }
+        clampMapView();
+        gc.setImageSmoothing(false);
+
+        // The viewport in world cells
+        int size = world.size;
+        double cellWidth = width * mapZoom / size;
+        double cellHeight = height * mapZoom / size;
+        double left = mapCenterX * size - width / 2 / cellWidth;
+        double top = mapCenterY * size - height / 2 / cellHeight;
+        double right = left + width / cellWidth;
+        double bottom = top + height / cellHeight;
+        long firstCopy = (long) Math.floor(left / size);
+        long lastCopy = (long) Math.floor(right / size);
+        for (long copy = firstCopy; copy <= lastCopy; copy++) {
+            gc.drawImage(mapImage, (copy * size - left) * cellWidth, -top * cellHeight,
+                    size * cellWidth, size * cellHeight);
+        }
 
-                texture.getPixelWriter().setColor(x, y, color);
+        mapTiles.beginDraw(world);
+        String layer = selectedLayer();
+        double cellsPerPixel = 1 / Math.max(cellWidth, cellHeight);
+        int level = Math.min(TilePyramid.maxLevel(size),
+                Math.max(0, (int) Math.floor(Math.log(cellsPerPixel) / Math.log(2))));
+        int stride = 1 << level;
+        int imageStride = (int) Math.ceil(size / mapImage.getWidth());
+        if (layer != null && stride < imageStride) {
+            int span = TilePyramid.TILE_SIZE * stride;
+            int tiles = (size + span - 1) / span;
+            int firstRow = Math.max(0, (int) Math.floor(top / span));
+            int lastRow = Math.min(tiles - 1, (int) Math.floor(bottom / span));
+            for (long copy = firstCopy; copy <= lastCopy; copy++) {
+                double offset = copy * size;
+                int firstColumn = Math.max(0, (int) Math.floor((left - offset) / span));
+                int lastColumn = Math.min(tiles - 1, (int) Math.floor((right - offset) / span));
+                for (int ty = firstRow; ty <= lastRow; ty++) {
+                    for (int tx = firstColumn; tx <= lastColumn; tx++) {
+                        WritableImage tile = mapTiles.tile(layer, level, tx, ty);
+                        if (tile != null) {
+                            gc.drawImage(tile, (offset + (double) tx * span - left) * cellWidth,
+                                    ((double) ty * span - top) * cellHeight,
+                                    tile.getWidth() * stride * cellWidth, tile.getHeight() * stride * cellHeight);
+                        }
+                    }
+                }
             }
         }
+        mapTiles.endDraw();
+    }
 
-        PhongMaterial material = new PhongMaterial();
-        material.setDiffuseMap(texture);
-        globe.setMaterial(material);
+
+    /**
+     * Limits the map zoom to between the whole world and {@link #MAX_CELL_PIXELS} pixels per cell,
+     * wraps the center around horizontally and keeps the viewport within the poles.
+     */
+    private void clampMapView() {
+        double maxZoom = world == null ? 1
+                : Math.max(1, MAX_CELL_PIXELS * world.size / Math.max(mapCanvas.getWidth(), mapCanvas.getHeight()));
+        mapZoom = Math.max(1, Math.min(maxZoom, mapZoom));
+        mapCenterX -= Math.floor(mapCenterX);
+        double halfHeight = 0.5 / mapZoom;
+        mapCenterY = Math.max(halfHeight, Math.min(1 - halfHeight, mapCenterY));
     }
 
 
     /**
-     * Determines the terrain color based on elevation and sea level.
-     * @param elevation The elevation value of the terrain (0.0 to 1.0).
-     * @param seaLevel The sea level threshold (0.0 to 1.0).
-     * @return The color representing the terrain, varying from ocean blue to mountain white.
+     * Returns the world cell shown at a point of the map canvas.
+     * @param canvasX The x-coordinate on the canvas.
+     * @param canvasY The y-coordinate on the canvas.
+     * @return {x, y} of the cell, or null if there is no world or the point is beyond a pole.
      */
-    private Color getTerrainColor(double elevation, double seaLevel) {
-        if (elevation < seaLevel) {
-            double depth = (seaLevel - elevation) / seaLevel;
-            return Color.rgb(0, (int)(100 * (1-depth)), (int)(150 + 105 * (1-depth)));
-        } else {
-            double height = (elevation - seaLevel) / (1.0 - seaLevel);
-            if (height < 0.05) return Color.rgb(81, 154, 45);
-            else if (height < 0.2) return Color.rgb(34, 139, 34);
-            else if (height < 0.4) return Color.rgb(107, 142, 35);
-            else if (height < 0.65) return Color.rgb(139, 137, 137);
-            else if (height < 0.70) return Color.rgb(105, 105, 100);
-            else return Color.rgb(255, 250, 250);
+    private int[] mapCell(double canvasX, double canvasY) {
+        if (world == null) {
+            return null;
         }
+        double width = mapCanvas.getWidth();
+        double height = mapCanvas.getHeight();
+        double pointX = mapCenterX + (canvasX - width / 2) / (width * mapZoom);
+        double pointY = mapCenterY + (canvasY - height / 2) / (height * mapZoom);
+        int x = Math.floorMod((int) Math.floor(pointX * world.size), world.size);
+        int y = (int) Math.floor(pointY * world.size);
+        return y < 0 || y >= world.size ? null : new int[] {x, y};
     }
 
 
     /**
-     * Determines the biome color based on the biome type.
-     * @param biome The biome type (e.g., OCEAN, TUNDRA, GRASSLAND, etc.).
-     * @return The color representing the biome.
+     * Saves the current world, with all of its layers, as a world file.
+     * Opens a file chooser dialog for the user to select the save location.
+     * Displays an error alert if the world cannot be saved.
      */
-    private Color getBiomeColor(Biome biome) {
-        return switch (biome) {
-            case OCEAN -> Color.rgb(0, 105, 148);
-            case TUNDRA -> Color.rgb(182, 182, 107);
-            case TAIGA -> Color.rgb(143, 173, 83);
-            case GRASSLAND -> Color.rgb(154, 199, 80);
-            case TEMPERATE_FOREST -> Color.rgb(84, 108, 47);
-            case TROPICAL_RAINFOREST -> Color.rgb(99, 197, 53);
-            case DESERT -> Color.rgb(238, 218, 130);
-            case SAVANNA -> Color.rgb(155, 190, 82);
-            case MEDITERRANEAN -> Color.rgb(164, 189, 100);
-            case MOUNTAIN -> Color.rgb(158, 158, 158);
-        };
+    private void saveWorld() {
+        if (world == null || world.isChunked()) {
+            showError("Failed to save world", "Only fully generated worlds can be saved; chunked worlds are generated on demand.");
+            return;
+        }
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save World");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("World File", "*.world"));
+
+        File file = fileChooser.showSaveDialog(mapCanvas.getScene().getWindow());
+        if (file != null) {
+            try {
+                WorldFile.write(world, file.toPath());
+            } catch (IOException ex) {
+                showError("Failed to save world", ex.getMessage());
+            }
+        }
     }
 
 
     /**
-     * Determines the temperature color based on the temperature value.
-     * Maps temperatures from -30°C to 40°C to a gradient from blue to red.
-     * @param temp The temperature value in degrees Celsius.
-     * @return The color representing the temperature.
+     * Opens a world file and shows it in place of the current world.
+     * The file is memory-mapped, so even large worlds open without being read into memory.
+     * The sliders are moved to the parameters the world was generated with.
      */
-    private Color getTemperatureColor(double temp) {
-        double normalized = (temp + 30) / 70.0;
-        normalized = Math.max(0, Math.min(1, normalized));
+    private void openWorld() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Open World");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("World File", "*.world"));
 
-        if (normalized < 0.5) {
-            return Color.rgb(0, (int)(normalized * 255 * 2), 255);
-        } else {
-            return Color.rgb((int)((normalized - 0.5) * 255 * 2), (int)((1-normalized) * 255 * 2), 0);
+        File file = fileChooser.showOpenDialog(mapCanvas.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        World opened;
+        try {
+            opened = WorldFile.open(file.toPath());
+        } catch (IOException ex) {
+            showError("Failed to open world", ex.getMessage());
+            return;
+        }
+        if (currentGeneration != null) {
+            currentGeneration.cancel(); // Drops any generation still running
+            progressBar.setVisible(false);
+            progressLabel.setText("");
+        }
+
+        world = opened;
+        overviewResolution = MAX_OVERVIEW_SIZE;
+        seaLevelTarget = opened.seaLevel;
+        detailTarget = opened.worldOctaves;
+        generator.execute(() -> editedWorld = opened);
+        seedField.setText(Long.toString(opened.seed));
+        worldScaleSlider.setValue(opened.worldScale);
+        worldDetailSlider.setValue(opened.worldOctaves);
+        seaLevelSlider.setValue(opened.seaLevel);
+        chunkedCheckBox.setSelected(false);
+        worldSizeSlider.setValue(opened.size);
+        statesCheckBox.setSelected(opened.stateColors != null);
+        if (opened.stateColors != null) {
+            numStatesSlider.setValue(opened.stateColors.length - 1);
         }
+        redraw();
     }
 
 
     /**
-     * Determines the humidity color based on the humidity value.
-     * @param humidity The humidity value (0.0 to 1.0).
-     * @return The color representing the humidity, where higher humidity is darker.
+     * Displays an error alert.
+     * @param header The header text of the alert.
+     * @param message The detail message.
      */
-    private Color getHumidityColor(double humidity) {
-        int val = (int)(humidity * 255);
-        return Color.rgb(255 - val, 255 - val, 255);
+    private void showError(String header, String message) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(header);
+        alert.setContentText(message);
+        alert.showAndWait();
     }
 
 
@@ -0,0 +1,269 @@
+package org.example;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * In-process registry of how long the generation and render phases take.
+ * <p>
+ * Each run of a phase is measured by a {@link Span}: its duration, the cells it processed, the pushes
+ * and pops of the state growth queue and the bytes allocated by the thread that ran it. Completed
+ * spans are added to the statistics of their phase and committed as a {@link PhaseEvent} to Flight
+ * Recorder. The statistics are shown in the status bar overlay and exported over JMX as
+ * {@link MetricsMXBean}.
+ * <p>
+ * Recording costs a few clock and counter reads per phase, not per cell, so spans are always on.
+ */
+final class Metrics implements MetricsMXBean {
+
+    private static final Metrics GLOBAL = new Metrics();
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final Map<String, PhaseStats> phases = new LinkedHashMap<>();
+
+
+    /**
+     * Statistics of all completed runs of one phase.
+     */
+    private static final class PhaseStats {
+        long runs;
+        long totalNanos;
+        long lastNanos;
+        long cells;
+        long pushes;
+        long pops;
+        long allocated;
+    }
+
+
+    /**
+     * One run of a phase. Started by {@link Metrics#begin} and recorded by {@link #end()}; a span that
+     * is never ended, e.g. because the generation was cancelled, is not recorded.
+     */
+    static final class Span {
+        private final Metrics metrics;
+        private final String phase;
+        private final String detail;
+        private long cells;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start;
+        private final long allocatedStart;
+        private long pushes;
+        private long pops;
+
+        /**
+         * Starts a span.
+         * @param metrics The registry to record the span in.
+         * @param phase The phase name.
+         * @param detail What the phase runs on.
+         * @param cells The number of cells the phase processes.
+         */
+        private Span(Metrics metrics, String phase, String detail, long cells) {
+            this.metrics = metrics;
+            this.phase = phase;
+            this.detail = detail;
+            this.cells = cells;
+            this.allocatedStart = allocatedBytes();
+            event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Sets the number of cells processed, for phases that only know it once they are done.
+         * @param count The number of cells, pixels or vertices processed.
+         */
+        void cells(long count) {
+            cells = count;
+        }
+
+        /**
+         * Adds operations on the state growth queue to this span.
+         * @param pushed The number of cells pushed.
+         * @param popped The number of cells popped.
+         */
+        void queue(long pushed, long popped) {
+            pushes += pushed;
+            pops += popped;
+        }
+
+        /**
+         * Ends this span, adds it to the statistics of its phase and commits its Flight Recorder event.
+         */
+        void end() {
+            long nanos = System.nanoTime() - start;
+            long allocated = allocatedStart < 0 ? 0 : allocatedBytes() - allocatedStart;
+            metrics.record(phase, nanos, cells, pushes, pops, allocated);
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase;
+                event.detail = detail;
+                event.cells = cells;
+                event.cellsPerSecond = nanos == 0 ? 0 : cells * 1e9 / nanos;
+                event.queuePushes = pushes;
+                event.queuePops = pops;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the registry of the application.
+     * @return The registry.
+     */
+    static Metrics global() {
+        return GLOBAL;
+    }
+
+
+    /**
+     * Starts measuring a run of a phase.
+     * @param phase The phase name (e.g. "Elevation", "States", "Render").
+     * @param detail What the phase runs on (e.g. "World", "Window", the name of a layer).
+     * @param cells The number of cells, pixels or vertices the phase processes.
+     * @return The span, to be ended when the phase completes.
+     */
+    Span begin(String phase, String detail, long cells) {
+        return new Span(this, phase, detail, cells);
+    }
+
+
+    /**
+     * Adds a completed run to the statistics of its phase.
+     * @param phase The phase name.
+     * @param nanos The duration in nanoseconds.
+     * @param cells The number of cells processed.
+     * @param pushes The number of cells pushed into the state growth queue.
+     * @param pops The number of cells popped from the state growth queue.
+     * @param allocated The number of bytes allocated by the thread that ran the phase.
+     */
+    private synchronized void record(String phase, long nanos, long cells, long pushes, long pops, long allocated) {
+        PhaseStats stats = phases.computeIfAbsent(phase, p -> new PhaseStats());
+        stats.runs++;
+        stats.totalNanos += nanos;
+        stats.lastNanos = nanos;
+        stats.cells += cells;
+        stats.pushes += pushes;
+        stats.pops += pops;
+        stats.allocated += allocated;
+    }
+
+
+    /**
+     * Returns a one-line summary of the last run of every phase, for the status bar.
+     * @return The phases with their last duration, or an empty string if nothing completed yet.
+     */
+    synchronized String overlay() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            if (text.length() > 0) {
+                text.append(" \u00B7 ");
+            }
+            text.append(String.format("%s %.0f ms", entry.getKey(), entry.getValue().lastNanos / 1e6));
+        }
+        return text.toString();
+    }
+
+
+    /**
+     * Registers the registry in the platform MBean server as {@code org.example:type=Metrics}.
+     * Failures are reported on standard error; the metrics keep working without JMX.
+     */
+    void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("org.example:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Cannot register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+
+    @Override
+    public synchronized String[] getPhaseNames() {
+        return phases.keySet().toArray(new String[0]);
+    }
+
+
+    @Override
+    public synchronized String[] getSummary() {
+        String[] lines = new String[phases.size()];
+        int i = 0;
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            lines[i++] = String.format("%s: %d runs, mean %.1f ms, last %.1f ms, %.2f Mcells/s, %.1f MB allocated",
+                    entry.getKey(), stats.runs, stats.totalNanos / 1e6 / stats.runs, stats.lastNanos / 1e6,
+                    stats.totalNanos == 0 ? 0 : stats.cells * 1e3 / stats.totalNanos, stats.allocated / 1e6);
+        }
+        return lines;
+    }
+
+
+    @Override
+    public synchronized long getQueuePushes() {
+        long pushes = 0;
+        for (PhaseStats stats : phases.values()) {
+            pushes += stats.pushes;
+        }
+        return pushes;
+    }
+
+
+    @Override
+    public synchronized long getQueuePops() {
+        long pops = 0;
+        for (PhaseStats stats : phases.values()) {
+            pops += stats.pops;
+        }
+        return pops;
+    }
+
+
+    @Override
+    public synchronized double meanMillis(String phase) {
+        PhaseStats stats = phases.get(phase);
+        return stats == null ? 0 : stats.totalNanos / 1e6 / stats.runs;
+    }
+
+
+    @Override
+    public synchronized double cellsPerSecond(String phase) {
+        PhaseStats stats = phases.get(phase);
+        return stats == null || stats.totalNanos == 0 ? 0 : stats.cells * 1e9 / stats.totalNanos;
+    }
+
+
+    @Override
+    public synchronized void reset() {
+        phases.clear();
+    }
+
+
+    /**
+     * Returns the number of bytes the calling thread has allocated so far.
+     * @return The number of bytes, or -1 if the JVM does not measure allocation.
+     */
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+
+    /**
+     * Looks up the thread MXBean of the JVM, if it measures allocation.
+     * @return The MXBean, or null if allocation is not measured.
+     */
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+/**
+ * JMX view of the {@link Metrics} of the running application, registered as
+ * {@code org.example:type=Metrics} in the platform MBean server (e.g. for JConsole).
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Returns the phases that have completed at least once.
+     * @return The phase names, in the order they first completed.
+     */
+    String[] getPhaseNames();
+
+
+    /**
+     * Returns one line of statistics per phase.
+     * @return The runs, mean and last duration, cell throughput and allocation of every phase.
+     */
+    String[] getSummary();
+
+
+    /**
+     * Returns the number of cells pushed into the state growth frontier over all runs.
+     * @return The number of pushes.
+     */
+    long getQueuePushes();
+
+
+    /**
+     * Returns the number of cells popped from the state growth frontier over all runs.
+     * @return The number of pops.
+     */
+    long getQueuePops();
+
+
+    /**
+     * Returns the mean duration of a phase.
+     * @param phase The phase name.
+     * @return The mean duration in milliseconds, or 0 if the phase never completed.
+     */
+    double meanMillis(String phase);
+
+
+    /**
+     * Returns the throughput of a phase over all of its runs.
+     * @param phase The phase name.
+     * @return The cells processed per second, or 0 if the phase never completed.
+     */
+    double cellsPerSecond(String phase);
+
+
+    /**
+     * Forgets all statistics.
+     */
+    void reset();
+}
@@ -0,0 +1,613 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Composable graph of noise modules, compiled into a flat evaluation plan.
+ * <p>
+ * A graph is built from sources (simplex noise, fBm, ridged multifractal) sampled at a coordinate
+ * node, which is either the input point or a domain-warped copy of it, and from combinators
+ * (scale/bias, add, multiply, blend, select). Nodes are hash-consed: building the same module twice
+ * returns the same node, so identical subgraphs are only evaluated once.
+ * <p>
+ * {@link #compile} turns the nodes reachable from the outputs into a {@link Plan}: a straight-line list
+ * of instructions over numbered registers, in dependency order, with registers reused once their value
+ * is dead. An {@link Evaluator} runs each instruction over a whole batch of points with a tight loop
+ * (sources through the batch noise API), so the graph is never walked while sampling and nothing is
+ * allocated per point.
+ * <p>
+ * Sources refer to their noise by seed index: index i uses the (i + 1)-th value drawn from a
+ * {@link Random} seeded with the world seed, so indices 0 to 2 are the world's own elevation,
+ * temperature and humidity noise, and index 3 (the state seed) is skipped by convention.
+ */
+final class NoiseGraph {
+
+    private static final int INPUT = 0;
+    private static final int WARP = 1;
+    private static final int SIMPLEX = 2;
+    private static final int FBM = 3;
+    private static final int RIDGED = 4;
+    private static final int CONSTANT = 5;
+    private static final int SCALE_BIAS = 6;
+    private static final int ADD = 7;
+    private static final int MULTIPLY = 8;
+    private static final int BLEND = 9;
+    private static final int SELECT = 10;
+
+    /** The number of source operands of an instruction in the plan. */
+    private static final int OPERANDS = 4;
+    /** The number of constants of an instruction in the plan. */
+    private static final int CONSTANTS = 5;
+
+    private final Map<Key, Node> nodes = new HashMap<>();
+    private final Node input;
+
+
+    /**
+     * A module of the graph. Nodes are immutable and only created by their graph.
+     */
+    static final class Node {
+        final int op;
+        final Node[] inputs;
+        final double[] params;
+        final boolean coordinates;
+
+        private Node(int op, Node[] inputs, double[] params, boolean coordinates) {
+            this.op = op;
+            this.inputs = inputs;
+            this.params = params;
+            this.coordinates = coordinates;
+        }
+    }
+
+
+    /**
+     * Structural identity of a node, for hash-consing.
+     */
+    private record Key(int op, List<Node> inputs, List<Double> params) {
+    }
+
+
+    /**
+     * Constructs a new, empty graph.
+     */
+    NoiseGraph() {
+        this.input = node(INPUT, new Node[0], new double[0], true);
+    }
+
+
+    /**
+     * Returns the node for a module, creating it only if the graph has no identical one.
+     * @param op The operation.
+     * @param inputs The input nodes.
+     * @param params The parameters of the operation.
+     * @param coordinates Whether the node produces coordinates rather than a value.
+     * @return The shared node.
+     */
+    private Node node(int op, Node[] inputs, double[] params, boolean coordinates) {
+        List<Double> boxed = new ArrayList<>(params.length);
+        for (double param : params) {
+            boxed.add(param);
+        }
+        return nodes.computeIfAbsent(new Key(op, List.of(inputs), boxed), key -> new Node(op, inputs, params, coordinates));
+    }
+
+
+    /**
+     * Checks that a node of this graph produces coordinates or values.
+     * @param node The node.
+     * @param coordinates Whether coordinates are expected.
+     * @return The node.
+     * @throws IllegalArgumentException If the node has the wrong kind.
+     */
+    private static Node require(Node node, boolean coordinates) {
+        if (node.coordinates != coordinates) {
+            throw new IllegalArgumentException(coordinates ? "Expected a coordinate node" : "Expected a value node");
+        }
+        return node;
+    }
+
+
+    /**
+     * Returns the coordinates of the evaluated point, a point on the unit sphere.
+     * @return The input coordinate node.
+     */
+    Node input() {
+        return input;
+    }
+
+    /**
+     * Offsets coordinates by three value nodes (domain warping).
+     * @param at The coordinates to warp.
+     * @param dx The offset along x.
+     * @param dy The offset along y.
+     * @param dz The offset along z.
+     * @param strength The factor the offsets are multiplied with.
+     * @return The warped coordinate node.
+     */
+    Node warp(Node at, Node dx, Node dy, Node dz, double strength) {
+        return node(WARP, new Node[] { require(at, true), require(dx, false), require(dy, false), require(dz, false) },
+                new double[] { strength }, true);
+    }
+
+    /**
+     * Samples 3D simplex noise (-1.0 to 1.0).
+     * @param at The coordinates to sample at.
+     * @param seedIndex The seed index of the noise.
+     * @param frequency The factor the coordinates are multiplied with.
+     * @return The source node.
+     */
+    Node simplex(Node at, int seedIndex, double frequency) {
+        return node(SIMPLEX, new Node[] { require(at, true) }, new double[] { seedIndex, frequency }, false);
+    }
+
+    /**
+     * Samples fractal Brownian motion: octave i adds gain^i times the noise at lacunarity^i times the
+     * frequency. The sum is divided by the total amplitude, so the result stays within -1.0 to 1.0.
+     * @param at The coordinates to sample at.
+     * @param seedIndex The seed index of the noise shared by all octaves.
+     * @param frequency The frequency of the first octave.
+     * @param octaves The number of octaves.
+     * @param lacunarity The frequency factor between octaves.
+     * @param gain The amplitude factor between octaves.
+     * @return The source node.
+     */
+    Node fbm(Node at, int seedIndex, double frequency, int octaves, double lacunarity, double gain) {
+        return node(FBM, new Node[] { require(at, true) },
+                new double[] { seedIndex, frequency, Math.max(1, octaves), lacunarity, gain }, false);
+    }
+
+    /**
+     * Samples ridged fractal noise: like {@link #fbm}, but each octave adds (1 - |noise|)^2, which
+     * turns the zero crossings of the noise into sharp ridges. The result is mapped to -1.0 to 1.0.
+     * @param at The coordinates to sample at.
+     * @param seedIndex The seed index of the noise shared by all octaves.
+     * @param frequency The frequency of the first octave.
+     * @param octaves The number of octaves.
+     * @param lacunarity The frequency factor between octaves.
+     * @param gain The amplitude factor between octaves.
+     * @return The source node.
+     */
+    Node ridged(Node at, int seedIndex, double frequency, int octaves, double lacunarity, double gain) {
+        return node(RIDGED, new Node[] { require(at, true) },
+                new double[] { seedIndex, frequency, Math.max(1, octaves), lacunarity, gain }, false);
+    }
+
+    /**
+     * Returns a constant value.
+     * @param value The value.
+     * @return The constant node.
+     */
+    Node constant(double value) {
+        return node(CONSTANT, new Node[0], new double[] { value }, false);
+    }
+
+    /**
+     * Applies value * scale + bias.
+     * @param value The value node.
+     * @param scale The factor.
+     * @param bias The offset added after scaling.
+     * @return The scaled node.
+     */
+    Node scaleBias(Node value, double scale, double bias) {
+        return node(SCALE_BIAS, new Node[] { require(value, false) }, new double[] { scale, bias }, false);
+    }
+
+    /**
+     * Adds two values.
+     * @param a The first value.
+     * @param b The second value.
+     * @return The sum node.
+     */
+    Node add(Node a, Node b) {
+        return node(ADD, new Node[] { require(a, false), require(b, false) }, new double[0], false);
+    }
+
+    /**
+     * Multiplies two values.
+     * @param a The first value.
+     * @param b The second value.
+     * @return The product node.
+     */
+    Node multiply(Node a, Node b) {
+        return node(MULTIPLY, new Node[] { require(a, false), require(b, false) }, new double[0], false);
+    }
+
+    /**
+     * Interpolates linearly between two values, a + (b - a) * weight.
+     * @param a The value at weight 0.
+     * @param b The value at weight 1.
+     * @param weight The interpolation weight, usually 0.0 to 1.0.
+     * @return The blended node.
+     */
+    Node blend(Node a, Node b, Node weight) {
+        return node(BLEND, new Node[] { require(a, false), require(b, false), require(weight, false) }, new double[0], false);
+    }
+
+    /**
+     * Chooses between two values by a control value: a below the threshold and b above it, with a
+     * smooth transition of half-width `falloff` around the threshold.
+     * @param control The control value.
+     * @param a The value below the threshold.
+     * @param b The value above the threshold.
+     * @param threshold The control value at the middle of the transition.
+     * @param falloff The half-width of the transition (0 for a hard edge).
+     * @return The selected node.
+     */
+    Node select(Node control, Node a, Node b, double threshold, double falloff) {
+        return node(SELECT, new Node[] { require(control, false), require(a, false), require(b, false) },
+                new double[] { threshold, Math.max(0, falloff) }, false);
+    }
+
+
+    /**
+     * Compiles the subgraph reachable from the given outputs into an evaluation plan.
+     * @param seed The world seed the noise of every source is derived from.
+     * @param outputs The value nodes to compute, in the order {@link Evaluator#output} returns them.
+     * @return The plan.
+     */
+    Plan compile(long seed, Node... outputs) {
+        // Dependency order, each shared node once
+        List<Node> order = new ArrayList<>();
+        Map<Node, Integer> position = new IdentityHashMap<>();
+        for (Node output : outputs) {
+            visit(require(output, false), order, position);
+        }
+        int[] lastUse = new int[order.size()];
+        for (int n = 0; n < order.size(); n++) {
+            lastUse[n] = n;
+            for (Node in : order.get(n).inputs) {
+                lastUse[position.get(in)] = n;
+            }
+        }
+        for (Node output : outputs) {
+            lastUse[position.get(output)] = Integer.MAX_VALUE;
+        }
+
+        // Registers 0 to 2 hold the input coordinates; the others are allocated and reused linearly
+        int maxSeed = -1;
+        for (Node node : order) {
+            if (node.op == SIMPLEX || node.op == FBM || node.op == RIDGED) {
+                maxSeed = Math.max(maxSeed, (int) node.params[0]);
+            }
+        }
+        SimplexNoise[] noises = new SimplexNoise[maxSeed + 1];
+        Random rand = new Random(seed);
+        for (int i = 0; i < noises.length; i++) {
+            noises[i] = new SimplexNoise(rand.nextLong());
+        }
+
+        int[] register = new int[order.size()];
+        ArrayDeque<Integer> free = new ArrayDeque<>();
+        int registers = 3;
+        List<Node> instructions = new ArrayList<>();
+        List<int[]> operands = new ArrayList<>();
+        List<Integer> targets = new ArrayList<>();
+        for (int n = 0; n < order.size(); n++) {
+            Node node = order.get(n);
+            if (node.op == INPUT) {
+                register[n] = 0;
+                continue;
+            }
+            // Allocate before releasing the inputs, so a target never aliases one of its operands
+            if (node.coordinates) {
+                register[n] = registers;
+                registers += 3;
+            } else {
+                Integer reused = free.pollFirst();
+                register[n] = reused != null ? reused : registers++;
+            }
+            int[] sources = new int[OPERANDS];
+            for (int i = 0; i < node.inputs.length; i++) {
+                sources[i] = register[position.get(node.inputs[i])];
+            }
+            instructions.add(node);
+            operands.add(sources);
+            targets.add(register[n]);
+            for (int i = 0; i < node.inputs.length; i++) {
+                Node in = node.inputs[i];
+                int p = position.get(in);
+                if (lastUse[p] == n && !in.coordinates && firstOccurrence(node.inputs, i)) {
+                    free.addLast(register[p]);
+                }
+            }
+        }
+
+        int count = instructions.size();
+        int[] code = new int[count * (2 + OPERANDS)];
+        double[] constants = new double[count * CONSTANTS];
+        SimplexNoise[] sources = new SimplexNoise[count];
+        for (int i = 0; i < count; i++) {
+            Node node = instructions.get(i);
+            int at = i * (2 + OPERANDS);
+            code[at] = node.op;
+            code[at + 1] = targets.get(i);
+            System.arraycopy(operands.get(i), 0, code, at + 2, OPERANDS);
+            System.arraycopy(node.params, 0, constants, i * CONSTANTS, node.params.length);
+            if (node.op == SIMPLEX || node.op == FBM || node.op == RIDGED) {
+                sources[i] = noises[(int) node.params[0]];
+            }
+        }
+        int[] outputRegisters = new int[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputRegisters[i] = register[position.get(outputs[i])];
+        }
+        return new Plan(code, constants, sources, registers, outputRegisters);
+    }
+
+
+    /**
+     * Returns whether an input is not repeated earlier in the inputs of a node, e.g. in add(a, a).
+     * @param inputs The inputs of the node.
+     * @param index The index of the input.
+     * @return True if no earlier input is the same node.
+     */
+    private static boolean firstOccurrence(Node[] inputs, int index) {
+        for (int i = 0; i < index; i++) {
+            if (inputs[i] == inputs[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Appends a node after all of its inputs, unless it was visited before.
+     * @param node The node to visit.
+     * @param order The nodes in dependency order.
+     * @param position The index of each visited node in `order`.
+     */
+    private static void visit(Node node, List<Node> order, Map<Node, Integer> position) {
+        if (position.containsKey(node)) {
+            return;
+        }
+        for (Node in : node.inputs) {
+            visit(in, order, position);
+        }
+        position.put(node, order.size());
+        order.add(node);
+    }
+
+
+    /**
+     * A compiled graph: instructions over numbered registers, in dependency order.
+     * Plans are immutable and can be shared between threads; each thread evaluates through its own {@link Evaluator}.
+     */
+    static final class Plan {
+        private final int[] code;
+        private final double[] constants;
+        private final SimplexNoise[] sources;
+        private final int registers;
+        private final int[] outputs;
+
+        private Plan(int[] code, double[] constants, SimplexNoise[] sources, int registers, int[] outputs) {
+            this.code = code;
+            this.constants = constants;
+            this.sources = sources;
+            this.registers = registers;
+            this.outputs = outputs;
+        }
+
+        /**
+         * Returns the number of instructions, after shared subgraphs were merged.
+         * @return The instruction count.
+         */
+        int instructions() {
+            return sources.length;
+        }
+
+        /**
+         * Returns the number of batch registers an evaluator allocates, including the three input coordinates.
+         * @return The register count.
+         */
+        int registers() {
+            return registers;
+        }
+
+        /**
+         * Creates an evaluator with registers for batches of up to `capacity` points.
+         * @param capacity The largest batch the evaluator accepts.
+         * @return The new evaluator.
+         */
+        Evaluator evaluator(int capacity) {
+            return new Evaluator(this, capacity);
+        }
+    }
+
+
+    /**
+     * Evaluates a plan over batches of points, reusing its registers for every batch.
+     * Not thread-safe; create one per thread.
+     */
+    static final class Evaluator {
+        private final Plan plan;
+        private final int capacity;
+        private final double[][] registers;
+        private final double[] octave;
+        private final double[] pointX = new double[1];
+        private final double[] pointY = new double[1];
+        private final double[] pointZ = new double[1];
+
+        private Evaluator(Plan plan, int capacity) {
+            this.plan = plan;
+            this.capacity = capacity;
+            this.registers = new double[plan.registers][];
+            for (int r = 3; r < plan.registers; r++) {
+                registers[r] = new double[capacity];
+            }
+            this.octave = new double[capacity];
+        }
+
+        /**
+         * Evaluates the plan for a batch of points. The results stay available through {@link #output}
+         * until the next evaluation.
+         * @param xs The x-coordinates of the points.
+         * @param ys The y-coordinates of the points.
+         * @param zs The z-coordinates of the points.
+         * @param count The number of points.
+         * @throws IllegalArgumentException If the batch exceeds the capacity of this evaluator.
+         */
+        void evaluate(double[] xs, double[] ys, double[] zs, int count) {
+            if (count > capacity) {
+                throw new IllegalArgumentException("Batch of " + count + " exceeds the capacity of " + capacity);
+            }
+            double[][] r = registers;
+            r[0] = xs;
+            r[1] = ys;
+            r[2] = zs;
+            int[] code = plan.code;
+            double[] constants = plan.constants;
+            for (int i = 0, at = 0; i < plan.sources.length; i++, at += 2 + OPERANDS) {
+                int c = i * CONSTANTS;
+                double[] out = r[code[at + 1]];
+                int a = code[at + 2];
+                int b = code[at + 3];
+                int d = code[at + 4];
+                switch (code[at]) {
+                    case WARP -> {
+                        double strength = constants[c];
+                        double[] dx = r[b], dy = r[d], dz = r[code[at + 5]];
+                        double[] ox = r[code[at + 1] + 1], oy = r[code[at + 1] + 2];
+                        for (int k = 0; k < count; k++) {
+                            out[k] = r[a][k] + strength * dx[k];
+                            ox[k] = r[a + 1][k] + strength * dy[k];
+                            oy[k] = r[a + 2][k] + strength * dz[k];
+                        }
+                    }
+                    case SIMPLEX -> plan.sources[i].noise(r[a], r[a + 1], r[a + 2], constants[c + 1], out, count);
+                    case FBM, RIDGED -> fractal(code[at] == RIDGED, plan.sources[i], r[a], r[a + 1], r[a + 2],
+                            constants, c, out, count);
+                    case CONSTANT -> Arrays.fill(out, 0, count, constants[c]);
+                    case SCALE_BIAS -> {
+                        double scale = constants[c];
+                        double bias = constants[c + 1];
+                        double[] in = r[a];
+                        for (int k = 0; k < count; k++) {
+                            out[k] = in[k] * scale + bias;
+                        }
+                    }
+                    case ADD -> {
+                        double[] x = r[a], y = r[b];
+                        for (int k = 0; k < count; k++) {
+                            out[k] = x[k] + y[k];
+                        }
+                    }
+                    case MULTIPLY -> {
+                        double[] x = r[a], y = r[b];
+                        for (int k = 0; k < count; k++) {
+                            out[k] = x[k] * y[k];
+                        }
+                    }
+                    case BLEND -> {
+                        double[] x = r[a], y = r[b], w = r[d];
+                        for (int k = 0; k < count; k++) {
+                            out[k] = x[k] + (y[k] - x[k]) * w[k];
+                        }
+                    }
+                    case SELECT -> select(r[a], r[b], r[d], constants[c], constants[c + 1], out, count);
+                    default -> throw new IllegalStateException("Unknown noise graph operation " + code[at]);
+                }
+            }
+        }
+
+        /**
+         * Evaluates the plan at a single point.
+         * @param x The x-coordinate of the point.
+         * @param y The y-coordinate of the point.
+         * @param z The z-coordinate of the point.
+         * @return The value of the first output.
+         */
+        double evaluate(double x, double y, double z) {
+            pointX[0] = x;
+            pointY[0] = y;
+            pointZ[0] = z;
+            evaluate(pointX, pointY, pointZ, 1);
+            return output(0)[0];
+        }
+
+        /**
+         * Returns the values of an output for the last evaluated batch.
+         * The array is a register of this evaluator: it is overwritten by the next evaluation.
+         * @param index The index of the output, in the order passed to {@link NoiseGraph#compile}.
+         * @return The values, one per point of the batch.
+         */
+        double[] output(int index) {
+            return registers[plan.outputs[index]];
+        }
+
+        /**
+         * Samples fBm or ridged fractal noise for a batch, octave by octave.
+         * @param ridged Whether to sample ridged noise.
+         * @param noise The noise shared by all octaves.
+         * @param xs The x-coordinates of the batch.
+         * @param ys The y-coordinates of the batch.
+         * @param zs The z-coordinates of the batch.
+         * @param constants The constants of the plan.
+         * @param c The index of the instruction's constants: seed index, frequency, octaves, lacunarity, gain.
+         * @param out Receives the fractal noise.
+         * @param count The number of points.
+         */
+        private void fractal(boolean ridged, SimplexNoise noise, double[] xs, double[] ys, double[] zs,
+                             double[] constants, int c, double[] out, int count) {
+            double frequency = constants[c + 1];
+            int octaves = (int) constants[c + 2];
+            double lacunarity = constants[c + 3];
+            double gain = constants[c + 4];
+            Arrays.fill(out, 0, count, 0);
+            double amplitude = 1.0;
+            double maxValue = 0;
+            for (int i = 0; i < octaves; i++) {
+                noise.noise(xs, ys, zs, Math.pow(lacunarity, i) * frequency, octave, count);
+                for (int k = 0; k < count; k++) {
+                    double n = octave[k];
+                    if (ridged) {
+                        n = 1 - Math.abs(n);
+                        n *= n;
+                    }
+                    out[k] += amplitude * n;
+                }
+                maxValue += amplitude;
+                amplitude *= gain;
+            }
+            for (int k = 0; k < count; k++) {
+                out[k] = ridged ? out[k] / maxValue * 2 - 1 : out[k] / maxValue;
+            }
+        }
+
+        /**
+         * Chooses between two batches of values by a control batch, with a smoothstep transition.
+         * @param control The control values.
+         * @param a The values below the threshold.
+         * @param b The values above the threshold.
+         * @param threshold The control value at the middle of the transition.
+         * @param falloff The half-width of the transition.
+         * @param out Receives the selected values.
+         * @param count The number of points.
+         */
+        private static void select(double[] control, double[] a, double[] b, double threshold, double falloff,
+                                   double[] out, int count) {
+            double lower = threshold - falloff;
+            double upper = threshold + falloff;
+            for (int k = 0; k < count; k++) {
+                double v = control[k];
+                if (v >= upper) {
+                    out[k] = b[k];
+                } else if (v <= lower) {
+                    out[k] = a[k];
+                } else {
+                    double t = (v - lower) / (upper - lower);
+                    t = t * t * (3 - 2 * t);
+                    out[k] = a[k] + (b[k] - a[k]) * t;
+                }
+            }
+        }
+    }
+}
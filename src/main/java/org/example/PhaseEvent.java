@@ -0,0 +1,52 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one completed run of a generation or render phase, committed by
+ * {@link Metrics.Span#end()}. Cancelled runs are not recorded.
+ * <p>
+ * Record with {@code -XX:StartFlightRecording:filename=world.jfr} (or start a recording in JDK Mission
+ * Control) and list the events with {@code jfr print --events org.example.Phase world.jfr}.
+ */
+@Name("org.example.Phase")
+@Label("World Phase")
+@Category("World Simulator")
+@Description("A generation or render phase of the world simulator")
+@StackTrace(false)
+final class PhaseEvent extends Event {
+
+    @Label("Phase")
+    @Description("The phase, e.g. Elevation, States or Render")
+    String phase;
+
+    @Label("Detail")
+    @Description("What the phase ran on, e.g. World, Window or the name of the rendered layer")
+    String detail;
+
+    @Label("Cells")
+    @Description("The number of cells, pixels or vertices processed")
+    long cells;
+
+    @Label("Cells per Second")
+    double cellsPerSecond;
+
+    @Label("Queue Pushes")
+    @Description("Cells pushed into the state growth frontier")
+    long queuePushes;
+
+    @Label("Queue Pops")
+    @Description("Cells popped from the state growth frontier")
+    long queuePops;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread that ran the phase; pool workers are not included")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,201 @@
+package org.example;
+
+/**
+ * Summed-area tables over the climate and biome layers of a world, for constant-time rectangle queries.
+ * <p>
+ * Each table has (width + 1) x (height + 1) entries: entry (x, y) holds the sum of the layer over the
+ * cells left of x and above y, so the sum over any rectangle is four lookups. Elevation, temperature and
+ * humidity are summed as doubles; each biome has a table of cell counts.
+ * <p>
+ * The grid wraps around horizontally, so a rectangle may cross the seam at x = 0; it is then split in
+ * two and costs eight lookups. The tables are filled in two passes, rows then columns, that
+ * {@link World} runs in bands on its pool.
+ */
+final class RegionTables {
+
+    private static final Biome[] BIOMES = Biome.values();
+
+    /** The layers the tables were computed from. */
+    final WorldLayers layers;
+    /** The number of cells per row of the layers. */
+    final int width;
+    /** The number of rows of the layers. */
+    final int height;
+    private final int stride;
+    private final double[] elevation;
+    private final double[] temperature;
+    private final double[] humidity;
+    private final int[][] biomes;
+
+
+    /**
+     * Allocates the tables for a set of layers; they are filled by {@link #sumRows} and {@link #sumColumns}.
+     * @param layers The layers of the whole world.
+     */
+    RegionTables(WorldLayers layers) {
+        this.layers = layers;
+        this.width = layers.width;
+        this.height = layers.height;
+        this.stride = width + 1;
+        int entries = Math.multiplyExact(stride, height + 1);
+        elevation = new double[entries];
+        temperature = new double[entries];
+        humidity = new double[entries];
+        biomes = new int[BIOMES.length][entries];
+    }
+
+
+    /**
+     * First pass: stores the running sum along each of the rows in [yStart, yEnd).
+     * @param yStart The first row (inclusive).
+     * @param yEnd The last row (exclusive).
+     */
+    void sumRows(int yStart, int yEnd) {
+        for (int y = yStart; y < yEnd; y++) {
+            int cell = y * width;
+            int entry = (y + 1) * stride + 1;
+            double e = 0;
+            double t = 0;
+            double h = 0;
+            for (int x = 0; x < width; x++, cell++, entry++) {
+                e += layers.elevation(cell);
+                t += layers.temperature(cell);
+                h += layers.humidity(cell);
+                elevation[entry] = e;
+                temperature[entry] = t;
+                humidity[entry] = h;
+                biomes[layers.biome(cell).ordinal()][entry] = 1;
+            }
+            for (int[] counts : biomes) {
+                int row = (y + 1) * stride;
+                for (int x = 1; x <= width; x++) {
+                    counts[row + x] += counts[row + x - 1];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Second pass, after all rows: accumulates the row sums down each of the columns in [xStart, xEnd).
+     * @param xStart The first column of the tables (inclusive).
+     * @param xEnd The last column of the tables (exclusive), at most width + 1.
+     */
+    void sumColumns(int xStart, int xEnd) {
+        for (int y = 2; y <= height; y++) {
+            int row = y * stride;
+            for (int x = xStart; x < xEnd; x++) {
+                elevation[row + x] += elevation[row - stride + x];
+                temperature[row + x] += temperature[row - stride + x];
+                humidity[row + x] += humidity[row - stride + x];
+            }
+            for (int[] counts : biomes) {
+                for (int x = xStart; x < xEnd; x++) {
+                    counts[row + x] += counts[row - stride + x];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the sum of the elevation over a rectangle of cells.
+     * @param x The first column; the rectangle wraps around the seam if x + w > width.
+     * @param y The first row.
+     * @param w The number of columns (1 to width).
+     * @param h The number of rows (1 to height - y).
+     * @return The sum of the elevation of the cells.
+     */
+    double elevationSum(int x, int y, int w, int h) {
+        return sum(elevation, x, y, w, h);
+    }
+
+
+    /**
+     * Returns the sum of the temperature over a rectangle of cells.
+     * @param x The first column; the rectangle wraps around the seam if x + w > width.
+     * @param y The first row.
+     * @param w The number of columns (1 to width).
+     * @param h The number of rows (1 to height - y).
+     * @return The sum of the temperature of the cells, in degrees Celsius.
+     */
+    double temperatureSum(int x, int y, int w, int h) {
+        return sum(temperature, x, y, w, h);
+    }
+
+
+    /**
+     * Returns the sum of the humidity over a rectangle of cells.
+     * @param x The first column; the rectangle wraps around the seam if x + w > width.
+     * @param y The first row.
+     * @param w The number of columns (1 to width).
+     * @param h The number of rows (1 to height - y).
+     * @return The sum of the humidity of the cells.
+     */
+    double humiditySum(int x, int y, int w, int h) {
+        return sum(humidity, x, y, w, h);
+    }
+
+
+    /**
+     * Returns the number of cells of a biome in a rectangle of cells.
+     * @param biome The biome.
+     * @param x The first column; the rectangle wraps around the seam if x + w > width.
+     * @param y The first row.
+     * @param w The number of columns (1 to width).
+     * @param h The number of rows (1 to height - y).
+     * @return The number of cells of the biome.
+     */
+    int biomeCount(Biome biome, int x, int y, int w, int h) {
+        int[] counts = biomes[biome.ordinal()];
+        if (x + w <= width) {
+            return corners(counts, x, y, x + w, y + h);
+        }
+        return corners(counts, x, y, width, y + h) + corners(counts, 0, y, x + w - width, y + h);
+    }
+
+
+    /**
+     * Sums a table over a rectangle, splitting it at the seam if it wraps around.
+     * @param table The table.
+     * @param x The first column.
+     * @param y The first row.
+     * @param w The number of columns.
+     * @param h The number of rows.
+     * @return The sum over the rectangle.
+     */
+    private double sum(double[] table, int x, int y, int w, int h) {
+        if (x + w <= width) {
+            return corners(table, x, y, x + w, y + h);
+        }
+        return corners(table, x, y, width, y + h) + corners(table, 0, y, x + w - width, y + h);
+    }
+
+
+    /**
+     * Sums a table over the cells in [x0, x1) x [y0, y1).
+     * @param table The table.
+     * @param x0 The first column (inclusive).
+     * @param y0 The first row (inclusive).
+     * @param x1 The last column (exclusive).
+     * @param y1 The last row (exclusive).
+     * @return The sum over the rectangle.
+     */
+    private double corners(double[] table, int x0, int y0, int x1, int y1) {
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+
+
+    /**
+     * Counts a table over the cells in [x0, x1) x [y0, y1).
+     * @param table The table.
+     * @param x0 The first column (inclusive).
+     * @param y0 The first row (inclusive).
+     * @param x1 The last column (exclusive).
+     * @param y1 The last row (exclusive).
+     * @return The count over the rectangle.
+     */
+    private int corners(int[] table, int x0, int y0, int x1, int y1) {
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+}
@@ -9,6 +9,16 @@ class SimplexNoise {
 
     private final int[] p = new int[512];
     private final int[] perm = new int[512];
+    private final int[] permMod12 = new int[512];
+    private final double[][] kernelTables;
+
+    /**
+     * Whether batches are evaluated by the SIMD kernel. True when the jdk.incubator.vector module is
+     * available (run with --add-modules jdk.incubator.vector), unless the system property
+     * `noise.scalar` is set to true.
+     */
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("noise.scalar");
 
     private static final int[][] grad3 = {
             {1,1,0}, {-1,1,0}, {1,-1,0}, {-1,-1,0},
@@ -43,8 +53,10 @@ class SimplexNoise {
 
         for (int i = 0; i < 512; i++) {
             perm[i] = p_local[i & 255];
+            permMod12[i] = perm[i] % 12;
             p[i] = p_local[i & 255];
         }
+        kernelTables = VECTORIZED ? SimplexNoiseKernel.tables(perm, grad3) : null;
     }
 
     /**
@@ -139,6 +151,13 @@ class SimplexNoise {
         return 70.0 * (n0 + n1 + n2);
     }
 
+    /**
+     * Generates 3D Simplex noise for the given coordinates.
+     * @param xin The x-coordinate.
+     * @param yin The y-coordinate.
+     * @param zin The z-coordinate.
+     * @return The noise value at the given coordinates.
+     */
     public double noise(double xin, double yin, double zin) {
         double n0, n1, n2, n3;
         double s = (xin + yin + zin) * F3;
@@ -178,10 +197,10 @@ class SimplexNoise {
         int ii = i & 255;
         int jj = j & 255;
         int kk = k & 255;
-        int gi0 = perm[ii + perm[jj + perm[kk]]] % 12;
-        int gi1 = perm[ii + i1 + perm[jj + j1 + perm[kk + k1]]] % 12;
-        int gi2 = perm[ii + i2 + perm[jj + j2 + perm[kk + k2]]] % 12;
-        int gi3 = perm[ii + 1 + perm[jj + 1 + perm[kk + 1]]] % 12;
+        int gi0 = permMod12[ii + perm[jj + perm[kk]]];
+        int gi1 = permMod12[ii + i1 + perm[jj + j1 + perm[kk + k1]]];
+        int gi2 = permMod12[ii + i2 + perm[jj + j2 + perm[kk + k2]]];
+        int gi3 = permMod12[ii + 1 + perm[jj + 1 + perm[kk + 1]]];
 
         double t0 = 0.6 - x0 * x0 - y0 * y0 - z0 * z0;
         if (t0 < 0) n0 = 0.0;
@@ -209,4 +228,136 @@ class SimplexNoise {
         }
         return 32.0 * (n0 + n1 + n2 + n3);
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Generates 3D Simplex noise together with its analytic gradient, in a single evaluation.
+     * The value is bit-identical to {@link #noise(double, double, double)}; each corner contribution
+     * t^4 * dot(g, d) is differentiated as t^4 * g - 8 * t^3 * dot(g, d) * d.
+     * @param xin The x-coordinate.
+     * @param yin The y-coordinate.
+     * @param zin The z-coordinate.
+     * @param gradient Receives the partial derivatives d/dx, d/dy and d/dz of the noise.
+     * @param offset The index in `gradient` of the x-derivative; the other two follow it.
+     * @return The noise value at the given coordinates.
+     */
+    public double noise(double xin, double yin, double zin, double[] gradient, int offset) {
+        double s = (xin + yin + zin) * F3;
+        int i = fastfloor(xin + s);
+        int j = fastfloor(yin + s);
+        int k = fastfloor(zin + s);
+        double t = (i + j + k) * G3;
+        double X0 = i - t;
+        double Y0 = j - t;
+        double Z0 = k - t;
+        double x0 = xin - X0;
+        double y0 = yin - Y0;
+        double z0 = zin - Z0;
+
+        int i1, j1, k1;
+        int i2, j2, k2;
+        if (x0 >= y0) {
+            if (y0 >= z0) { i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 1; k2 = 0; }
+            else if (x0 >= z0) { i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 0; k2 = 1; }
+            else { i1 = 0; j1 = 0; k1 = 1; i2 = 1; j2 = 0; k2 = 1; }
+        } else {
+            if (y0 < z0) { i1 = 0; j1 = 0; k1 = 1; i2 = 0; j2 = 1; k2 = 1; }
+            else if (x0 < z0) { i1 = 0; j1 = 1; k1 = 0; i2 = 0; j2 = 1; k2 = 1; }
+            else { i1 = 0; j1 = 1; k1 = 0; i2 = 1; j2 = 1; k2 = 0; }
+        }
+
+        int ii = i & 255;
+        int jj = j & 255;
+        int kk = k & 255;
+        int gi0 = permMod12[ii + perm[jj + perm[kk]]];
+        int gi1 = permMod12[ii + i1 + perm[jj + j1 + perm[kk + k1]]];
+        int gi2 = permMod12[ii + i2 + perm[jj + j2 + perm[kk + k2]]];
+        int gi3 = permMod12[ii + 1 + perm[jj + 1 + perm[kk + 1]]];
+
+        gradient[offset] = 0;
+        gradient[offset + 1] = 0;
+        gradient[offset + 2] = 0;
+        double n0 = corner(grad3[gi0], x0, y0, z0, gradient, offset);
+        double n1 = corner(grad3[gi1], x0 - i1 + G3, y0 - j1 + G3, z0 - k1 + G3, gradient, offset);
+        double n2 = corner(grad3[gi2], x0 - i2 + 2.0 * G3, y0 - j2 + 2.0 * G3, z0 - k2 + 2.0 * G3, gradient, offset);
+        double n3 = corner(grad3[gi3], x0 - 1.0 + 3.0 * G3, y0 - 1.0 + 3.0 * G3, z0 - 1.0 + 3.0 * G3, gradient, offset);
+        gradient[offset] *= 32.0;
+        gradient[offset + 1] *= 32.0;
+        gradient[offset + 2] *= 32.0;
+        return 32.0 * (n0 + n1 + n2 + n3);
+    }
+
+
+    /**
+     * Computes the contribution of one simplex corner and adds its derivative to a gradient.
+     * @param g The gradient vector of the corner.
+     * @param x The x-offset of the point from the corner.
+     * @param y The y-offset of the point from the corner.
+     * @param z The z-offset of the point from the corner.
+     * @param gradient The gradient to add the derivative of the contribution to.
+     * @param offset The index in `gradient` of the x-derivative.
+     * @return The contribution of the corner, 0 outside its radius.
+     */
+    private double corner(int[] g, double x, double y, double z, double[] gradient, int offset) {
+        double t = 0.6 - x * x - y * y - z * z;
+        if (t < 0) return 0.0;
+        double t2 = t * t;
+        double t4 = t2 * t2;
+        double dot = dot(g, x, y, z);
+        double falloff = 8.0 * t2 * t * dot;
+        gradient[offset] += t4 * g[0] - falloff * x;
+        gradient[offset + 1] += t4 * g[1] - falloff * y;
+        gradient[offset + 2] += t4 * g[2] - falloff * z;
+        return t4 * dot;
+    }
+
+
+    /**
+     * Generates 3D Simplex noise for a batch of points, scaled by a common frequency.
+     * Entry n of `out` receives noise(xs[n] * frequency, ys[n] * frequency, zs[n] * frequency), bit for bit.
+     * Whole vectors of points go through the SIMD kernel when {@link #VECTORIZED}; the rest are
+     * evaluated one by one.
+     * @param xs The x-coordinates of the points.
+     * @param ys The y-coordinates of the points.
+     * @param zs The z-coordinates of the points.
+     * @param frequency The factor every coordinate is multiplied with before sampling.
+     * @param out Receives the noise value of each point.
+     * @param count The number of points to evaluate (at most the length of every array).
+     */
+    public void noise(double[] xs, double[] ys, double[] zs, double frequency, double[] out, int count) {
+        int n = VECTORIZED ? SimplexNoiseKernel.noise(kernelTables, xs, ys, zs, frequency, out, count) : 0;
+        for (; n < count; n++) {
+            out[n] = noise(xs[n] * frequency, ys[n] * frequency, zs[n] * frequency);
+        }
+    }
+
+
+    /**
+     * Generates 3D Simplex noise and its gradient for a batch of points, scaled by a common frequency.
+     * Entry n of `out` receives the same value as {@link #noise(double[], double[], double[], double, double[], int)},
+     * and entry n of each gradient array the derivative with respect to the unscaled coordinates
+     * (the frequency is already applied), bit for bit as {@link #noise(double, double, double, double[], int)}.
+     * @param xs The x-coordinates of the points.
+     * @param ys The y-coordinates of the points.
+     * @param zs The z-coordinates of the points.
+     * @param frequency The factor every coordinate is multiplied with before sampling.
+     * @param out Receives the noise value of each point.
+     * @param gradX Receives the x-derivative of each point.
+     * @param gradY Receives the y-derivative of each point.
+     * @param gradZ Receives the z-derivative of each point.
+     * @param count The number of points to evaluate.
+     */
+    public void noise(double[] xs, double[] ys, double[] zs, double frequency, double[] out,
+                      double[] gradX, double[] gradY, double[] gradZ, int count) {
+        int n = VECTORIZED
+                ? SimplexNoiseKernel.noise(kernelTables, xs, ys, zs, frequency, out, gradX, gradY, gradZ, count)
+                : 0;
+        double[] gradient = new double[3];
+        for (; n < count; n++) {
+            out[n] = noise(xs[n] * frequency, ys[n] * frequency, zs[n] * frequency, gradient, 0);
+            gradX[n] = gradient[0] * frequency;
+            gradY[n] = gradient[1] * frequency;
+            gradZ[n] = gradient[2] * frequency;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package org.example;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernel for batches of 3D simplex noise, built on the incubating Vector API.
+ * Each lane follows {@link SimplexNoise#noise(double, double, double)} operation for operation, so the
+ * results are bit-identical to the scalar code. Only the selection of the simplex corners and the
+ * permutation hashing run lane by lane. All lanes stay doubles (integer
+ * values are exact in them), since JDK 17 does not compile double-to-int vector conversions.
+ * <p>
+ * Only loaded when the jdk.incubator.vector module is present; see {@link SimplexNoise#VECTORIZED}.
+ */
+final class SimplexNoiseKernel {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final double F3 = 1.0 / 3.0;
+    private static final double G3 = 1.0 / 6.0;
+    private static final double ROUNDING = 0x1.8p52;
+
+    /** The number of points per block; the scratch arrays hold one block. */
+    private static final int BLOCK = 256;
+
+    // Scratch array slots
+    private static final int X0 = 0, Y0 = 1, Z0 = 2;
+    private static final int II = 3, JJ = 4, KK = 5;
+    private static final int I1 = 6, J1 = 7, K1 = 8, I2 = 9, J2 = 10, K2 = 11;
+    private static final int GRAD = 12; // x, y, z components of corners 0 to 3
+    private static final int CX = 24, CY = 25, CZ = 26; // offsets from the current corner
+    private static final int T4 = 27, FALLOFF = 28; // derivative terms of the current corner
+    private static final int SLOTS = 29;
+
+    private static final double[] ONES = filled(BLOCK, 1.0);
+
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[SLOTS][BLOCK]);
+
+
+    private SimplexNoiseKernel() {
+    }
+
+
+    /**
+     * Evaluates noise for the leading points of a batch, a whole number of vectors at a time.
+     * Points are processed in blocks, in three passes over per-thread scratch arrays: a vector pass
+     * skews the points into their simplex, a scalar pass hashes the corners into gradients, and a
+     * vector pass per corner sums the contributions. Each vector pass is a small loop of its own:
+     * C2 in JDK 17 stops inlining the Vector API in large methods and boxes vectors that cross
+     * calls or loops, which costs far more than the vector instructions save.
+     * @param tables The lookup tables of the noise, built by {@link #tables}.
+     * @param xs The x-coordinates of the points.
+     * @param ys The y-coordinates of the points.
+     * @param zs The z-coordinates of the points.
+     * @param frequency The factor every coordinate is multiplied with before sampling.
+     * @param out Receives the noise value of each point.
+     * @param count The number of points in the batch.
+     * @return The number of points evaluated; the caller evaluates the remaining ones.
+     */
+    static int noise(double[][] tables, double[] xs, double[] ys, double[] zs, double frequency,
+                     double[] out, int count) {
+        double[][] scratch = SCRATCH.get();
+        int end = count - count % DOUBLES.length();
+        for (int from = 0; from < end; from += BLOCK) {
+            int n = Math.min(BLOCK, end - from);
+            skew(xs, ys, zs, frequency, from, n, scratch);
+            hash(tables, n, scratch);
+            first(from, n, scratch, out);
+            add(scratch[I1], scratch[J1], scratch[K1], 1, 1.0, from, n, scratch, out);
+            add(scratch[I2], scratch[J2], scratch[K2], 2, 1.0, from, n, scratch, out);
+            add(ONES, ONES, ONES, 3, 32.0, from, n, scratch, out);
+        }
+        return end;
+    }
+
+
+    /**
+     * Evaluates noise and its gradient for the leading points of a batch, a whole number of vectors at a time.
+     * Runs the same passes as {@link #noise(double[][], double[], double[], double[], double, double[], int)},
+     * except that each corner pass also keeps t^4, 8 * t^3 * dot(g, d) and the offsets from the corner,
+     * which a small pass per axis then turns into the derivatives.
+     * @param tables The lookup tables of the noise, built by {@link #tables}.
+     * @param xs The x-coordinates of the points.
+     * @param ys The y-coordinates of the points.
+     * @param zs The z-coordinates of the points.
+     * @param frequency The factor every coordinate is multiplied with before sampling.
+     * @param out Receives the noise value of each point.
+     * @param gradX Receives the x-derivative of each point, with respect to the unscaled coordinates.
+     * @param gradY Receives the y-derivative of each point.
+     * @param gradZ Receives the z-derivative of each point.
+     * @param count The number of points in the batch.
+     * @return The number of points evaluated; the caller evaluates the remaining ones.
+     */
+    static int noise(double[][] tables, double[] xs, double[] ys, double[] zs, double frequency,
+                     double[] out, double[] gradX, double[] gradY, double[] gradZ, int count) {
+        double[][] scratch = SCRATCH.get();
+        double[][] gradients = { gradX, gradY, gradZ };
+        int end = count - count % DOUBLES.length();
+        for (int from = 0; from < end; from += BLOCK) {
+            int n = Math.min(BLOCK, end - from);
+            skew(xs, ys, zs, frequency, from, n, scratch);
+            hash(tables, n, scratch);
+            firstTerms(from, n, scratch, out);
+            for (int axis = 0; axis < 3; axis++) {
+                firstDerivative(axis, from, n, scratch, gradients[axis]);
+            }
+            for (int corner = 1; corner < 4; corner++) {
+                double[] dx = corner == 3 ? ONES : scratch[corner == 1 ? I1 : I2];
+                double[] dy = corner == 3 ? ONES : scratch[corner == 1 ? J1 : J2];
+                double[] dz = corner == 3 ? ONES : scratch[corner == 1 ? K1 : K2];
+                double scale = corner == 3 ? 32.0 : 1.0;
+                addTerms(dx, dy, dz, corner, scale, from, n, scratch, out);
+                for (int axis = 0; axis < 3; axis++) {
+                    addDerivative(axis, corner, scale, corner == 3 ? frequency : 1.0, from, n, scratch, gradients[axis]);
+                }
+            }
+        }
+        return end;
+    }
+
+
+    /**
+     * Skews a block of points into simplex space and stores, per point, the offsets from the first
+     * corner and the integer coordinates of its simplex cell.
+     * @param xs The x-coordinates of the batch.
+     * @param ys The y-coordinates of the batch.
+     * @param zs The z-coordinates of the batch.
+     * @param frequency The factor every coordinate is multiplied with before sampling.
+     * @param from The first point of the block.
+     * @param n The number of points in the block, a multiple of the vector length.
+     * @param scratch The scratch arrays.
+     */
+    private static void skew(double[] xs, double[] ys, double[] zs, double frequency, int from, int n,
+                             double[][] scratch) {
+        for (int p = 0; p < n; p += DOUBLES.length()) {
+            DoubleVector xin = DoubleVector.fromArray(DOUBLES, xs, from + p).mul(frequency);
+            DoubleVector yin = DoubleVector.fromArray(DOUBLES, ys, from + p).mul(frequency);
+            DoubleVector zin = DoubleVector.fromArray(DOUBLES, zs, from + p).mul(frequency);
+
+            DoubleVector s = xin.add(yin).add(zin).mul(F3);
+            DoubleVector i = floor(xin.add(s));
+            DoubleVector j = floor(yin.add(s));
+            DoubleVector k = floor(zin.add(s));
+            DoubleVector t = i.add(j).add(k).mul(G3);
+            DoubleVector x0 = xin.sub(i.sub(t));
+            DoubleVector y0 = yin.sub(j.sub(t));
+            DoubleVector z0 = zin.sub(k.sub(t));
+            x0.intoArray(scratch[X0], p);
+            y0.intoArray(scratch[Y0], p);
+            z0.intoArray(scratch[Z0], p);
+            i.intoArray(scratch[II], p);
+            j.intoArray(scratch[JJ], p);
+            k.intoArray(scratch[KK], p);
+        }
+    }
+
+
+    /**
+     * Hashes the four corners of every point of a block, perm[ii + perm[jj + perm[kk]]], and stores
+     * the components of the corner gradients.
+     * @param tables The lookup tables of the noise.
+     * @param n The number of points in the block.
+     * @param scratch The scratch arrays.
+     */
+    private static void hash(double[][] tables, int n, double[][] scratch) {
+        double[] perm = tables[0];
+        double[] ii = scratch[II], jj = scratch[JJ], kk = scratch[KK];
+        double[] i1 = scratch[I1], j1 = scratch[J1], k1 = scratch[K1];
+        double[] i2 = scratch[I2], j2 = scratch[J2], k2 = scratch[K2];
+        for (int p = 0; p < n; p++) {
+            int x = (int) ii[p] & 255;
+            int y = (int) jj[p] & 255;
+            int z = (int) kk[p] & 255;
+            double x0 = scratch[X0][p], y0 = scratch[Y0][p], z0 = scratch[Z0][p];
+
+            // Corner ranks of the simplex, selected as in the scalar code
+            int dx1, dy1, dz1, dx2, dy2, dz2;
+            if (x0 >= y0) {
+                if (y0 >= z0) {
+                    dx1 = 1; dy1 = 0; dz1 = 0; dx2 = 1; dy2 = 1; dz2 = 0;
+                } else if (x0 >= z0) {
+                    dx1 = 1; dy1 = 0; dz1 = 0; dx2 = 1; dy2 = 0; dz2 = 1;
+                } else {
+                    dx1 = 0; dy1 = 0; dz1 = 1; dx2 = 1; dy2 = 0; dz2 = 1;
+                }
+            } else {
+                if (y0 < z0) {
+                    dx1 = 0; dy1 = 0; dz1 = 1; dx2 = 0; dy2 = 1; dz2 = 1;
+                } else if (x0 < z0) {
+                    dx1 = 0; dy1 = 1; dz1 = 0; dx2 = 0; dy2 = 1; dz2 = 1;
+                } else {
+                    dx1 = 0; dy1 = 1; dz1 = 0; dx2 = 1; dy2 = 1; dz2 = 0;
+                }
+            }
+            i1[p] = dx1; j1[p] = dy1; k1[p] = dz1;
+            i2[p] = dx2; j2[p] = dy2; k2[p] = dz2;
+            int g0 = x + (int) perm[y + (int) perm[z]];
+            int g1 = x + dx1 + (int) perm[y + dy1 + (int) perm[z + dz1]];
+            int g2 = x + dx2 + (int) perm[y + dy2 + (int) perm[z + dz2]];
+            int g3 = x + 1 + (int) perm[y + 1 + (int) perm[z + 1]];
+            for (int axis = 0; axis < 3; axis++) {
+                double[] grad = tables[1 + axis];
+                scratch[GRAD + axis][p] = grad[g0];
+                scratch[GRAD + 3 + axis][p] = grad[g1];
+                scratch[GRAD + 6 + axis][p] = grad[g2];
+                scratch[GRAD + 9 + axis][p] = grad[g3];
+            }
+        }
+    }
+
+
+    /**
+     * Stores the contribution of the first simplex corner as the noise of every point of a block.
+     * @param from The first point of the block.
+     * @param n The number of points in the block, a multiple of the vector length.
+     * @param scratch The scratch arrays.
+     * @param out The noise values of the batch.
+     */
+    private static void first(int from, int n, double[][] scratch, double[] out) {
+        for (int p = 0; p < n; p += DOUBLES.length()) {
+            DoubleVector x = DoubleVector.fromArray(DOUBLES, scratch[X0], p);
+            DoubleVector y = DoubleVector.fromArray(DOUBLES, scratch[Y0], p);
+            DoubleVector z = DoubleVector.fromArray(DOUBLES, scratch[Z0], p);
+            contribution(x, y, z, scratch, GRAD, p).intoArray(out, from + p);
+        }
+    }
+
+
+    /**
+     * Adds the contribution of one of the other simplex corners to the noise of every point of a block.
+     * The sum is associated exactly as in the scalar code; the last corner also applies the final scale.
+     * Every corner has a loop without branches of its own: a vector merged from two branches is
+     * boxed by C2 in JDK 17.
+     * @param dx The x-offsets of the corner from the first one.
+     * @param dy The y-offsets of the corner from the first one.
+     * @param dz The z-offsets of the corner from the first one.
+     * @param corner The corner (1 to 3).
+     * @param scale The factor the sum is multiplied with (1.0 until the last corner).
+     * @param from The first point of the block.
+     * @param n The number of points in the block, a multiple of the vector length.
+     * @param scratch The scratch arrays.
+     * @param out The noise values of the batch.
+     */
+    private static void add(double[] dx, double[] dy, double[] dz, int corner, double scale,
+                            int from, int n, double[][] scratch, double[] out) {
+        double unskew = corner * G3;
+        for (int p = 0; p < n; p += DOUBLES.length()) {
+            DoubleVector x = DoubleVector.fromArray(DOUBLES, scratch[X0], p)
+                    .sub(DoubleVector.fromArray(DOUBLES, dx, p)).add(unskew);
+            DoubleVector y = DoubleVector.fromArray(DOUBLES, scratch[Y0], p)
+                    .sub(DoubleVector.fromArray(DOUBLES, dy, p)).add(unskew);
+            DoubleVector z = DoubleVector.fromArray(DOUBLES, scratch[Z0], p)
+                    .sub(DoubleVector.fromArray(DOUBLES, dz, p)).add(unskew);
+            DoubleVector.fromArray(DOUBLES, out, from + p)
+                    .add(contribution(x, y, z, scratch, GRAD + 3 * corner, p))
+                    .mul(scale)
+                    .intoArray(out, from + p);
+        }
+    }
+
+
+    /**
+     * Stores the contribution of the first simplex corner for every point of a block, and keeps
+     * the terms of its derivatives in the scratch arrays.
+     * @param from The first point of the block.
+     * @param n The number of points in the block, a multiple of the vector length.
+     * @param scratch The scratch arrays.
+     * @param out The noise values of the batch.
+     */
+    private static void firstTerms(int from, int n, double[][] scratch, double[] out) {
+        for (int p = 0; p < n; p += DOUBLES.length()) {
+            DoubleVector x = DoubleVector.fromArray(DOUBLES, scratch[X0], p);
+            DoubleVector y = DoubleVector.fromArray(DOUBLES, scratch[Y0], p);
+            DoubleVector z = DoubleVector.fromArray(DOUBLES, scratch[Z0], p);
+            terms(x, y, z, scratch, GRAD, p).intoArray(out, from + p);
+        }
+    }
+
+
+    /**
+     * Adds the contribution of one of the other simplex corners to the noise of every point of a block,
+     * and keeps the offsets from the corner and the terms of its derivatives in the scratch arrays.
+     * @param dx The x-offsets of the corner from the first one.
+     * @param dy The y-offsets of the corner from the first one.
+     * @param dz The z-offsets of the corner from the first one.
+     * @param corner The corner (1 to 3).
+     * @param scale The factor the sum is multiplied with (1.0 until the last corner).
+     * @param from The first point of the block.
+     * @param n The number of points in the block, a multiple of the vector length.
+     * @param scratch The scratch arrays.
+     * @param out The noise values of the batch.
+     */
+    private static void addTerms(double[] dx, double[] dy, double[] dz, int corner, double scale,
+                                 int from, int n, double[][] scratch, double[] out) {
+        double unskew = corner * G3;
+        for (int p = 0; p < n; p += DOUBLES.length()) {
+            DoubleVector x = DoubleVector.fromArray(DOUBLES, scratch[X0], p)
+                    .sub(DoubleVector.fromArray(DOUBLES, dx, p)).add(unskew);
+            DoubleVector y = DoubleVector.fromArray(DOUBLES, scratch[Y0], p)
+                    .sub(DoubleVector.fromArray(DOUBLES, dy, p)).add(unskew);
+            DoubleVector z = DoubleVector.fromArray(DOUBLES, scratch[Z0], p)
+                    .sub(DoubleVector.fromArray(DOUBLES, dz, p)).add(unskew);
+            x.intoArray(scratch[CX], p);
+            y.intoArray(scratch[CY], p);
+            z.intoArray(scratch[CZ], p);
+            DoubleVector.fromArray(DOUBLES, out, from + p)
+                    .add(terms(x, y, z, scratch, GRAD + 3 * corner, p))
+                    .mul(scale)
+                    .intoArray(out, from + p);
+        }
+    }
+
+
+    /**
+     * Computes the contribution of a simplex corner and stores t^4 and 8 * t^3 * dot(g, d), both 0
+     * outside its radius, for the derivative passes.
+     * @param x The x-offsets of the points from the corner.
+     * @param y The y-offsets of the points from the corner.
+     * @param z The z-offsets of the points from the corner.
+     * @param scratch The scratch arrays.
+     * @param grad The scratch slot of the x-components of the corner gradients.
+     * @param p The first point of the vector within the block.
+     * @return The contributions.
+     */
+    private static DoubleVector terms(DoubleVector x, DoubleVector y, DoubleVector z,
+                                      double[][] scratch, int grad, int p) {
+        DoubleVector dot = DoubleVector.fromArray(DOUBLES, scratch[grad], p).mul(x)
+                .add(DoubleVector.fromArray(DOUBLES, scratch[grad + 1], p).mul(y))
+                .add(DoubleVector.fromArray(DOUBLES, scratch[grad + 2], p).mul(z));
+        DoubleVector t = DoubleVector.broadcast(DOUBLES, 0.6).sub(x.mul(x)).sub(y.mul(y)).sub(z.mul(z));
+        VectorMask<Double> outside = t.compare(VectorOperators.LT, 0.0);
+        DoubleVector t2 = t.mul(t);
+        DoubleVector t4 = t2.mul(t2);
+        t4.blend(0.0, outside).intoArray(scratch[T4], p);
+        t2.mul(8.0).mul(t).mul(dot).blend(0.0, outside).intoArray(scratch[FALLOFF], p);
+        return t4.mul(dot).blend(0.0, outside);
+    }
+
+
+    /**
+     * Stores the derivative along one axis of the first corner contribution, t^4 * g - 8 * t^3 * dot(g, d) * d,
+     * for every point of a block. Adding it to 0.0 turns a -0.0 term into +0.0, as in the scalar gradient.
+     * @param axis The axis (0 to 2).
+     * @param from The first point of the block.
+     * @param n The number of points in the block, a multiple of the vector length.
+     * @param scratch The scratch arrays, holding the terms of the first corner.
+     * @param gradient The derivatives of the batch along the axis.
+     */
+    private static void firstDerivative(int axis, int from, int n, double[][] scratch, double[] gradient) {
+        for (int p = 0; p < n; p += DOUBLES.length()) {
+            derivative(scratch, X0 + axis, GRAD + axis, p).add(0.0).intoArray(gradient, from + p);
+        }
+    }
+
+
+    /**
+     * Adds the derivative along one axis of another corner contribution for every point of a block.
+     * Outside the radius both terms are 0, so adding them leaves the (never -0.0) sum unchanged.
+     * @param axis The axis (0 to 2).
+     * @param corner The corner (1 to 3).
+     * @param scale The factor the sum is multiplied with (32.0 at the last corner).
+     * @param frequency The factor applied after the scale (the sampling frequency at the last corner).
+     * @param from The first point of the block.
+     * @param n The number of points in the block, a multiple of the vector length.
+     * @param scratch The scratch arrays, holding the terms and offsets of the corner.
+     * @param gradient The derivatives of the batch along the axis.
+     */
+    private static void addDerivative(int axis, int corner, double scale, double frequency,
+                                      int from, int n, double[][] scratch, double[] gradient) {
+        for (int p = 0; p < n; p += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, gradient, from + p)
+                    .add(derivative(scratch, CX + axis, GRAD + 3 * corner + axis, p))
+                    .mul(scale)
+                    .mul(frequency)
+                    .intoArray(gradient, from + p);
+        }
+    }
+
+
+    /**
+     * Computes t^4 * g - 8 * t^3 * dot(g, d) * d from the terms stored by the value pass.
+     * @param scratch The scratch arrays.
+     * @param offsets The scratch slot of the offsets of the points from the corner along the axis.
+     * @param grad The scratch slot of the gradient components along the axis.
+     * @param p The first point of the vector within the block.
+     * @return The derivatives.
+     */
+    private static DoubleVector derivative(double[][] scratch, int offsets, int grad, int p) {
+        return DoubleVector.fromArray(DOUBLES, scratch[T4], p).mul(DoubleVector.fromArray(DOUBLES, scratch[grad], p))
+                .sub(DoubleVector.fromArray(DOUBLES, scratch[FALLOFF], p).mul(DoubleVector.fromArray(DOUBLES, scratch[offsets], p)));
+    }
+
+
+    /**
+     * Computes the contribution of a simplex corner, t^4 * dot(gradient, offset), or 0 outside its radius.
+     * @param x The x-offsets of the points from the corner.
+     * @param y The y-offsets of the points from the corner.
+     * @param z The z-offsets of the points from the corner.
+     * @param scratch The scratch arrays.
+     * @param grad The scratch slot of the x-components of the corner gradients.
+     * @param p The first point of the vector within the block.
+     * @return The contributions.
+     */
+    private static DoubleVector contribution(DoubleVector x, DoubleVector y, DoubleVector z,
+                                             double[][] scratch, int grad, int p) {
+        DoubleVector dot = DoubleVector.fromArray(DOUBLES, scratch[grad], p).mul(x)
+                .add(DoubleVector.fromArray(DOUBLES, scratch[grad + 1], p).mul(y))
+                .add(DoubleVector.fromArray(DOUBLES, scratch[grad + 2], p).mul(z));
+        DoubleVector t = DoubleVector.broadcast(DOUBLES, 0.6).sub(x.mul(x)).sub(y.mul(y)).sub(z.mul(z));
+        DoubleVector t2 = t.mul(t);
+        return t2.mul(t2).mul(dot).blend(0.0, t.compare(VectorOperators.LT, 0.0));
+    }
+
+
+    /**
+     * Builds the lookup tables of the kernel from the permutation table of a noise instance.
+     * Entry 0 is the permutation as doubles; entries 1 to 3 hold the x, y and z components of
+     * grad3[perm[n] % 12] for every index n, so the last hash lookup yields the gradient directly.
+     * @param perm The 512-entry permutation table.
+     * @param grad3 The 12 gradient vectors of the noise.
+     * @return The four tables.
+     */
+    static double[][] tables(int[] perm, int[][] grad3) {
+        double[][] tables = new double[4][perm.length];
+        for (int n = 0; n < perm.length; n++) {
+            int[] g = grad3[perm[n] % 12];
+            tables[0][n] = perm[n];
+            tables[1][n] = g[0];
+            tables[2][n] = g[1];
+            tables[3][n] = g[2];
+        }
+        return tables;
+    }
+
+
+    /**
+     * Returns an array filled with one value.
+     * @param length The length of the array.
+     * @param value The value of every element.
+     * @return The filled array.
+     */
+    private static double[] filled(int length, double value) {
+        double[] array = new double[length];
+        Arrays.fill(array, value);
+        return array;
+    }
+
+
+    /**
+     * Computes the floor of each lane, like `fastfloor` of the scalar code, without leaving doubles.
+     * Adding and subtracting 1.5 * 2^52 rounds to the nearest integer exactly for |v| < 2^51,
+     * far beyond any sampled coordinate.
+     * @param v The values.
+     * @return The largest integers less than or equal to the values, as doubles.
+     */
+    private static DoubleVector floor(DoubleVector v) {
+        DoubleVector rounded = v.add(ROUNDING).sub(ROUNDING);
+        return rounded.sub(1.0, rounded.compare(VectorOperators.GT, v));
+    }
+}
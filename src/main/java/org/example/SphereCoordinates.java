@@ -0,0 +1,131 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed unit-sphere coordinates for an equirectangular grid of a given size.
+ * Cell (x, y) maps to longitude x / size * 2PI and latitude y / size * PI - PI / 2,
+ * so the trigonometry is separable into per-row and per-column tables.
+ * Instances are immutable once built and shared between worlds of the same size.
+ */
+final class SphereCoordinates {
+
+    private static final int CACHE_CAPACITY = 5;
+    private static final long MAX_FUSED_CELLS = 1L << 20;
+
+    private static final Map<Integer, SphereCoordinates> CACHE =
+            new LinkedHashMap<>(CACHE_CAPACITY + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, SphereCoordinates> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+
+    final int size;
+    final double[] cosLat;
+    final double[] sinLat;
+    final double[] cosLon;
+    final double[] sinLon;
+
+    private volatile double[][] fused;
+
+
+    /**
+     * Constructs the separable trig tables for a grid of the given size.
+     * @param size The size of the world grid (size x size).
+     */
+    private SphereCoordinates(int size) {
+        this.size = size;
+        this.cosLat = new double[size];
+        this.sinLat = new double[size];
+        this.cosLon = new double[size];
+        this.sinLon = new double[size];
+
+        for (int y = 0; y < size; y++) {
+            double ny_map = y / (double) size;
+            double lat = ny_map * Math.PI - (Math.PI / 2.0);
+            cosLat[y] = Math.cos(lat);
+            sinLat[y] = Math.sin(lat);
+        }
+        for (int x = 0; x < size; x++) {
+            double nx_map = x / (double) size;
+            double lon = nx_map * 2 * Math.PI;
+            cosLon[x] = Math.cos(lon);
+            sinLon[x] = Math.sin(lon);
+        }
+    }
+
+
+    /**
+     * Returns the shared coordinates for the given grid size, building them on first use.
+     * Only the most recently used sizes are kept.
+     * @param size The size of the world grid (size x size).
+     * @return The coordinate tables for that size.
+     */
+    static SphereCoordinates forSize(int size) {
+        synchronized (CACHE) {
+            return CACHE.computeIfAbsent(size, SphereCoordinates::new);
+        }
+    }
+
+
+    /**
+     * Builds the fused per-cell x/y/z tables in a single pass, if the grid is small enough.
+     * Once built, {@link #fillRow} copies rows out of them instead of multiplying the trig tables.
+     * @return True if the fused tables are available.
+     */
+    boolean buildFused() {
+        if ((long) size * size > MAX_FUSED_CELLS) {
+            return false;
+        }
+        if (fused == null) {
+            synchronized (this) {
+                if (fused == null) {
+                    double[] xs = new double[size * size];
+                    double[] ys = new double[size * size];
+                    double[] zs = new double[size * size];
+                    for (int y = 0; y < size; y++) {
+                        int row = y * size;
+                        for (int x = 0; x < size; x++) {
+                            xs[row + x] = cosLat[y] * cosLon[x];
+                            ys[row + x] = cosLat[y] * sinLon[x];
+                            zs[row + x] = sinLat[y];
+                        }
+                    }
+                    fused = new double[][] { xs, ys, zs };
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Writes the unit-sphere coordinates of `count` cells of row y into the given arrays,
+     * starting at column x0 and stepping `stride` columns per cell.
+     * @param y The row to fill.
+     * @param x0 The first column.
+     * @param stride The number of columns between consecutive cells.
+     * @param count The number of cells to fill.
+     * @param xs Receives the x coordinate of each cell (length >= count).
+     * @param ys Receives the y coordinate of each cell (length >= count).
+     * @param zs Receives the z coordinate of each cell (length >= count).
+     */
+    void fillRow(int y, int x0, int stride, int count, double[] xs, double[] ys, double[] zs) {
+        double[][] tables = fused;
+        if (tables != null && stride == 1) {
+            System.arraycopy(tables[0], y * size + x0, xs, 0, count);
+            System.arraycopy(tables[1], y * size + x0, ys, 0, count);
+            System.arraycopy(tables[2], y * size + x0, zs, 0, count);
+            return;
+        }
+        double cl = cosLat[y];
+        double sl = sinLat[y];
+        for (int i = 0, x = x0; i < count; i++, x += stride) {
+            xs[i] = cl * cosLon[x];
+            ys[i] = cl * sinLon[x];
+            zs[i] = sl;
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Grows states outwards from their capitals over the cell grid of a world (Dijkstra's algorithm).
+ * <p>
+ * Entering a cell costs {@link #LAND_COST}, {@link #MOUNTAIN_COST} or {@link #SEA_COST}, so every path
+ * cost is a small integer and the frontier is a bucket queue (Dial's algorithm): a ring of
+ * {@link #SEA_COST} + 1 buckets of packed cell indices, indexed by cost. Pushing and popping a cell are
+ * constant time and nothing is allocated per cell once the buckets have grown to their working size.
+ * <p>
+ * Each cell goes to the capital it can be reached from most cheaply; a tie between capitals goes to the
+ * lowest state ID. This makes the ownership map independent of the order the frontier is processed in.
+ * <p>
+ * That independence is what the parallel mode relies on. Since every move costs at least 1, all cells in
+ * the bucket of the lowest cost are final and can be settled at the same time (delta-stepping with a
+ * bucket width of 1). The bucket is split between the workers. Each cell holds a packed
+ * (cost, state) label that neighbors lower with compare-and-set, and each worker pushes into its own
+ * ring of buckets. The labels converge to the same lexicographic minimum as the sequential run, so
+ * both produce the same ownership map.
+ * <p>
+ * The path cost and state of every cell are kept after growing, so capitals can be added, moved and
+ * removed afterwards by re-running Dijkstra only where ownership can change. A new capital only
+ * lowers costs, so it spreads from its own cell until it meets cheaper paths. A removed capital only
+ * invalidates the cells it owned; they are cleared and regrown from the cells bordering them.
+ */
+final class StateGrowth {
+
+    /** The cost of entering a land cell. */
+    static final int LAND_COST = 1;
+    /** The cost of entering a mountain cell. */
+    static final int MOUNTAIN_COST = 10;
+    /** The cost of entering a sea cell. */
+    static final int SEA_COST = 250;
+
+    private static final int BUCKETS = SEA_COST + 1;
+    private static final int INITIAL_BUCKET_CAPACITY = 64;
+    private static final int CELLS_PER_CHECK = 1 << 14;
+    /** Buckets with fewer entries are settled on the calling thread, as a parallel step would cost more. */
+    private static final int MIN_PARALLEL_BUCKET = 1 << 12;
+    private static final int OWNER_BITS = 16;
+    private static final long OWNER_MASK = (1L << OWNER_BITS) - 1;
+    private static final long UNREACHED = Long.MAX_VALUE;
+
+    private final WorldLayers layers;
+    private final double seaLevel;
+    private final Frontier frontier = new Frontier();
+    private int[] capitals;
+    private byte[] enterCost;
+    private int[] cost;
+    private int[] owner;
+    /** Whether state changes are written to the layers as they happen, rather than all at once. */
+    private boolean writeThrough;
+    /** The number of cells pushed into and popped from the frontier so far, over all operations. */
+    private long pushes;
+    private long pops;
+
+
+    /**
+     * A ring of buckets, indexed by path cost modulo {@link #BUCKETS}, that one thread pushes cells into.
+     */
+    private static final class Frontier {
+        final int[][] buckets = new int[BUCKETS][INITIAL_BUCKET_CAPACITY];
+        final int[] sizes = new int[BUCKETS];
+        int pushed;
+        int settled;
+
+        /**
+         * Adds a cell to the bucket of its path cost.
+         * @param cell The index of the cell.
+         * @param cost The path cost of the cell.
+         */
+        void push(int cell, int cost) {
+            int b = cost % BUCKETS;
+            if (sizes[b] == buckets[b].length) {
+                buckets[b] = Arrays.copyOf(buckets[b], 2 * buckets[b].length);
+            }
+            buckets[b][sizes[b]++] = cell;
+            pushed++;
+        }
+    }
+
+
+    /**
+     * Constructs a new state growth over the layers of a whole world.
+     * @param layers The layers to grow the states in; elevation must already be generated.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     */
+    StateGrowth(WorldLayers layers, double seaLevel) {
+        this.layers = layers;
+        this.seaLevel = seaLevel;
+    }
+
+
+    /**
+     * Returns the cost of entering a cell.
+     * @param elevation The elevation of the cell (0.0 to 1.0).
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @return The move cost.
+     */
+    static int moveCost(double elevation, double seaLevel) {
+        if (elevation < seaLevel) {
+            return SEA_COST;
+        }
+        return elevation > 0.75 ? MOUNTAIN_COST : LAND_COST;
+    }
+
+
+    /**
+     * Assigns every cell reachable from a capital to a state. The previous states are discarded.
+     * With a pool, large buckets are settled by all of its workers; the ownership map is the same either way.
+     * @param capitals The cell index of the capital of each state; state i + 1 has its capital at capitals[i],
+     *                 or -1 if it was removed.
+     * @param progress The progress to report settled cells to and check for cancellation, or null.
+     * @param pool The pool to settle buckets on, or null to grow on the calling thread.
+     * @throws java.util.concurrent.CancellationException If the progress is cancelled.
+     */
+    void grow(int[] capitals, GenerationProgress progress, ForkJoinPool pool) {
+        int cells = layers.width * layers.height;
+        this.capitals = capitals.clone();
+        enterCost = new byte[cells];
+        for (int i = 0; i < cells; i++) {
+            enterCost[i] = (byte) moveCost(layers.elevation(i), seaLevel);
+        }
+        if (pool == null || pool.getParallelism() < 2) {
+            growSequential(progress);
+        } else {
+            growParallel(progress, pool);
+        }
+
+        layers.resetStates();
+        for (int i = 0; i < cells; i++) {
+            if (owner[i] != 0) {
+                layers.setStateID(i, owner[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of cells pushed into the frontier so far, by growing and by every edit since.
+     * @return The number of pushes.
+     */
+    long pushes() {
+        return pushes;
+    }
+
+
+    /**
+     * Returns the number of cells popped from the frontier so far, by growing and by every edit since.
+     * @return The number of pops.
+     */
+    long pops() {
+        return pops;
+    }
+
+
+    /**
+     * Returns the capital of every state.
+     * @return The cell index of the capital of state i + 1 at index i, or -1 if the state was removed.
+     */
+    int[] capitals() {
+        return capitals;
+    }
+
+
+    /**
+     * Adds a state with its capital at the given cell and lets it take over every cell it reaches
+     * more cheaply than the existing states. Only those cells are visited.
+     * @param cell The cell index of the new capital.
+     * @return The ID of the new state.
+     * @throws IllegalArgumentException If there are already {@link WorldLayers#MAX_STATE_ID} states.
+     */
+    int addCapital(int cell) {
+        int id = capitals.length + 1;
+        if (id > WorldLayers.MAX_STATE_ID) {
+            throw new IllegalArgumentException("Too many states: " + id);
+        }
+        capitals = Arrays.copyOf(capitals, id);
+        capitals[id - 1] = cell;
+        spread(id, cell);
+        return id;
+    }
+
+
+    /**
+     * Moves the capital of a state and regrows the cells whose owner can change: those the state
+     * owned, and those it now reaches more cheaply than their current owner.
+     * @param id The ID of the state.
+     * @param cell The cell index of the new capital.
+     */
+    void moveCapital(int id, int cell) {
+        removeCapital(id);
+        capitals[id - 1] = cell;
+        spread(id, cell);
+    }
+
+
+    /**
+     * Removes the capital of a state. The cells it owned are regrown from their neighbors owned by
+     * other states; no other cell is visited. The ID stays reserved, so other IDs do not change.
+     * @param id The ID of the state.
+     */
+    void removeCapital(int id) {
+        int capital = capitals[id - 1];
+        capitals[id - 1] = -1;
+        if (capital < 0 || owner[capital] != id) {
+            return; // Already removed, or sharing its cell with a capital of a lower ID and owning nothing
+        }
+        int width = layers.width;
+        int cells = cost.length;
+        writeThrough = true;
+
+        // Flood the territory of the state: every owned cell is connected to the capital by its shortest path
+        int[] region = new int[64];
+        int regionSize = 0;
+        region[regionSize++] = capital;
+        clear(capital);
+        for (int r = 0; r < regionSize; r++) {
+            int cell = region[r];
+            int x = cell % width;
+            int row = cell - x;
+            for (int d = 0; d < 4; d++) {
+                int n = neighbor(cell, x, row, width, cells, d);
+                if (n >= 0 && owner[n] == id) {
+                    if (regionSize == region.length) {
+                        region = Arrays.copyOf(region, 2 * regionSize);
+                    }
+                    region[regionSize++] = n;
+                    clear(n);
+                }
+            }
+        }
+
+        // Regrow the territory from its border with other states, and from capitals hidden under it
+        long[] seeds = new long[64];
+        int seedCount = 0;
+        for (int r = 0; r < regionSize; r++) {
+            int cell = region[r];
+            int x = cell % width;
+            int row = cell - x;
+            for (int d = 0; d < 4; d++) {
+                int n = neighbor(cell, x, row, width, cells, d);
+                if (n >= 0 && owner[n] != 0) {
+                    if (seedCount == seeds.length) {
+                        seeds = Arrays.copyOf(seeds, 2 * seedCount);
+                    }
+                    seeds[seedCount++] = ((long) cost[n] << 32) | n;
+                }
+            }
+        }
+        for (int i = 0; i < capitals.length; i++) {
+            int cell = capitals[i];
+            if (cell >= 0 && cost[cell] == Integer.MAX_VALUE) {
+                cost[cell] = 0;
+                setOwner(cell, i + 1);
+                if (seedCount == seeds.length) {
+                    seeds = Arrays.copyOf(seeds, 2 * seedCount);
+                }
+                seeds[seedCount++] = cell;
+            }
+        }
+        settle(seeds, seedCount, null);
+    }
+
+
+    /**
+     * Offers a capital's cell to its state and spreads the state from there as far as it is the cheapest.
+     * @param id The ID of the state.
+     * @param cell The cell index of the capital.
+     */
+    private void spread(int id, int cell) {
+        if (cost[cell] == 0 && owner[cell] < id) {
+            return; // A capital of a lower ID shares the cell
+        }
+        writeThrough = true;
+        cost[cell] = 0;
+        setOwner(cell, id);
+        settle(new long[] { cell }, 1, null);
+    }
+
+
+    /**
+     * Marks a cell as not reached by any state.
+     * @param cell The index of the cell.
+     */
+    private void clear(int cell) {
+        cost[cell] = Integer.MAX_VALUE;
+        setOwner(cell, 0);
+    }
+
+
+    /**
+     * Sets the state of a cell, writing it through to the layers during incremental changes.
+     * @param cell The index of the cell.
+     * @param state The state ID, or 0 for none.
+     */
+    private void setOwner(int cell, int state) {
+        owner[cell] = state;
+        if (writeThrough) {
+            layers.setStateID(cell, state);
+        }
+    }
+
+
+    /**
+     * Returns one of the four neighbors of a cell. The grid wraps around horizontally but not vertically.
+     * @param cell The index of the cell.
+     * @param x The column of the cell.
+     * @param row The index of the first cell of its row.
+     * @param width The number of cells per row.
+     * @param cells The number of cells.
+     * @param direction 0 for east, 1 for west, 2 for the previous row, 3 for the next row.
+     * @return The index of the neighbor, or -1 if it is outside the grid.
+     */
+    private static int neighbor(int cell, int x, int row, int width, int cells, int direction) {
+        return switch (direction) {
+            case 0 -> row + (x + 1 == width ? 0 : x + 1);
+            case 1 -> row + (x == 0 ? width - 1 : x - 1);
+            case 2 -> row > 0 ? cell - width : -1;
+            default -> row < cells - width ? cell + width : -1;
+        };
+    }
+
+
+    /**
+     * Grows the states on the calling thread from a single frontier.
+     * @param progress The progress to report settled cells to and check for cancellation, or null.
+     */
+    private void growSequential(GenerationProgress progress) {
+        int cells = enterCost.length;
+        cost = new int[cells];
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        owner = new int[cells];
+        writeThrough = false;
+
+        long[] seeds = new long[capitals.length];
+        int seedCount = 0;
+        for (int i = 0; i < capitals.length; i++) {
+            int cell = capitals[i];
+            if (cell >= 0 && cost[cell] != 0) {
+                cost[cell] = 0;
+                owner[cell] = i + 1;
+                seeds[seedCount++] = cell;
+            }
+        }
+        settle(seeds, seedCount, progress);
+    }
+
+
+    /**
+     * Runs Dijkstra's algorithm from cells whose cost and state are final, in order of cost.
+     * Each seed enters the frontier when the settled cost reaches its own, so seeds may span any range of
+     * costs while the frontier only ever holds costs within {@link #SEA_COST} of the current one.
+     * @param seeds The seeds, each packed as (cost << 32 | cell index); sorted in place.
+     * @param seedCount The number of seeds.
+     * @param progress The progress to report settled cells to and check for cancellation, or null.
+     */
+    private void settle(long[] seeds, int seedCount, GenerationProgress progress) {
+        Arrays.sort(seeds, 0, seedCount);
+        int width = layers.width;
+        int cells = cost.length;
+        int settled = 0;
+        int pending = 0;
+        int next = 0;
+        int current = 0;
+        int pushedBefore = frontier.pushed;
+        while (pending > 0 || next < seedCount) {
+            if (pending == 0) {
+                current = (int) (seeds[next] >>> 32);
+            }
+            for (; next < seedCount && (int) (seeds[next] >>> 32) == current; next++) {
+                frontier.push((int) seeds[next], current);
+                pending++;
+            }
+            int b = current % BUCKETS;
+            int[] bucket = frontier.buckets[b];
+            // Entries pushed while this bucket drains cost at least current + 1, so they land in other buckets
+            while (frontier.sizes[b] > 0) {
+                int cell = bucket[--frontier.sizes[b]];
+                pending--;
+                pops++;
+                if (cost[cell] != current) {
+                    continue; // Reached more cheaply since it was pushed
+                }
+                if (progress != null && ++settled == CELLS_PER_CHECK) {
+                    progress.checkCancelled();
+                    progress.advance(settled);
+                    settled = 0;
+                }
+
+                int state = owner[cell];
+                int x = cell % width;
+                int row = cell - x;
+                int before = frontier.pushed;
+                relax(current, state, row + (x + 1 == width ? 0 : x + 1));
+                relax(current, state, row + (x == 0 ? width - 1 : x - 1));
+                if (row > 0) {
+                    relax(current, state, cell - width);
+                }
+                if (row < cells - width) {
+                    relax(current, state, cell + width);
+                }
+                pending += frontier.pushed - before;
+            }
+            current++;
+        }
+        pushes += frontier.pushed - pushedBefore;
+        if (progress != null) {
+            progress.advance(settled);
+        }
+    }
+
+
+    /**
+     * Grows the states bucket by bucket, settling each large bucket on all workers of the pool at once.
+     * @param progress The progress to report settled cells to and check for cancellation, or null.
+     * @param pool The pool to settle buckets on.
+     */
+    private void growParallel(GenerationProgress progress, ForkJoinPool pool) {
+        int cells = enterCost.length;
+        AtomicLongArray labels = new AtomicLongArray(cells);
+        for (int i = 0; i < cells; i++) {
+            labels.set(i, UNREACHED);
+        }
+        Frontier[] frontiers = new Frontier[pool.getParallelism()];
+        for (int w = 0; w < frontiers.length; w++) {
+            frontiers[w] = new Frontier();
+        }
+        for (int i = 0; i < capitals.length; i++) {
+            int cell = capitals[i];
+            if (cell >= 0 && labels.get(cell) == UNREACHED) {
+                labels.set(cell, i + 1);
+                frontiers[0].push(cell, 0);
+            }
+        }
+
+        long pending = frontiers[0].pushed;
+        pushes += pending;
+        int unreported = 0;
+        for (int current = 0; pending > 0; current++) {
+            int b = current % BUCKETS;
+            int entries = 0;
+            for (Frontier frontier : frontiers) {
+                entries += frontier.sizes[b];
+                frontier.pushed = 0;
+                frontier.settled = 0;
+            }
+            if (entries == 0) {
+                continue;
+            }
+            if (entries < MIN_PARALLEL_BUCKET) {
+                settle(frontiers, frontiers[0], b, current, 0, entries, labels, enterCost);
+            } else {
+                if (progress != null) {
+                    progress.checkCancelled();
+                }
+                pool.invoke(new SettleTask(frontiers, 0, frontiers.length, b, current, entries, labels, enterCost));
+            }
+            // Entries pushed while this bucket was settled cost at least current + 1, so they are in other buckets
+            for (Frontier frontier : frontiers) {
+                frontier.sizes[b] = 0;
+                pending += frontier.pushed;
+                pushes += frontier.pushed;
+                unreported += frontier.settled;
+            }
+            pending -= entries;
+            pops += entries;
+            if (progress != null && unreported >= CELLS_PER_CHECK) {
+                progress.checkCancelled();
+                progress.advance(unreported);
+                unreported = 0;
+            }
+        }
+        if (progress != null) {
+            progress.advance(unreported);
+        }
+
+        cost = new int[cells];
+        owner = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            long label = labels.get(i);
+            cost[i] = label == UNREACHED ? Integer.MAX_VALUE : (int) (label >>> OWNER_BITS);
+            owner[i] = label == UNREACHED ? 0 : (int) (label & OWNER_MASK);
+        }
+    }
+
+
+    /**
+     * Settles a slice of the bucket of the current cost. The bucket is the concatenation of that bucket
+     * in every frontier; the slice is the entries from `from` (inclusive) to `to` (exclusive).
+     * @param frontiers The frontiers of all workers.
+     * @param target The frontier of the calling worker, which receives the cells reached more cheaply.
+     * @param b The index of the bucket.
+     * @param current The path cost of the bucket.
+     * @param from The first entry of the slice.
+     * @param to The end of the slice.
+     * @param labels The packed (cost, state) label of every cell.
+     * @param enterCost The cost of entering every cell.
+     */
+    private void settle(Frontier[] frontiers, Frontier target, int b, int current, int from, int to,
+                        AtomicLongArray labels, byte[] enterCost) {
+        int width = layers.width;
+        int cells = enterCost.length;
+        int offset = 0;
+        for (Frontier source : frontiers) {
+            int start = Math.max(from - offset, 0);
+            int end = Math.min(to - offset, source.sizes[b]);
+            int[] bucket = source.buckets[b];
+            for (int i = start; i < end; i++) {
+                int cell = bucket[i];
+                long label = labels.get(cell);
+                if (label >>> OWNER_BITS != current) {
+                    continue; // Reached more cheaply since it was pushed
+                }
+                target.settled++;
+                int state = (int) (label & OWNER_MASK);
+                int x = cell % width;
+                int row = cell - x;
+                relax(target, labels, enterCost, current, state, row + (x + 1 == width ? 0 : x + 1));
+                relax(target, labels, enterCost, current, state, row + (x == 0 ? width - 1 : x - 1));
+                if (row > 0) {
+                    relax(target, labels, enterCost, current, state, cell - width);
+                }
+                if (row < cells - width) {
+                    relax(target, labels, enterCost, current, state, cell + width);
+                }
+            }
+            offset += source.sizes[b];
+        }
+    }
+
+
+    /**
+     * Offers a neighbor of a settled cell a path through it, concurrently with other workers.
+     * The label only ever decreases, so the neighbor ends up with the lowest (cost, state) offered by anyone.
+     * @param frontier The frontier of the calling worker.
+     * @param labels The packed (cost, state) label of every cell.
+     * @param enterCost The cost of entering every cell.
+     * @param from The path cost of the settled cell.
+     * @param state The state of the settled cell.
+     * @param n The index of the neighbor.
+     */
+    private static void relax(Frontier frontier, AtomicLongArray labels, byte[] enterCost, int from, int state, int n) {
+        int newCost = from + (enterCost[n] & 0xFF);
+        long offer = ((long) newCost << OWNER_BITS) | state;
+        long label = labels.get(n);
+        while (offer < label) {
+            if (labels.compareAndSet(n, label, offer)) {
+                if (newCost < label >>> OWNER_BITS) {
+                    frontier.push(n, newCost); // Equal-cost takeovers are already queued at this cost
+                }
+                return;
+            }
+            label = labels.get(n);
+        }
+    }
+
+
+    /**
+     * Fork-join task that settles one bucket, giving each worker an equal slice of its entries.
+     */
+    private final class SettleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Frontier[] frontiers;
+        private final int first, last, b, current, entries;
+        private final AtomicLongArray labels;
+        private final byte[] enterCost;
+
+        /**
+         * Constructs a new SettleTask instance.
+         * @param frontiers The frontiers of all workers.
+         * @param first The first worker of this task (inclusive).
+         * @param last The last worker of this task (exclusive).
+         * @param b The index of the bucket.
+         * @param current The path cost of the bucket.
+         * @param entries The number of entries in the bucket, over all frontiers.
+         * @param labels The packed (cost, state) label of every cell.
+         * @param enterCost The cost of entering every cell.
+         */
+        SettleTask(Frontier[] frontiers, int first, int last, int b, int current, int entries,
+                   AtomicLongArray labels, byte[] enterCost) {
+            this.frontiers = frontiers;
+            this.first = first;
+            this.last = last;
+            this.b = b;
+            this.current = current;
+            this.entries = entries;
+            this.labels = labels;
+            this.enterCost = enterCost;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                long workers = frontiers.length;
+                settle(frontiers, frontiers[first], b, current,
+                        (int) (entries * first / workers), (int) (entries * (first + 1) / workers), labels, enterCost);
+                return;
+            }
+            int mid = (first + last) >>> 1;
+            invokeAll(new SettleTask(frontiers, first, mid, b, current, entries, labels, enterCost),
+                    new SettleTask(frontiers, mid, last, b, current, entries, labels, enterCost));
+        }
+    }
+
+
+    /**
+     * Offers a neighbor of a settled cell a path through it.
+     * The neighbor is taken over if the path is cheaper, or equally cheap from a capital with a lower ID.
+     * @param from The path cost of the settled cell.
+     * @param state The state of the settled cell.
+     * @param n The index of the neighbor.
+     */
+    private void relax(int from, int state, int n) {
+        int newCost = from + (enterCost[n] & 0xFF);
+        if (newCost < cost[n]) {
+            cost[n] = newCost;
+            setOwner(n, state);
+            frontier.push(n, newCost);
+        } else if (newCost == cost[n] && state < owner[n]) {
+            setOwner(n, state);
+            if (writeThrough) {
+                // Settled by an earlier growth, so its neighbors must be offered the new state too
+                frontier.push(n, newCost);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * The borders, neighbors and aggregates of the states of a world, computed in one pass over its layers.
+ * <p>
+ * Borders are a packed bitmask with one bit per cell: a land cell owned by a state is on a border if one
+ * of its four neighbors is ocean or owned by another state. The adjacency graph holds, for each state,
+ * its neighboring states in ascending order with the number of cell edges they share, in compressed
+ * sparse row form. The aggregates are the area, land and mountain cells, biome histogram and bounding
+ * box of every state.
+ * <p>
+ * The topology describes the states at the time it was computed; {@link World} computes it again after
+ * the states change. Like the states, the grid wraps around horizontally but not vertically.
+ */
+final class StateTopology {
+
+    private static final int BIOME_COUNT = Biome.values().length;
+    private static final int STATE_BITS = 16;
+
+    /** The layers the topology was computed from. */
+    final WorldLayers layers;
+    /** The highest state ID covered. */
+    final int numStates;
+    private final long[] borders;
+    private final int[] adjacencyStart;
+    private final int[] adjacentState;
+    private final int[] sharedBorder;
+    private final int[] area;
+    private final int[] landCells;
+    private final int[] mountainCells;
+    private final int[] biomeCells;
+    private final int[] bounds;
+
+
+    /**
+     * Computes the topology of the states in a set of layers.
+     * @param layers The layers; their whole width must be covered, so the grid wraps around.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param numStates The highest state ID in the layers.
+     */
+    StateTopology(WorldLayers layers, double seaLevel, int numStates) {
+        this.layers = layers;
+        this.numStates = numStates;
+        int width = layers.width;
+        int height = layers.height;
+        int cells = width * height;
+        borders = new long[(cells + 63) >>> 6];
+        area = new int[numStates + 1];
+        landCells = new int[numStates + 1];
+        mountainCells = new int[numStates + 1];
+        biomeCells = new int[(numStates + 1) * BIOME_COUNT];
+
+        // Bounds are tracked both in plain columns and in columns shifted by half the width, so a state
+        // crossing the seam gets the narrower of the two spans
+        int half = width / 2;
+        int[] minX = new int[numStates + 1];
+        int[] maxX = new int[numStates + 1];
+        int[] minShifted = new int[numStates + 1];
+        int[] maxShifted = new int[numStates + 1];
+        int[] minY = new int[numStates + 1];
+        int[] maxY = new int[numStates + 1];
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(minShifted, Integer.MAX_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        Arrays.fill(maxX, -1);
+        Arrays.fill(maxShifted, -1);
+        Arrays.fill(maxY, -1);
+
+        long[] edges = new long[64];
+        int edgeCount = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+                int owner = layers.stateID(i);
+                if (owner == 0) {
+                    continue;
+                }
+                boolean land = layers.elevation(i) >= seaLevel;
+                area[owner]++;
+                int biome = layers.biome(i).ordinal();
+                biomeCells[owner * BIOME_COUNT + biome]++;
+                if (land) {
+                    landCells[owner]++;
+                }
+                if (biome == Biome.MOUNTAIN.ordinal()) {
+                    mountainCells[owner]++;
+                }
+                int shifted = x < half ? x + width - half : x - half;
+                minX[owner] = Math.min(minX[owner], x);
+                maxX[owner] = Math.max(maxX[owner], x);
+                minShifted[owner] = Math.min(minShifted[owner], shifted);
+                maxShifted[owner] = Math.max(maxShifted[owner], shifted);
+                minY[owner] = Math.min(minY[owner], y);
+                maxY[owner] = Math.max(maxY[owner], y);
+
+                // Each edge between two states is counted once, from its western or northern cell
+                int east = row + (x + 1 == width ? 0 : x + 1);
+                int eastOwner = layers.stateID(east);
+                int south = y + 1 < height ? i + width : -1;
+                int southOwner = south < 0 ? 0 : layers.stateID(south);
+                if (eastOwner != 0 && eastOwner != owner) {
+                    if (edgeCount == edges.length) {
+                        edges = Arrays.copyOf(edges, 2 * edgeCount);
+                    }
+                    edges[edgeCount++] = edgeKey(owner, eastOwner);
+                }
+                if (southOwner != 0 && southOwner != owner) {
+                    if (edgeCount == edges.length) {
+                        edges = Arrays.copyOf(edges, 2 * edgeCount);
+                    }
+                    edges[edgeCount++] = edgeKey(owner, southOwner);
+                }
+
+                if (land && isBorder(layers, seaLevel, owner, x, y, row)) {
+                    borders[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+
+        bounds = new int[4 * (numStates + 1)];
+        for (int s = 1; s <= numStates; s++) {
+            if (area[s] == 0) {
+                continue;
+            }
+            boolean wraps = maxShifted[s] - minShifted[s] < maxX[s] - minX[s];
+            bounds[4 * s] = wraps ? (minShifted[s] + half) % width : minX[s];
+            bounds[4 * s + 1] = minY[s];
+            bounds[4 * s + 2] = wraps ? (maxShifted[s] + half) % width : maxX[s];
+            bounds[4 * s + 3] = maxY[s];
+        }
+
+        // Run-length the sorted edges into (state, neighbor, length) triples, then lay them out per state
+        Arrays.sort(edges, 0, edgeCount);
+        int pairs = 0;
+        for (int e = 0; e < edgeCount;) {
+            long key = edges[e];
+            int start = e;
+            while (e < edgeCount && edges[e] == key) {
+                e++;
+            }
+            edges[pairs++] = (long) (e - start) << 32 | key;
+        }
+        adjacencyStart = new int[numStates + 2];
+        for (int p = 0; p < pairs; p++) {
+            adjacencyStart[lowState(edges[p]) + 1]++;
+            adjacencyStart[highState(edges[p]) + 1]++;
+        }
+        for (int s = 0; s <= numStates; s++) {
+            adjacencyStart[s + 1] += adjacencyStart[s];
+        }
+        adjacentState = new int[2 * pairs];
+        sharedBorder = new int[2 * pairs];
+        int[] fill = Arrays.copyOf(adjacencyStart, numStates + 1);
+        // Pairs are sorted by their lower state, then their higher one, so every list comes out sorted
+        for (int p = 0; p < pairs; p++) {
+            int a = lowState(edges[p]);
+            int b = highState(edges[p]);
+            int length = (int) (edges[p] >>> 32);
+            adjacentState[fill[a]] = b;
+            sharedBorder[fill[a]++] = length;
+            adjacentState[fill[b]] = a;
+            sharedBorder[fill[b]++] = length;
+        }
+    }
+
+
+    /**
+     * Checks whether an owned land cell touches the ocean or another state.
+     * @param layers The layers.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param owner The state of the cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @param row The index of the first cell of its row.
+     * @return True if the cell is on a border.
+     */
+    private static boolean isBorder(WorldLayers layers, double seaLevel, int owner, int x, int y, int row) {
+        int width = layers.width;
+        int east = row + (x + 1 == width ? 0 : x + 1);
+        int west = row + (x == 0 ? width - 1 : x - 1);
+        return separates(layers, seaLevel, owner, east)
+                || separates(layers, seaLevel, owner, west)
+                || (y > 0 && separates(layers, seaLevel, owner, row - width + x))
+                || (y + 1 < layers.height && separates(layers, seaLevel, owner, row + width + x));
+    }
+
+
+    /**
+     * Checks whether a neighbor is ocean or owned by another state.
+     * @param layers The layers.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param owner The state of the cell the neighbor is next to.
+     * @param n The index of the neighbor.
+     * @return True if a border runs between the cell and the neighbor.
+     */
+    private static boolean separates(WorldLayers layers, double seaLevel, int owner, int n) {
+        if (layers.elevation(n) < seaLevel) {
+            return true;
+        }
+        int neighborOwner = layers.stateID(n);
+        return neighborOwner != 0 && neighborOwner != owner;
+    }
+
+
+    /**
+     * Packs an unordered pair of states into a key that sorts by the lower state, then the higher one.
+     * @param a One state.
+     * @param b The other state.
+     * @return The key.
+     */
+    private static long edgeKey(int a, int b) {
+        return a < b ? (long) a << STATE_BITS | b : (long) b << STATE_BITS | a;
+    }
+
+
+    /**
+     * Returns the lower state of a packed pair.
+     * @param key The pair, in the low 32 bits.
+     * @return The lower state ID.
+     */
+    private static int lowState(long key) {
+        return (int) (key >>> STATE_BITS) & WorldLayers.MAX_STATE_ID;
+    }
+
+
+    /**
+     * Returns the higher state of a packed pair.
+     * @param key The pair, in the low 32 bits.
+     * @return The higher state ID.
+     */
+    private static int highState(long key) {
+        return (int) key & WorldLayers.MAX_STATE_ID;
+    }
+
+
+    /**
+     * Checks whether a cell is on a state border.
+     * @param i The index of the cell.
+     * @return True if the cell is an owned land cell next to the ocean or another state.
+     */
+    boolean isBorder(int i) {
+        return (borders[i >>> 6] & 1L << i) != 0;
+    }
+
+
+    /**
+     * Returns the border bitmask: bit (i % 64) of word (i / 64) is set for every border cell i.
+     * @return The bitmask; not copied, so it must not be modified.
+     */
+    long[] borderMask() {
+        return borders;
+    }
+
+
+    /**
+     * Returns the number of cells owned by a state, land and sea.
+     * @param state The state ID.
+     * @return The number of cells.
+     */
+    int area(int state) {
+        return area[state];
+    }
+
+
+    /**
+     * Returns the number of land cells owned by a state.
+     * @param state The state ID.
+     * @return The number of cells at or above sea level.
+     */
+    int landCells(int state) {
+        return landCells[state];
+    }
+
+
+    /**
+     * Returns the number of mountain cells owned by a state.
+     * @param state The state ID.
+     * @return The number of cells of the mountain biome.
+     */
+    int mountainCells(int state) {
+        return mountainCells[state];
+    }
+
+
+    /**
+     * Returns the number of cells of a biome owned by a state.
+     * @param state The state ID.
+     * @param biome The biome.
+     * @return The number of cells.
+     */
+    int biomeCells(int state, Biome biome) {
+        return biomeCells[state * BIOME_COUNT + biome.ordinal()];
+    }
+
+
+    /**
+     * Returns the bounding box of a state. A state crossing the horizontal seam has a minimum x
+     * greater than its maximum x; the box then spans from the minimum x eastwards around the seam.
+     * States narrower than half the world are bounded exactly.
+     * @param state The state ID.
+     * @return {minX, minY, maxX, maxY}, inclusive, or null if the state owns no cells.
+     */
+    int[] bounds(int state) {
+        return area[state] == 0 ? null : Arrays.copyOfRange(bounds, 4 * state, 4 * state + 4);
+    }
+
+
+    /**
+     * Returns the states sharing a border with a state.
+     * @param state The state ID.
+     * @return The IDs of the neighboring states, in ascending order.
+     */
+    int[] neighbors(int state) {
+        return Arrays.copyOfRange(adjacentState, adjacencyStart[state], adjacencyStart[state + 1]);
+    }
+
+
+    /**
+     * Returns the length of the border between two states.
+     * @param a One state ID.
+     * @param b The other state ID.
+     * @return The number of cell edges between cells of the two states, 0 if they are not neighbors.
+     */
+    int sharedBorder(int a, int b) {
+        int i = Arrays.binarySearch(adjacentState, adjacencyStart[a], adjacencyStart[a + 1], b);
+        return i < 0 ? 0 : sharedBorder[i];
+    }
+}
@@ -0,0 +1,103 @@
+package org.example;
+
+/**
+ * The shapes of terrain a world can be generated with, each defined as a {@link NoiseGraph}.
+ * Every style maps a point on the unit sphere to an elevation from 0.0 to 1.0. Seed index 0 is
+ * the world's elevation noise, so all styles share the large-scale layout of the default continents.
+ */
+enum TerrainStyle {
+    /** Fractal continents. Generated by the built-in analytic elevation pass, which this graph matches exactly. */
+    CONTINENTS("Continents") {
+        @Override
+        NoiseGraph.Node elevation(NoiseGraph graph, double worldScale, int worldOctaves) {
+            return graph.scaleBias(continents(graph, graph.input(), worldScale, worldOctaves), 0.5, 0.5);
+        }
+    },
+    /** Continents whose highlands turn into ridged mountain ranges. */
+    MOUNTAINS("Mountain ranges") {
+        @Override
+        NoiseGraph.Node elevation(NoiseGraph graph, double worldScale, int worldOctaves) {
+            NoiseGraph.Node base = continents(graph, graph.input(), worldScale, worldOctaves);
+            NoiseGraph.Node ridges = graph.ridged(graph.input(), 4, worldScale * 2, worldOctaves, 2, 0.5);
+            NoiseGraph.Node ranges = graph.blend(base, ridges, graph.constant(0.3));
+            NoiseGraph.Node land = graph.select(base, base, ranges, 0.1, 0.15);
+            return graph.scaleBias(land, 0.5, 0.5);
+        }
+    },
+    /** Continents sampled through a low-frequency domain warp, for ragged coasts and swirling ranges. */
+    WARPED("Warped coasts") {
+        @Override
+        NoiseGraph.Node elevation(NoiseGraph graph, double worldScale, int worldOctaves) {
+            NoiseGraph.Node input = graph.input();
+            NoiseGraph.Node warped = graph.warp(input,
+                    graph.fbm(input, 4, worldScale, 3, 2, 0.5),
+                    graph.fbm(input, 5, worldScale, 3, 2, 0.5),
+                    graph.fbm(input, 6, worldScale, 3, 2, 0.5),
+                    0.35);
+            return graph.scaleBias(continents(graph, warped, worldScale, worldOctaves), 0.5, 0.5);
+        }
+    };
+
+    private final String displayName;
+
+    TerrainStyle(String displayName) {
+        this.displayName = displayName;
+    }
+
+
+    /**
+     * Builds the elevation of this style into a graph.
+     * @param graph The graph to build into.
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @return The elevation node (0.0 to 1.0).
+     */
+    abstract NoiseGraph.Node elevation(NoiseGraph graph, double worldScale, int worldOctaves);
+
+
+    /**
+     * Compiles the elevation of this style for a world.
+     * @param seed The world seed.
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @return The plan, whose only output is the elevation.
+     */
+    NoiseGraph.Plan compile(long seed, double worldScale, int worldOctaves) {
+        NoiseGraph graph = new NoiseGraph();
+        return graph.compile(seed, elevation(graph, worldScale, worldOctaves));
+    }
+
+
+    /**
+     * Returns the fractal continent noise shared by all styles (-1.0 to 1.0).
+     * @param graph The graph to build into.
+     * @param at The coordinates to sample at.
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @return The fBm node of the world's elevation noise.
+     */
+    private static NoiseGraph.Node continents(NoiseGraph graph, NoiseGraph.Node at, double worldScale, int worldOctaves) {
+        return graph.fbm(at, 0, worldScale, worldOctaves, 2, 0.5);
+    }
+
+
+    /**
+     * Returns the style with the given name, falling back to {@link #CONTINENTS} for unknown names.
+     * @param name The enum constant name.
+     * @return The style.
+     */
+    static TerrainStyle fromName(String name) {
+        for (TerrainStyle style : values()) {
+            if (style.name().equals(name)) {
+                return style;
+            }
+        }
+        return CONTINENTS;
+    }
+
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
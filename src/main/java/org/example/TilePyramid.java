@@ -0,0 +1,196 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.application.Platform;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Mipmapped pyramid of rendered map tiles for zooming into a world, held in a bounded LRU cache.
+ * <p>
+ * A tile at level L covers {@link #TILE_SIZE} x {@link #TILE_SIZE} pixels sampled every 2^L cells, so
+ * level 0 shows every cell and each level above halves the resolution, up to the level at which the
+ * whole world fits in one tile. Tiles are rendered lazily on a background thread the first time they
+ * are asked for; until one is ready the map shows whatever it drew underneath. Only tiles that are
+ * still visible when their turn comes are rendered, so panning or zooming past tiles costs no renders.
+ * <p>
+ * Tiles are valid for one revision of one world ({@link World#revision()}); the cache empties when
+ * either changes, and tiles rendered from an older revision are dropped. The cache is only used on the
+ * JavaFX application thread.
+ */
+final class TilePyramid {
+
+    /** The width and height of a tile in pixels. */
+    static final int TILE_SIZE = 256;
+
+    /**
+     * Identifies a tile of a layer.
+     * @param layer The name of the layer.
+     * @param level The level; tiles sample every 2^level cells.
+     * @param tx The column of the tile.
+     * @param ty The row of the tile.
+     */
+    record TileKey(String layer, int level, int tx, int ty) {
+    }
+
+    private final int maxTiles;
+    private final Runnable onTileReady;
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "map-tiles");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Used on the render thread only. */
+    private final LayerRenderer layerRenderer = new LayerRenderer();
+    private final LinkedHashMap<TileKey, WritableImage> tiles;
+    private final Set<TileKey> pending = new HashSet<>();
+    private final Set<TileKey> drawn = new HashSet<>();
+    private final List<TileKey> requested = new ArrayList<>();
+    private volatile Set<TileKey> visible = Set.of();
+    private World world;
+    private int revision;
+
+
+    /**
+     * Constructs a new, empty pyramid.
+     * @param maxTiles The maximum number of tiles kept in memory.
+     * @param onTileReady Called on the JavaFX application thread whenever a requested tile is ready.
+     */
+    TilePyramid(int maxTiles, Runnable onTileReady) {
+        this.maxTiles = Math.max(1, maxTiles);
+        this.onTileReady = onTileReady;
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TileKey, WritableImage> eldest) {
+                return size() > TilePyramid.this.maxTiles;
+            }
+        };
+    }
+
+
+    /**
+     * Returns the coarsest level of a world: the first level at which the world fits in one tile.
+     * @param worldSize The size of the world grid.
+     * @return The level.
+     */
+    static int maxLevel(int worldSize) {
+        int level = 0;
+        while ((TILE_SIZE << level) < worldSize) {
+            level++;
+        }
+        return level;
+    }
+
+
+    /**
+     * Starts a draw of the map, after which its tiles are asked for with {@link #tile}.
+     * Tiles of another world or revision are dropped.
+     * @param w The world that is drawn.
+     */
+    void beginDraw(World w) {
+        if (w != world || w.revision() != revision) {
+            tiles.clear();
+            pending.clear();
+            world = w;
+            revision = w.revision();
+        }
+        drawn.clear();
+        requested.clear();
+    }
+
+
+    /**
+     * Ends a draw of the map: the tiles asked for during it become the visible ones, and those that are
+     * not cached are queued for rendering. Queued tiles that are no longer visible are skipped.
+     */
+    void endDraw() {
+        visible = Set.copyOf(drawn);
+        World w = world;
+        int rev = revision;
+        for (TileKey key : requested) {
+            renderer.execute(() -> render(w, rev, key));
+        }
+        requested.clear();
+    }
+
+
+    /**
+     * Returns a tile of the world being drawn, requesting it for rendering if it is not cached.
+     * @param layer The name of the layer.
+     * @param level The level.
+     * @param tx The column of the tile.
+     * @param ty The row of the tile.
+     * @return The tile, or null if it is not rendered yet.
+     */
+    WritableImage tile(String layer, int level, int tx, int ty) {
+        TileKey key = new TileKey(layer, level, tx, ty);
+        drawn.add(key);
+        WritableImage image = tiles.get(key);
+        if (image == null && pending.add(key)) {
+            requested.add(key);
+        }
+        return image;
+    }
+
+
+    /**
+     * Renders a tile on the render thread and hands it to the application thread, unless it is no longer
+     * visible or the world changed meanwhile.
+     * @param w The world.
+     * @param rev The revision of the world the tile was requested for.
+     * @param key The tile.
+     */
+    private void render(World w, int rev, TileKey key) {
+        WritableImage image = null;
+        if (visible.contains(key) && w.revision() == rev) {
+            image = renderTile(w, key);
+        }
+        WritableImage rendered = image;
+        Platform.runLater(() -> {
+            if (w != world || rev != revision) {
+                return;
+            }
+            pending.remove(key);
+            if (rendered != null && w.revision() == rev) {
+                tiles.put(key, rendered);
+                onTileReady.run();
+            } else if (rendered == null && visible.contains(key)) {
+                onTileReady.run(); // Skipped, but visible again since; the next draw asks for it again
+            }
+        });
+    }
+
+
+    /**
+     * Renders the pixels of a tile. State borders need the neighbors of the edge cells, so the States
+     * layer of an in-memory world is rendered with a margin of one cell that is cut off afterwards.
+     * @param w The world.
+     * @param key The tile.
+     * @return The tile image; tiles at the right and bottom edges of the world may be smaller.
+     */
+    private WritableImage renderTile(World w, TileKey key) {
+        int stride = 1 << key.level();
+        int span = TILE_SIZE * stride;
+        int x0 = key.tx() * span;
+        int y0 = key.ty() * span;
+        int width = Math.min(TILE_SIZE, (w.size - x0 + stride - 1) / stride);
+        int height = Math.min(TILE_SIZE, (w.size - y0 + stride - 1) / stride);
+        int margin = "States".equals(key.layer()) && w.stateColors != null && !w.isChunked() ? 1 : 0;
+
+        WorldLayers window = w.window(x0 - margin * stride, y0 - margin * stride,
+                width + 2 * margin, height + 2 * margin, stride);
+        int[] pixels = layerRenderer.render(w, window, key.layer());
+        int scanline = width + 2 * margin;
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+                pixels, margin * scanline + margin, scanline);
+        return image;
+    }
+}
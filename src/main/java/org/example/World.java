@@ -1,7 +1,11 @@
 package org.example;
 
+import java.util.Arrays;
 import java.util.Random;
-import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 import javafx.scene.paint.Color;
 
 class World {
@@ -9,18 +13,45 @@ class World {
     double seaLevel;
     double worldScale;
     int worldOctaves;
-    double[][] elevation;
-    double[][] temperature;
-    double[][] humidity;
-    Biome[][] biomes;
-    int[][] stateID;
+    long seed = new Random().nextLong();
+    WorldLayers layers;
     Color[] stateColors;
     String[] stateNames;
+    /** The cell index of the capital of state i + 1 at index i (-1 once removed), or null if not known. */
+    int[] capitals;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    boolean fusedCoordinates = true;
+    TerrainStyle terrainStyle = TerrainStyle.CONTINENTS;
+    private SphereCoordinates coords;
+    private SimplexNoise elevationNoise;
+    private SimplexNoise tempNoise;
+    private SimplexNoise humidNoise;
+    private long stateSeed;
+    private NoiseGraph.Plan terrainPlan;
+    private WorldCache diskCache;
+    private GenerationProgress progress;
+    private final int maxCachedTiles;
+    private WorldTileCache tiles;
+    private volatile Derived<WorldLayers> overview;
+    private StateGrowth stateGrowth;
+    private volatile Derived<StateTopology> topology;
+    private volatile Derived<StateTopology> viewTopology;
+    private volatile RegionTables regionTables;
+    private volatile int revision;
+
+    /** The width and height of a tile in a chunked world. */
+    static final int TILE_SIZE = 256;
+
+    private static final int MIN_ROWS_PER_BAND = 4;
+    private static final int BANDS_PER_THREAD = 4;
+    private static final int PROGRESS_STEPS = 64;
+    /** The arc length, in radians, of the forward differences that give the slope of terrain style plans. */
+    private static final double SLOPE_STEP = 1e-6;
 
 
     /**
      * Constructs a new World instance with the specified parameters.
-     * Initializes the world grid and its properties.
+     * The layers are allocated by {@link #generate}, unless it loads them from the disk cache.
      * @param size The size of the world grid (size x size).
      * @param seaLevel The sea level threshold (0.0 to 1.0).
      * @param worldScale The scale of the world for noise generation.
@@ -32,263 +63,1624 @@ class World {
         this.seaLevel = seaLevel;
         this.worldScale = worldScale;
         this.worldOctaves = worldOctaves;
-        this.elevation = new double[size][size];
-        this.temperature = new double[size][size];
-        this.humidity = new double[size][size];
-        this.biomes = new Biome[size][size];
-        this.stateID = new int[size][size];
         this.stateNames = stateNames;
+        this.maxCachedTiles = 0;
     }
 
 
     /**
-     * Helper class for the state generation algorithm (Dijkstra's)
-     * Implements Comparable to be used in a PriorityQueue.
+     * Constructs a generated in-memory world over existing layers, e.g. ones opened by {@link WorldFile}.
+     * @param layers The layers of the whole world.
+     * @param seed The seed the layers were generated from.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @param stateNames The state names, or null if the world has no states.
+     * @param stateColors The state colors, or null if the world has no states.
      */
-    private static class StateCell implements Comparable<StateCell> {
-        int x, y, ownerID;
-        double cost;
+    World(WorldLayers layers, long seed, double seaLevel, double worldScale, int worldOctaves,
+          String[] stateNames, Color[] stateColors) {
+        this.size = layers.width;
+        this.seaLevel = seaLevel;
+        this.worldScale = worldScale;
+        this.worldOctaves = worldOctaves;
+        this.seed = seed;
+        this.layers = layers;
+        this.stateNames = stateNames;
+        this.stateColors = stateColors;
+        this.maxCachedTiles = 0;
+        prepareNoise();
+    }
 
-        /**
-         * Constructs a new StateCell instance.
-         * @param x The x-coordinate of the cell.
-         * @param y The y-coordinate of the cell.
-         * @param ownerID The ID of the state owning this cell.
-         * @param cost The movement cost to reach this cell.
-         */
-        public StateCell(int x, int y, int ownerID, double cost) {
-            this.x = x;
-            this.y = y;
-            this.ownerID = ownerID;
-            this.cost = cost;
-        }
 
+    /**
+     * Constructs a chunked world whose layers are generated tile by tile on first access.
+     * Only `maxCachedTiles` tiles of {@link #TILE_SIZE} x {@link #TILE_SIZE} cells are held in memory,
+     * so the world can be far larger than the heap.
+     * @param size The size of the world grid (size x size).
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @param maxCachedTiles The maximum number of tiles kept in memory (at least 1).
+     */
+    private World(int size, double seaLevel, double worldScale, int worldOctaves, int maxCachedTiles) {
+        this.size = size;
+        this.seaLevel = seaLevel;
+        this.worldScale = worldScale;
+        this.worldOctaves = worldOctaves;
+        this.maxCachedTiles = Math.max(1, maxCachedTiles);
+    }
+
+
+    /**
+     * Creates a chunked world whose layers are generated tile by tile on first access.
+     * @param size The size of the world grid (size x size).
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @param maxCachedTiles The maximum number of tiles kept in memory.
+     * @return The new, not yet generated world.
+     */
+    public static World chunked(int size, double seaLevel, double worldScale, int worldOctaves, int maxCachedTiles) {
+        return new World(size, seaLevel, worldScale, worldOctaves, maxCachedTiles);
+    }
+
+
+    /**
+     * Something derived from the layers of the world, with the revision it was derived from.
+     * Views and topologies may be derived on another thread than the one changing the world; one
+     * derived while a change was under way carries the revision from before the change, so it is
+     * never used once the change completes.
+     * @param value The derived value.
+     * @param revision The revision of the world when deriving started.
+     * @param <T> The type of the value.
+     */
+    private record Derived<T>(T value, int revision) {
+    }
+
+
+    /**
+     * A generation pass over a contiguous range of rows.
+     */
+    @FunctionalInterface
+    private interface RowPass {
+        void run(int yStart, int yEnd);
+    }
+
+
+    /**
+     * Fork-join task that splits a row range in half until it is small enough to run as one band.
+     */
+    private static class RowBandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RowPass pass;
+        private final int yStart, yEnd, grain;
 
         /**
-         * Compares this StateCell with another based on movement cost.
-         * @param other The other StateCell to compare to.
-         * @return A negative value if this cell has a lower cost, zero if equal, or a positive value otherwise.
+         * Constructs a new RowBandTask instance.
+         * @param pass The pass to run over the rows.
+         * @param yStart The first row of the range (inclusive).
+         * @param yEnd The last row of the range (exclusive).
+         * @param grain The maximum number of rows processed by a single band.
          */
+        RowBandTask(RowPass pass, int yStart, int yEnd, int grain) {
+            this.pass = pass;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.grain = grain;
+        }
+
         @Override
-        public int compareTo(StateCell other) {
-            return Double.compare(this.cost, other.cost);
+        protected void compute() {
+            if (yEnd - yStart <= grain) {
+                pass.run(yStart, yEnd);
+                return;
+            }
+            int mid = (yStart + yEnd) >>> 1;
+            invokeAll(new RowBandTask(pass, yStart, mid, grain), new RowBandTask(pass, mid, yEnd, grain));
         }
     }
 
     /**
      * Generates the world by calculating elevation, temperature, humidity, and biomes.
      * Optionally generates states if the `generateStates` parameter is true.
+     * For a chunked world this only prepares the noise sources; tiles are generated on first access
+     * and states are not supported.
      * @param generateStates Whether to generate states in the world.
      * @param numStates The number of states to generate if generateStates is true.
+     * @throws java.util.concurrent.CancellationException If the progress attached by {@link #setProgress} is cancelled.
      */
     public void generate(boolean generateStates, int numStates) {
-        Random rand = new Random();
-        SimplexNoise elevationNoise = new SimplexNoise(rand.nextLong());
-        SimplexNoise tempNoise = new SimplexNoise(rand.nextLong());
-        SimplexNoise humidNoise = new SimplexNoise(rand.nextLong());
-
-        double baseFrequency;
-        double amplitude;
-        double maxValue;
-
-        baseFrequency = this.worldScale;
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-
-                double nx_map = x / (double) size; // 0 to 1
-                double ny_map = y / (double) size; // 0 to 1
-
-
-                double lon = nx_map * 2 * Math.PI;
-                double lat = ny_map * Math.PI - (Math.PI / 2.0);
-
-                double x_coord = Math.cos(lat) * Math.cos(lon);
-                double y_coord = Math.cos(lat) * Math.sin(lon);
-                double z_coord = Math.sin(lat);
-
-                double e = 0;
-                amplitude = 1.0;
-                maxValue = 0;
-
-                for (int i = 0; i < this.worldOctaves; i++) {
-                    double freq = Math.pow(2, i) * baseFrequency;
-                    e += amplitude * elevationNoise.noise(
-                            x_coord * freq,
-                            y_coord * freq,
-                            z_coord * freq
-                    );
-                    maxValue += amplitude;
-                    amplitude *= 0.5;
-                }
-                elevation[x][y] = (e / maxValue + 1) / 2;
+        generate(generateStates, numStates, null);
+    }
+
+
+    /**
+     * Generates the world like {@link #generate(boolean, int)}, reusing the samples of a generated
+     * world of exactly half the size with the same seed, scale, octaves and terrain style.
+     * Cell (x, y) of the coarser world lies at the same point of the sphere as cell (2x, 2y) of this one,
+     * so a quarter of the cells only need their climate re-derived. Used for progressive previews.
+     * @param coarser The previously generated coarser world; ignored if it does not match.
+     * @param generateStates Whether to generate states in the world.
+     * @param numStates The number of states to generate if generateStates is true.
+     */
+    public void generateRefined(World coarser, boolean generateStates, int numStates) {
+        boolean matches = coarser != null && !isChunked() && !coarser.isChunked()
+                && coarser.size * 2 == size && coarser.seed == seed
+                && coarser.worldScale == worldScale && coarser.worldOctaves == worldOctaves
+                && coarser.terrainStyle == terrainStyle;
+        generate(generateStates, numStates, matches ? coarser.layers : null);
+    }
+
+
+    /**
+     * Generates the world, optionally reusing the even cells from a coarser sampling of it.
+     * @param generateStates Whether to generate states in the world.
+     * @param numStates The number of states to generate if generateStates is true.
+     * @param coarse Layers whose cell (x, y) equals cell (2x, 2y) of this world, or null.
+     */
+    private void generate(boolean generateStates, int numStates, WorldLayers coarse) {
+        try {
+            Metrics.Span span = Metrics.global().begin("Generation", isChunked() ? "Chunked" : "World", (long) size * size);
+            runGeneration(generateStates, numStates, coarse);
+            span.end();
+        } finally {
+            progress = null;
+            revision++;
+        }
+    }
+
+
+    /**
+     * Generates the world for {@link #generate(boolean, int, WorldLayers)}, reporting to the attached progress.
+     * @param generateStates Whether to generate states in the world.
+     * @param numStates The number of states to generate if generateStates is true.
+     * @param coarse Layers whose cell (x, y) equals cell (2x, 2y) of this world, or null.
+     */
+    private void runGeneration(boolean generateStates, int numStates, WorldLayers coarse) {
+        prepareNoise();
+        stateGrowth = null;
+        capitals = null;
+        statesChanged();
+
+        if (isChunked()) {
+            tiles = new WorldTileCache(size, TILE_SIZE, maxCachedTiles, tile -> generateLayers(tile, null, null));
+            this.stateColors = null;
+            this.stateNames = null;
+            return;
+        }
+
+        int cachedStates = generateStates ? numStates : 0;
+        if (diskCache != null && diskCache.load(this, cachedStates)) {
+            if (!generateStates) {
+                this.stateNames = null;
             }
+            return;
+        }
+
+        if (layers == null) {
+            layers = new WorldLayers(size, size);
+        }
+        if (fusedCoordinates) {
+            coords.buildFused();
         }
 
+        withPool(pool -> generateLayers(layers, pool, coarse));
 
-        baseFrequency = 0.5;
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
 
-                double nx_map = x / (double) size;
-                double ny_map = y / (double) size;
-                double lon = nx_map * 2 * Math.PI;
-                double lat = ny_map * Math.PI - (Math.PI / 2.0);
-                double x_coord = Math.cos(lat) * Math.cos(lon);
-                double y_coord = Math.cos(lat) * Math.sin(lon);
-                double z_coord = Math.sin(lat);
 
-                double lat_normalized = Math.abs(y / (double) size - 0.5) * 2;
-                double baseTemp = 30 - lat_normalized * 60;
+        if (generateStates) {
+            runStateGeneration(numStates);
+        } else {
 
-                double altitudeMod = 0;
-                if (elevation[x][y] > seaLevel) {
+            layers.clearStates();
+            this.stateColors = null;
+            this.stateNames = null;
+        }
+
+        if (diskCache != null) {
+            diskCache.store(this, cachedStates);
+        }
+    }
+
+
+    /**
+     * Attaches progress reporting and cancellation to the next generation of this world.
+     * The generation reports each of its phases and, once the progress is cancelled, stops at the
+     * next row band by throwing a {@link java.util.concurrent.CancellationException}.
+     * The progress is detached again when that generation ends.
+     * @param progress The progress to report to, or null for none.
+     */
+    public void setProgress(GenerationProgress progress) {
+        this.progress = progress;
+    }
+
+
+    /**
+     * Derives the noise sources and the state seed from the world seed, and looks up the sphere coordinates.
+     * Everything else in the world is a deterministic function of these and the parameters.
+     */
+    private void prepareNoise() {
+        Random rand = new Random(seed);
+        elevationNoise = new SimplexNoise(rand.nextLong());
+        tempNoise = new SimplexNoise(rand.nextLong());
+        humidNoise = new SimplexNoise(rand.nextLong());
+        stateSeed = rand.nextLong();
+        compileTerrain();
+
+        coords = SphereCoordinates.forSize(size);
+        overview = null;
+        regionTables = null;
+    }
+
+
+    /**
+     * Compiles the elevation graph of the terrain style for the current seed, scale and octaves.
+     * The default style needs no plan: its elevation is generated by the analytic pass.
+     */
+    private void compileTerrain() {
+        terrainPlan = terrainStyle == TerrainStyle.CONTINENTS ? null : terrainStyle.compile(seed, worldScale, worldOctaves);
+    }
+
+
+    /**
+     * Returns whether this world is split into lazily generated tiles instead of being held in memory.
+     * @return True for a chunked world.
+     */
+    public boolean isChunked() {
+        return maxCachedTiles > 0;
+    }
+
+
+    /**
+     * Returns a downsampled view of the whole world that is at most `maxResolution` cells wide,
+     * for rendering overviews. Small in-memory worlds return their own layers.
+     * A chunked world evaluates only the sampled cells, without generating any tiles, and reuses
+     * the previous overview if it had exactly twice the stride.
+     * The overview is kept until the world changes; one built while the world was being changed on
+     * another thread is built again.
+     * @param maxResolution The maximum width and height of the view.
+     * @return The layers of the view; local cell (x, y) stands for world cell (x * stride, y * stride).
+     */
+    public WorldLayers overview(int maxResolution) {
+        int stride = (size + maxResolution - 1) / maxResolution;
+        if (!isChunked() && stride == 1) {
+            return layers;
+        }
+        int rev = revision;
+        Derived<WorldLayers> previous = overview;
+        if (previous != null && previous.revision() != rev) {
+            previous = null;
+        }
+        if (previous != null && previous.value().stride == stride) {
+            return previous.value();
+        }
+
+        int res = (size + stride - 1) / stride;
+        WorldLayers view = new WorldLayers(res, res, 0, 0, stride);
+        view.allocateSlope();
+        if (isChunked()) {
+            WorldLayers coarse = previous != null && previous.value().stride == 2 * stride ? previous.value() : null;
+            withPool(pool -> generateLayers(view, pool, coarse));
+        } else {
+            for (int y = 0; y < res; y++) {
+                for (int x = 0; x < res; x++) {
+                    int from = layers.index(x * stride, y * stride);
+                    int to = view.index(x, y);
+                    view.setElevation(to, layers.elevation(from));
+                    view.setTemperature(to, layers.temperature(from));
+                    view.setHumidity(to, layers.humidity(from));
+                    view.setSlope(to, layers.slopeX(from), layers.slopeY(from));
+                    view.setBiome(to, layers.biome(from));
+                    if (layers.hasStates()) {
+                        view.setStateID(to, layers.stateID(from));
+                    }
+                }
+            }
+        }
+        overview = new Derived<>(view, rev);
+        return view;
+    }
 
-                    altitudeMod = (elevation[x][y] - seaLevel) * (1.0 / (1.0 - seaLevel)) * 8000 * -0.0065;
+
+    /**
+     * Returns a window of the world sampled every `stride` cells, e.g. for one tile of a zoomed map.
+     * Columns wrap around the horizontal seam and rows outside the world repeat its first or last row.
+     * A chunked world evaluates only the sampled cells, like {@link #overview}.
+     * @param originX The x-coordinate of the world cell at local cell (0, 0); may be negative.
+     * @param originY The y-coordinate of the world cell at local cell (0, 0); may be negative.
+     * @param width The number of columns of the window.
+     * @param height The number of rows of the window.
+     * @param stride The distance in world cells between neighboring cells of the window.
+     * @return The layers of the window; local cell (x, y) stands for world cell
+     *         (originX + x * stride, originY + y * stride).
+     */
+    WorldLayers window(int originX, int originY, int width, int height, int stride) {
+        WorldLayers view = new WorldLayers(width, height, originX, originY, stride);
+        if (isChunked()) {
+            generateLayers(view, null, null);
+            return view;
+        }
+        WorldLayers source = layers;
+        view.allocateSlope();
+        for (int y = 0; y < height; y++) {
+            int worldY = Math.max(0, Math.min(size - 1, originY + y * stride));
+            for (int x = 0; x < width; x++) {
+                int from = source.index(Math.floorMod(originX + x * stride, size), worldY);
+                int to = view.index(x, y);
+                view.setElevation(to, source.elevation(from));
+                view.setTemperature(to, source.temperature(from));
+                view.setHumidity(to, source.humidity(from));
+                view.setSlope(to, source.slopeX(from), source.slopeY(from));
+                view.setBiome(to, source.biome(from));
+                if (source.hasStates()) {
+                    view.setStateID(to, source.stateID(from));
                 }
+            }
+        }
+        return view;
+    }
+
 
+    /**
+     * Sets the seed that the noise sources and the state capitals and colors are derived from.
+     * Generating twice with the same seed and parameters produces the same world.
+     * @param seed The world seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+
+    /**
+     * Sets an on-disk cache to load this world from, if it was generated before with the same
+     * seed and parameters, and to store it in after generating. Chunked worlds are never cached.
+     * @param diskCache The cache to use, or null to always generate.
+     */
+    public void setDiskCache(WorldCache diskCache) {
+        this.diskCache = diskCache;
+    }
 
-                double noise = tempNoise.noise(
-                        x_coord * baseFrequency,
-                        y_coord * baseFrequency,
-                        z_coord * baseFrequency
-                ) * 10;
 
-                temperature[x][y] = baseTemp + altitudeMod + noise;
+    /**
+     * Changes the sea level of an already generated world.
+     * The raw noise fields are kept, so only the layers that depend on the sea level are recomputed:
+     * temperature (altitude term), humidity (ocean cells), biomes and, if present, states.
+     * Tiles and overviews of a chunked world keep no noise and sample it again.
+     * @param seaLevel The new sea level threshold (0.0 to 1.0).
+     */
+    public void setSeaLevel(double seaLevel) {
+        this.seaLevel = seaLevel;
+        if (coords == null) {
+            return; // Not generated yet
+        }
+
+        if (isChunked()) {
+            if (tiles != null) {
+                tiles.forEachTile(tile -> deriveLayers(tile, null, true, null));
+            }
+            Derived<WorldLayers> view = overview;
+            if (view != null && view.revision() == revision) {
+                withPool(pool -> deriveLayers(view.value(), pool, true, null));
+                overview = new Derived<>(view.value(), revision + 1);
             }
+            revision++;
+            return;
         }
 
+        withPool(pool -> deriveLayers(layers, pool, false, null));
+        overview = null;
+        regionTables = null;
+        if (stateColors != null) {
+            runStateGeneration(stateColors.length - 1);
+        }
+        revision++;
+    }
 
-        baseFrequency = 0.8;
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
 
-                double nx_map = x / (double) size;
-                double ny_map = y / (double) size;
-                double lon = nx_map * 2 * Math.PI;
-                double lat = ny_map * Math.PI - (Math.PI / 2.0);
-                double x_coord = Math.cos(lat) * Math.cos(lon);
-                double y_coord = Math.cos(lat) * Math.sin(lon);
-                double z_coord = Math.sin(lat);
+    /**
+     * Changes the number of elevation octaves of an already generated world.
+     * Octaves evaluated before are taken from the per-octave cache; the climate noise is kept,
+     * so the remaining layers are only re-derived from the new elevation.
+     * @param worldOctaves The new number of octaves (at least 1).
+     */
+    public void setWorldOctaves(int worldOctaves) {
+        this.worldOctaves = Math.max(1, worldOctaves);
+        if (coords == null) {
+            return; // Not generated yet
+        }
+        compileTerrain();
 
-                if (elevation[x][y] < seaLevel) {
-                    humidity[x][y] = 1.0;
-                } else {
+        if (isChunked()) {
+            generate(false, 0);
+            return;
+        }
 
+        withPool(pool -> {
+            generateElevation(layers, pool, null);
+            deriveLayers(layers, pool, false, null);
+        });
+        overview = null;
+        regionTables = null;
+        if (stateColors != null) {
+            runStateGeneration(stateColors.length - 1);
+        }
+        revision++;
+    }
 
-                    double baseHumidity = (humidNoise.noise(
-                            x_coord * baseFrequency,
-                            y_coord * baseFrequency,
-                            z_coord * baseFrequency
-                    ) + 1) / 2.0;
 
-                    double tempMod = (temperature[x][y] + 30) / 70.0; // 0-1
+    /**
+     * Sets the terrain style the elevation is generated with; takes effect at the next generation.
+     * @param terrainStyle The terrain style.
+     */
+    public void setTerrainStyle(TerrainStyle terrainStyle) {
+        this.terrainStyle = terrainStyle;
+        if (coords != null) {
+            compileTerrain();
+        }
+    }
 
-                    humidity[x][y] = Math.max(0, Math.min(1, baseHumidity * tempMod));
-                }
+
+    /**
+     * Sets how many worker threads the generation passes may use.
+     * A value of 1 (or less) runs every pass sequentially on the calling thread.
+     * The output is identical either way, since every cell only depends on its own coordinates.
+     * @param parallelism The number of worker threads to use for generation.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+
+    /**
+     * Sets whether the generation passes read sphere coordinates from fused per-cell tables
+     * (built once per world size, for grids that are small enough) or from the separable
+     * per-row and per-column trig tables.
+     * @param fusedCoordinates Whether to use the fused coordinate tables when available.
+     */
+    public void setFusedCoordinates(boolean fusedCoordinates) {
+        this.fusedCoordinates = fusedCoordinates;
+    }
+
+
+    /**
+     * Runs every generation pass over the given layers, in dependency order.
+     * @param target The layers to fill, either the whole world or a window of it.
+     * @param pool The pool to run row bands on, or null to run sequentially.
+     * @param coarse Layers whose cell (x, y) equals target cell (2x, 2y) and is copied instead of sampled, or null.
+     */
+    private void generateLayers(WorldLayers target, ForkJoinPool pool, WorldLayers coarse) {
+        generateElevation(target, pool, coarse);
+        deriveLayers(target, pool, true, coarse);
+    }
+
+
+    /**
+     * Runs the elevation pass over the given layers.
+     * For the full in-memory world the per-octave sums are shared through {@link ElevationOctaveCache},
+     * so only octaves that were not evaluated before for this seed, size and scale cost noise calls.
+     * A refined stage copies the sums of its even cells from the cache of the coarser stage; if that
+     * cache lacks octaves, e.g. because the coarser stage was loaded from disk, every cell is sampled
+     * instead, so the cache of the world always ends up complete.
+     * Other terrain styles evaluate their compiled plan instead and are not cached.
+     * Allocates the slope layers of the target, which every generated store holds.
+     * @param target The layers to fill.
+     * @param pool The pool to run row bands on, or null to run sequentially.
+     * @param coarse Layers whose cell (x, y) equals target cell (2x, 2y) and is copied instead of sampled, or null.
+     */
+    private void generateElevation(WorldLayers target, ForkJoinPool pool, WorldLayers coarse) {
+        beginPhase(GenerationProgress.Phase.ELEVATION, target.height);
+        Metrics.Span span = beginSpan(GenerationProgress.Phase.ELEVATION, target);
+        target.allocateSlope();
+        NoiseGraph.Plan plan = terrainPlan;
+        if (plan != null) {
+            forEachRowBand(pool, target.height, (yStart, yEnd) -> generateStyledElevationRows(target, yStart, yEnd, plan, coarse));
+        } else if (target != layers) {
+            forEachRowBand(pool, target.height, (yStart, yEnd) -> generateElevationRows(target, yStart, yEnd, null, 0, coarse, null));
+        } else {
+            ElevationOctaveCache cache = ElevationOctaveCache.forWorld(seed, size, worldScale);
+            int cachedOctaves = cache.cachedOctaves();
+            double[][] octaveSums = cache.prepare(worldOctaves);
+            int filled = cachedOctaves;
+            while (filled < octaveSums.length && octaveSums[filled] != null) {
+                filled++;
+            }
+            double[][] coarseSums = null;
+            WorldLayers reuse = coarse;
+            if (coarse != null && filled > cachedOctaves) {
+                ElevationOctaveCache coarseCache = ElevationOctaveCache.find(seed, coarse.width, worldScale);
+                coarseSums = coarseCache == null ? null : coarseCache.cached(filled);
+                reuse = coarseSums == null ? null : coarse;
             }
+            WorldLayers copied = reuse;
+            double[][] copiedSums = coarseSums;
+            forEachRowBand(pool, target.height, (yStart, yEnd) ->
+                    generateElevationRows(target, yStart, yEnd, octaveSums, cachedOctaves, copied, copiedSums));
+            cache.commit(octaveSums);
         }
+        span.end();
+    }
 
 
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-                biomes[x][y] = determineBiome(elevation[x][y], temperature[x][y], humidity[x][y]);
+    /**
+     * Runs a single generation phase over the whole in-memory world again, so it can be timed on its own.
+     * Elevation is evaluated in full, without the per-octave cache; the other phases read the layers
+     * produced by the phases before them, so the world must have been generated first.
+     * @param phase The phase to run; {@link GenerationProgress.Phase#RENDER} is not a phase of the world.
+     * @param numStates The number of states to generate for {@link GenerationProgress.Phase#STATES}.
+     * @throws IllegalArgumentException If the phase is not a world phase.
+     */
+    void runPhase(GenerationProgress.Phase phase, int numStates) {
+        if (phase == GenerationProgress.Phase.STATES) {
+            runStateGeneration(numStates);
+            return;
+        }
+        NoiseGraph.Plan plan = terrainPlan;
+        withPool(pool -> {
+            switch (phase) {
+                case ELEVATION -> forEachRowBand(pool, size, (yStart, yEnd) -> {
+                    if (plan != null) {
+                        generateStyledElevationRows(layers, yStart, yEnd, plan, null);
+                    } else {
+                        generateElevationRows(layers, yStart, yEnd, null, 0, null, null);
+                    }
+                });
+                case TEMPERATURE -> forEachRowBand(pool, size, (yStart, yEnd) -> generateTemperatureRows(layers, yStart, yEnd, true, null));
+                case HUMIDITY -> forEachRowBand(pool, size, (yStart, yEnd) -> generateHumidityRows(layers, yStart, yEnd, true, null));
+                case BIOMES -> forEachRowBand(pool, size, (yStart, yEnd) -> generateBiomeRows(layers, yStart, yEnd));
+                default -> throw new IllegalArgumentException("Not a world generation phase: " + phase);
             }
+        });
+    }
+
+
+    /**
+     * Runs the climate and biome passes over the given layers.
+     * Elevation must already be generated. Only the whole in-memory world stores the sampled noise,
+     * since it is the only store that is derived again without sampling or written to a file.
+     * @param target The layers to fill.
+     * @param pool The pool to run row bands on, or null to run sequentially.
+     * @param sampleNoise Whether to sample the raw climate noise, or reuse the noise already stored in the target.
+     * @param coarse Layers whose cell (x, y) equals target cell (2x, 2y), to copy noise from when sampling, or null.
+     */
+    private void deriveLayers(WorldLayers target, ForkJoinPool pool, boolean sampleNoise, WorldLayers coarse) {
+        if (target == layers) {
+            target.allocateClimateNoise();
         }
+        beginPhase(GenerationProgress.Phase.TEMPERATURE, target.height);
+        Metrics.Span span = beginSpan(GenerationProgress.Phase.TEMPERATURE, target);
+        forEachRowBand(pool, target.height, (yStart, yEnd) -> generateTemperatureRows(target, yStart, yEnd, sampleNoise, coarse));
+        span.end();
+        beginPhase(GenerationProgress.Phase.HUMIDITY, target.height);
+        span = beginSpan(GenerationProgress.Phase.HUMIDITY, target);
+        forEachRowBand(pool, target.height, (yStart, yEnd) -> generateHumidityRows(target, yStart, yEnd, sampleNoise, coarse));
+        span.end();
+        beginPhase(GenerationProgress.Phase.BIOMES, target.height);
+        span = beginSpan(GenerationProgress.Phase.BIOMES, target);
+        forEachRowBand(pool, target.height, (yStart, yEnd) -> generateBiomeRows(target, yStart, yEnd));
+        span.end();
+    }
 
 
+    /**
+     * Starts measuring a generation phase over the given layers.
+     * @param phase The phase that starts.
+     * @param target The layers the phase fills: the whole world, or a tile, overview or window of it.
+     * @return The span, to be ended when the phase completes.
+     */
+    private Metrics.Span beginSpan(GenerationProgress.Phase phase, WorldLayers target) {
+        return Metrics.global().begin(phase.toString(), target == layers ? "World" : "Window",
+                (long) target.width * target.height);
+    }
 
-        if (generateStates) {
-            runStateGeneration(numStates);
-        } else {
 
-            this.stateID = new int[size][size];
-            this.stateColors = null;
-            this.stateNames = null;
+    /**
+     * Runs work that needs a generation pool, creating the pool for the duration of the call.
+     * @param work The work to run; receives null if generation is sequential.
+     */
+    private void withPool(Consumer<ForkJoinPool> work) {
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            work.accept(pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
         }
+    }
+
 
+    /**
+     * Starts a phase of the attached progress, if any.
+     * @param phase The phase that starts.
+     * @param total The number of rows (or cells) the phase covers.
+     */
+    private void beginPhase(GenerationProgress.Phase phase, int total) {
+        GenerationProgress progress = this.progress;
+        if (progress != null) {
+            progress.checkCancelled();
+            progress.begin(phase, total);
+        }
     }
 
 
     /**
-     * Runs the state generation algorithm using a modified Dijkstra's algorithm.
-     * Assigns state ownership to each cell in the world grid.
-     * @param numStates The number of states to generate.
+     * Runs a row pass over `rows` rows, either directly or split into row bands on the given pool.
+     * With progress attached, every band checks for cancellation first and reports its rows when done;
+     * sequential passes are then split into bands too, in row order.
+     * @param pool The pool to run the bands on, or null to run the pass sequentially.
+     * @param rows The number of rows to cover.
+     * @param pass The pass to run for each band.
      */
-    private void runStateGeneration(int numStates) {
+    private void forEachRowBand(ForkJoinPool pool, int rows, RowPass pass) {
+        GenerationProgress progress = this.progress;
+        RowPass band = pass;
+        if (progress != null) {
+            band = (yStart, yEnd) -> {
+                progress.checkCancelled();
+                pass.run(yStart, yEnd);
+                progress.advance(yEnd - yStart);
+            };
+        }
+        if (pool == null) {
+            if (progress == null) {
+                pass.run(0, rows);
+                return;
+            }
+            int grain = Math.max(MIN_ROWS_PER_BAND, rows / PROGRESS_STEPS);
+            for (int yStart = 0; yStart < rows; yStart += grain) {
+                band.run(yStart, Math.min(rows, yStart + grain));
+            }
+            return;
+        }
+        int grain = Math.max(MIN_ROWS_PER_BAND, rows / (parallelism * BANDS_PER_THREAD));
+        pool.invoke(new RowBandTask(band, 0, rows, grain));
+    }
 
-        Random rand = new Random();
 
-        this.stateID = new int[size][size];
-        this.stateColors = new Color[numStates + 1];
-        this.stateColors[0] = Color.TRANSPARENT;
+    /**
+     * Calculates fractal elevation noise and its slope for the local rows in [yStart, yEnd) of the target.
+     * Each octave is sampled with its analytic gradient, which is projected onto the directions of
+     * increasing x and y on the sphere and accumulated like the elevation itself.
+     * With per-octave sums, octaves below `cachedOctaves` are read from the sums instead of
+     * being evaluated, and the running sums of every other octave are written into its array.
+     * @param target The layers to fill.
+     * @param yStart The first row to generate (inclusive).
+     * @param yEnd The last row to generate (exclusive).
+     * @param octaveSums Per-octave running sums, {@link ElevationOctaveCache#VALUES_PER_CELL} per cell of the target,
+     *                   or null to evaluate every octave.
+     * @param cachedOctaves The number of leading octaves already filled in `octaveSums`.
+     * @param coarse Layers whose cell (x, y) equals target cell (2x, 2y) and is copied instead of sampled, or null.
+     * @param coarseSums The per-octave running sums of the coarse layers, to copy into `octaveSums` for the
+     *                   copied cells, or null if `octaveSums` needs none of them.
+     */
+    private void generateElevationRows(WorldLayers target, int yStart, int yEnd, double[][] octaveSums, int cachedOctaves,
+                                       WorldLayers coarse, double[][] coarseSums) {
+        double baseFrequency = this.worldScale;
+        int octaves = this.worldOctaves;
+        int firstOctave = octaveSums == null ? 0 : Math.min(cachedOctaves, octaves);
+        int perCell = ElevationOctaveCache.VALUES_PER_CELL;
+
+        double[] amplitudes = new double[octaves];
+        double[] frequencies = new double[octaves];
+        double amplitude = 1.0;
+        double maxValue = 0;
+        for (int i = 0; i < octaves; i++) {
+            amplitudes[i] = amplitude;
+            frequencies[i] = Math.pow(2, i) * baseFrequency;
+            maxValue += amplitude;
+            amplitude *= 0.5;
+        }
+        // d/dp of (sum / maxValue + 1) / 2
+        double slopeScale = 0.5 / maxValue;
+
+        int width = target.width;
+        double[] xs = new double[width];
+        double[] ys = new double[width];
+        double[] zs = new double[width];
+        double[] noise = new double[width];
+        double[] gradX = new double[width];
+        double[] gradY = new double[width];
+        double[] gradZ = new double[width];
+        double[] sinLon = new double[width];
+        double[] cosLon = new double[width];
+        double[] sums = new double[width];
+        double[] slopeXs = new double[width];
+        double[] slopeYs = new double[width];
+        for (int ty = yStart; ty < yEnd; ty++) {
+            int row = ty * width;
+            boolean reuseRow = coarse != null && (ty & 1) == 0;
+            if (reuseRow) {
+                for (int x = 0; x < width; x += 2) {
+                    int c = coarse.index(x >> 1, ty >> 1);
+                    target.setElevation(row + x, coarse.elevation(c));
+                    target.setSlope(row + x, coarse.slopeX(c), coarse.slopeY(c));
+                    for (int i = firstOctave; coarseSums != null && i < octaves && octaveSums[i] != null; i++) {
+                        System.arraycopy(coarseSums[i], perCell * c, octaveSums[i], perCell * (row + x), perCell);
+                    }
+                }
+            }
+            int count = sampledColumns(width, reuseRow);
+            if (firstOctave < octaves) {
+                fillSampledRow(target, ty, reuseRow, xs, ys, zs);
+            }
+
+            // Unit vectors of increasing x (east) and increasing y (latitude) at each sampled cell
+            int worldY = target.originY + ty * target.stride;
+            double sinLat = coords.sinLat[worldY];
+            double cosLat = coords.cosLat[worldY];
+            for (int k = 0; k < count; k++) {
+                int worldX = target.originX + sampledColumn(k, reuseRow) * target.stride;
+                sinLon[k] = coords.sinLon[worldX];
+                cosLon[k] = coords.cosLon[worldX];
+            }
+
+            // Octave by octave over the whole row, so each octave is sampled as one batch
+            for (int k = 0; k < count; k++) {
+                if (firstOctave > 0) {
+                    int cell = perCell * (row + sampledColumn(k, reuseRow));
+                    double[] cached = octaveSums[firstOctave - 1];
+                    sums[k] = cached[cell];
+                    slopeXs[k] = cached[cell + 1];
+                    slopeYs[k] = cached[cell + 2];
+                } else {
+                    sums[k] = 0;
+                    slopeXs[k] = 0;
+                    slopeYs[k] = 0;
+                }
+            }
+            for (int i = firstOctave; i < octaves; i++) {
+                elevationNoise.noise(xs, ys, zs, frequencies[i], noise, gradX, gradY, gradZ, count);
+                double octaveAmplitude = amplitudes[i];
+                for (int k = 0; k < count; k++) {
+                    sums[k] += octaveAmplitude * noise[k];
+                    double alongX = cosLon[k] * gradY[k] - sinLon[k] * gradX[k];
+                    double alongY = cosLat * gradZ[k] - sinLat * (cosLon[k] * gradX[k] + sinLon[k] * gradY[k]);
+                    slopeXs[k] += octaveAmplitude * alongX;
+                    slopeYs[k] += octaveAmplitude * alongY;
+                }
+                if (octaveSums != null && octaveSums[i] != null) {
+                    double[] cached = octaveSums[i];
+                    for (int k = 0; k < count; k++) {
+                        int cell = perCell * (row + sampledColumn(k, reuseRow));
+                        cached[cell] = sums[k];
+                        cached[cell + 1] = slopeXs[k];
+                        cached[cell + 2] = slopeYs[k];
+                    }
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                int cell = row + sampledColumn(k, reuseRow);
+                target.setElevation(cell, (sums[k] / maxValue + 1) / 2);
+                target.setSlope(cell, slopeXs[k] * slopeScale, slopeYs[k] * slopeScale);
+            }
+        }
+    }
+
 
-        double[][] totalCost = new double[size][size];
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-                totalCost[y][x] = Double.MAX_VALUE;
+    /**
+     * Calculates the elevation of a terrain style plan and its slope for the local rows in [yStart, yEnd).
+     * The slope is a forward difference: each row is evaluated as one batch of the sampled cells followed
+     * by the same cells moved a small step east and a small step north along the sphere.
+     * @param target The layers to fill.
+     * @param yStart The first row to generate (inclusive).
+     * @param yEnd The last row to generate (exclusive).
+     * @param plan The compiled elevation of the terrain style.
+     * @param coarse Layers whose cell (x, y) equals target cell (2x, 2y) and is copied instead of sampled, or null.
+     */
+    private void generateStyledElevationRows(WorldLayers target, int yStart, int yEnd, NoiseGraph.Plan plan,
+                                             WorldLayers coarse) {
+        int width = target.width;
+        double[] xs = new double[3 * width];
+        double[] ys = new double[3 * width];
+        double[] zs = new double[3 * width];
+        NoiseGraph.Evaluator evaluator = plan.evaluator(3 * width);
+        for (int ty = yStart; ty < yEnd; ty++) {
+            int row = ty * width;
+            boolean reuseRow = coarse != null && (ty & 1) == 0;
+            if (reuseRow) {
+                for (int x = 0; x < width; x += 2) {
+                    int c = coarse.index(x >> 1, ty >> 1);
+                    target.setElevation(row + x, coarse.elevation(c));
+                    target.setSlope(row + x, coarse.slopeX(c), coarse.slopeY(c));
+                }
+            }
+            int count = sampledColumns(width, reuseRow);
+            fillSampledRow(target, ty, reuseRow, xs, ys, zs);
+
+            int worldY = target.originY + ty * target.stride;
+            double sinLat = coords.sinLat[worldY];
+            double cosLat = coords.cosLat[worldY];
+            for (int k = 0; k < count; k++) {
+                int worldX = target.originX + sampledColumn(k, reuseRow) * target.stride;
+                double sinLon = coords.sinLon[worldX];
+                double cosLon = coords.cosLon[worldX];
+                int east = count + k;
+                int north = 2 * count + k;
+                xs[east] = xs[k] - SLOPE_STEP * sinLon;
+                ys[east] = ys[k] + SLOPE_STEP * cosLon;
+                zs[east] = zs[k];
+                xs[north] = xs[k] - SLOPE_STEP * sinLat * cosLon;
+                ys[north] = ys[k] - SLOPE_STEP * sinLat * sinLon;
+                zs[north] = zs[k] + SLOPE_STEP * cosLat;
+            }
+            evaluator.evaluate(xs, ys, zs, 3 * count);
+            double[] elevation = evaluator.output(0);
+            for (int k = 0; k < count; k++) {
+                int cell = row + sampledColumn(k, reuseRow);
+                target.setElevation(cell, elevation[k]);
+                target.setSlope(cell, (elevation[count + k] - elevation[k]) / SLOPE_STEP,
+                        (elevation[2 * count + k] - elevation[k]) / SLOPE_STEP);
             }
         }
+    }
 
-        PriorityQueue<StateCell> queue = new PriorityQueue<>();
+
+    /**
+     * Returns the number of cells of a local row that are sampled rather than copied from coarse layers.
+     * @param width The number of cells per row.
+     * @param reuseRow Whether the even cells of the row are copied.
+     * @return The number of sampled cells.
+     */
+    private static int sampledColumns(int width, boolean reuseRow) {
+        return reuseRow ? width / 2 : width;
+    }
 
 
+    /**
+     * Returns the column of the k-th sampled cell of a local row.
+     * @param k The index of the sampled cell.
+     * @param reuseRow Whether the even cells of the row are copied, so only the odd ones are sampled.
+     * @return The local column.
+     */
+    private static int sampledColumn(int k, boolean reuseRow) {
+        return reuseRow ? 2 * k + 1 : k;
+    }
+
+
+    /**
+     * Writes the sphere coordinates of the sampled cells of a local row, packed without gaps,
+     * so the noise of the row can be evaluated as one batch.
+     * @param target The layers being filled.
+     * @param ty The local row.
+     * @param reuseRow Whether the even cells of the row are copied, so only the odd ones are sampled.
+     * @param xs Receives the x coordinate of each sampled cell.
+     * @param ys Receives the y coordinate of each sampled cell.
+     * @param zs Receives the z coordinate of each sampled cell.
+     */
+    private void fillSampledRow(WorldLayers target, int ty, boolean reuseRow, double[] xs, double[] ys, double[] zs) {
+        int first = sampledColumn(0, reuseRow);
+        int step = reuseRow ? 2 : 1;
+        coords.fillRow(target.originY + ty * target.stride, target.originX + first * target.stride,
+                step * target.stride, sampledColumns(target.width, reuseRow), xs, ys, zs);
+    }
+
+
+    /**
+     * Calculates temperature from latitude, altitude and noise for the local rows in [yStart, yEnd).
+     * Requires the elevation of these rows to be generated.
+     * @param target The layers to fill.
+     * @param yStart The first row to generate (inclusive).
+     * @param yEnd The last row to generate (exclusive).
+     * @param sampleNoise Whether to sample the temperature noise, or reuse the stored noise.
+     * @param coarse Layers whose cell (x, y) equals target cell (2x, 2y), to copy stored noise from when sampling, or null.
+     */
+    private void generateTemperatureRows(WorldLayers target, int yStart, int yEnd, boolean sampleNoise, WorldLayers coarse) {
+        double baseFrequency = 0.5;
+        int width = target.width;
+        double[] xs = new double[width];
+        double[] ys = new double[width];
+        double[] zs = new double[width];
+        double[] sampled = new double[width];
+        double[] rowNoise = new double[width];
+        for (int ty = yStart; ty < yEnd; ty++) {
+            int y = target.originY + ty * target.stride;
+            int row = ty * width;
+            if (sampleNoise) {
+                boolean reuseRow = coarse != null && coarse.hasClimateNoise() && (ty & 1) == 0;
+                if (reuseRow) {
+                    for (int x = 0; x < width; x += 2) {
+                        rowNoise[x] = coarse.temperatureNoise(coarse.index(x >> 1, ty >> 1));
+                    }
+                }
+                fillSampledRow(target, ty, reuseRow, xs, ys, zs);
+                int count = sampledColumns(width, reuseRow);
+                tempNoise.noise(xs, ys, zs, baseFrequency, sampled, count);
+                for (int k = 0; k < count; k++) {
+                    // Rounded as the stored noise is, so stores with and without noise agree
+                    rowNoise[sampledColumn(k, reuseRow)] = (float) sampled[k];
+                }
+                if (target.hasClimateNoise()) {
+                    for (int x = 0; x < width; x++) {
+                        target.setTemperatureNoise(row + x, rowNoise[x]);
+                    }
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    rowNoise[x] = target.temperatureNoise(row + x);
+                }
+            }
+
+            double lat_normalized = Math.abs(y / (double) size - 0.5) * 2;
+            double baseTemp = 30 - lat_normalized * 60;
+
+            for (int x = 0; x < width; x++) {
+                double elev = target.elevation(row + x);
+                double altitudeMod = 0;
+                if (elev > seaLevel) {
+
+                    altitudeMod = (elev - seaLevel) * (1.0 / (1.0 - seaLevel)) * 8000 * -0.0065;
+                }
+
+                double noise = rowNoise[x] * 10;
+
+                target.setTemperature(row + x, baseTemp + altitudeMod + noise);
+            }
+        }
+    }
+
+
+    /**
+     * Calculates humidity for the local rows in [yStart, yEnd) of the target.
+     * Requires the elevation and temperature of these rows to be generated.
+     * @param target The layers to fill.
+     * @param yStart The first row to generate (inclusive).
+     * @param yEnd The last row to generate (exclusive).
+     * @param sampleNoise Whether to sample the humidity noise, or reuse the stored noise.
+     * @param coarse Layers whose cell (x, y) equals target cell (2x, 2y), to copy stored noise from when sampling, or null.
+     */
+    private void generateHumidityRows(WorldLayers target, int yStart, int yEnd, boolean sampleNoise, WorldLayers coarse) {
+        double baseFrequency = 0.8;
+        int width = target.width;
+        double[] xs = new double[width];
+        double[] ys = new double[width];
+        double[] zs = new double[width];
+        double[] sampled = new double[width];
+        double[] rowNoise = new double[width];
+        for (int ty = yStart; ty < yEnd; ty++) {
+            int row = ty * width;
+            if (sampleNoise) {
+                // Sampled for ocean cells too, so a later sea level change can turn them into land.
+                boolean reuseRow = coarse != null && coarse.hasClimateNoise() && (ty & 1) == 0;
+                if (reuseRow) {
+                    for (int x = 0; x < width; x += 2) {
+                        rowNoise[x] = coarse.humidityNoise(coarse.index(x >> 1, ty >> 1));
+                    }
+                }
+                fillSampledRow(target, ty, reuseRow, xs, ys, zs);
+                int count = sampledColumns(width, reuseRow);
+                humidNoise.noise(xs, ys, zs, baseFrequency, sampled, count);
+                for (int k = 0; k < count; k++) {
+                    rowNoise[sampledColumn(k, reuseRow)] = (float) sampled[k];
+                }
+                if (target.hasClimateNoise()) {
+                    for (int x = 0; x < width; x++) {
+                        target.setHumidityNoise(row + x, rowNoise[x]);
+                    }
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    rowNoise[x] = target.humidityNoise(row + x);
+                }
+            }
+
+            for (int x = 0; x < width; x++) {
+                if (target.elevation(row + x) < seaLevel) {
+                    target.setHumidity(row + x, 1.0);
+                } else {
+                    double baseHumidity = (rowNoise[x] + 1) / 2.0;
+
+                    double tempMod = (target.temperature(row + x) + 30) / 70.0; // 0-1
+
+                    target.setHumidity(row + x, Math.max(0, Math.min(1, baseHumidity * tempMod)));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Assigns biomes for the local rows in [yStart, yEnd) from the already generated climate layers.
+     * @param target The layers to fill.
+     * @param yStart The first row to classify (inclusive).
+     * @param yEnd The last row to classify (exclusive).
+     */
+    private void generateBiomeRows(WorldLayers target, int yStart, int yEnd) {
+        for (int i = yStart * target.width; i < yEnd * target.width; i++) {
+            target.setBiome(i, determineBiome(target.elevation(i), target.temperature(i), target.humidity(i)));
+        }
+    }
+
+
+    /**
+     * Runs the state generation algorithm: places a capital for each state on a random land cell,
+     * then grows the states outwards from their capitals with {@link StateGrowth}, in parallel if
+     * generation uses more than one thread. The ownership is the same either way.
+     * Assigns state ownership to each cell in the world grid.
+     * @param numStates The number of states to generate.
+     */
+    private void runStateGeneration(int numStates) {
+
+        if (numStates > WorldLayers.MAX_STATE_ID) {
+            throw new IllegalArgumentException("Too many states: " + numStates);
+        }
+        beginPhase(GenerationProgress.Phase.STATES, size * size);
+        Metrics.Span span = Metrics.global().begin(GenerationProgress.Phase.STATES.toString(),
+                numStates + " states", (long) size * size);
+
+        Color[] colors = new Color[numStates + 1];
+        colors[0] = Color.TRANSPARENT;
+        int[] placed = placeCapitals(numStates, colors);
+        this.stateColors = colors;
+
+        GenerationProgress progress = this.progress;
+        StateGrowth growth = new StateGrowth(layers, seaLevel);
+        withPool(pool -> growth.grow(placed, progress, pool));
+        stateGrowth = growth;
+        capitals = growth.capitals();
+        statesChanged();
+        span.queue(growth.pushes(), growth.pops());
+        span.end();
+    }
+
+
+    /**
+     * Places a capital for each state on a random land cell, drawing from the state seed.
+     * @param numStates The number of states.
+     * @param colors The array to store the color of state i at index i in, or null to only place capitals.
+     * @return The cell index of the capital of state i + 1 at index i.
+     */
+    private int[] placeCapitals(int numStates, Color[] colors) {
+        Random rand = new Random(stateSeed);
+        int[] placed = new int[numStates];
         for (int i = 1; i <= numStates; i++) {
             int x, y;
             do {
                 x = rand.nextInt(size);
                 y = rand.nextInt(size);
-            } while (elevation[x][y] < seaLevel);
+            } while (getElevation(x, y) < seaLevel);
 
-            this.stateID[x][y] = i;
-            this.stateColors[i] = Color.rgb(rand.nextInt(200) + 55, rand.nextInt(200) + 55, rand.nextInt(200) + 55);
-            totalCost[x][y] = 0;
-            queue.add(new StateCell(x, y, i, 0));
+            placed[i - 1] = layers.index(x, y);
+            Color color = Color.rgb(rand.nextInt(200) + 55, rand.nextInt(200) + 55, rand.nextInt(200) + 55);
+            if (colors != null) {
+                colors[i] = color;
+            }
         }
+        return placed;
+    }
 
-        int[] dx = {0, 0, 1, -1};
-        int[] dy = {1, -1, 0, 0};
 
-        while (!queue.isEmpty()) {
-            StateCell current = queue.poll();
+    /**
+     * Founds a new state with its capital on a land cell. Only the cells the new state reaches more
+     * cheaply than their current owner are regrown. Its color and name are drawn from the state seed
+     * and its ID, so the same edits of the same world always found the same states.
+     * @param x The x-coordinate of the capital.
+     * @param y The y-coordinate of the capital.
+     * @param names The names to pick the name of the state from, or null to leave it unnamed.
+     * @return The ID of the new state.
+     * @throws IllegalStateException If the world has no states.
+     * @throws IllegalArgumentException If the cell is not land or there are too many states.
+     */
+    public int addCapital(int x, int y, String[] names) {
+        StateGrowth growth = stateGrowth();
+        int cell = landCell(x, y);
+        int id = editStates("Add", growth, () -> growth.addCapital(cell));
+
+        Random rand = new Random(stateSeed + id);
+        stateColors = Arrays.copyOf(stateColors, id + 1);
+        stateColors[id] = Color.rgb(rand.nextInt(200) + 55, rand.nextInt(200) + 55, rand.nextInt(200) + 55);
+        String name = names == null || names.length == 0 ? null : names[rand.nextInt(names.length)];
+        if (stateNames != null) {
+            stateNames = Arrays.copyOf(stateNames, Math.max(stateNames.length, id + 1));
+            stateNames[id] = name;
+        }
+        statesChanged();
+        return id;
+    }
 
-            if (current.cost > totalCost[current.x][current.y]) {
-                continue;
-            }
 
-            for (int i = 0; i < 4; i++) {
-                int nx = current.x + dx[i];
-                int ny = current.y + dy[i];
+    /**
+     * Moves the capital of a state to another land cell. Only the cells the state owned and the cells
+     * it now reaches more cheaply than their current owner are regrown.
+     * @param stateID The ID of the state.
+     * @param x The new x-coordinate of the capital.
+     * @param y The new y-coordinate of the capital.
+     * @throws IllegalStateException If the world has no states.
+     * @throws IllegalArgumentException If the state does not exist or the cell is not land.
+     */
+    public void moveCapital(int stateID, int x, int y) {
+        StateGrowth growth = stateGrowth();
+        int cell = landCell(x, y);
+        int state = existingState(growth, stateID);
+        editStates("Move", growth, () -> {
+            growth.moveCapital(state, cell);
+            return state;
+        });
+        statesChanged();
+    }
 
 
-                if (ny < 0 || ny >= size) continue;
+    /**
+     * Removes the capital of a state and hands its cells to the neighboring states. Only the cells
+     * the state owned are regrown. The ID is not reused, so the IDs of other states do not change.
+     * @param stateID The ID of the state.
+     * @throws IllegalStateException If the world has no states.
+     * @throws IllegalArgumentException If the state does not exist.
+     */
+    public void removeCapital(int stateID) {
+        StateGrowth growth = stateGrowth();
+        int state = existingState(growth, stateID);
+        editStates("Remove", growth, () -> {
+            growth.removeCapital(state);
+            return state;
+        });
+        statesChanged();
+    }
 
 
-                nx = (nx + size) % size;
+    /**
+     * Runs an edit of the states, measured as a "State edit" phase with the cells it popped from the
+     * growth queue, and takes over the capitals afterwards.
+     * @param edit The kind of edit (e.g. "Add", "Move", "Remove").
+     * @param growth The state growth that is edited.
+     * @param change The edit; returns the ID of the state it changed.
+     * @return The ID returned by the edit.
+     */
+    private int editStates(String edit, StateGrowth growth, IntSupplier change) {
+        long pushes = growth.pushes();
+        long pops = growth.pops();
+        Metrics.Span span = Metrics.global().begin("State edit", edit, 0);
+        int id = change.getAsInt();
+        span.queue(growth.pushes() - pushes, growth.pops() - pops);
+        span.cells(growth.pops() - pops);
+        span.end();
+        capitals = growth.capitals();
+        return id;
+    }
 
 
-                double moveCost;
-                if (elevation[nx][ny] < seaLevel) {
+    /**
+     * Returns a number that changes whenever the layers or states of this world change, once the
+     * change is complete, so anything rendered from the world can be cached until then.
+     * @return The revision.
+     */
+    int revision() {
+        return revision;
+    }
 
-                    moveCost = 250.0;
-                } else if (elevation[nx][ny] > 0.75) {
-                    moveCost = 10.0;
-                } else {
-                    moveCost = 1.0;
-                }
 
+    /**
+     * Drops everything derived from the states: the overview and the topologies.
+     */
+    private void statesChanged() {
+        overview = null;
+        topology = null;
+        viewTopology = null;
+        revision++;
+    }
 
-                double newCost = current.cost + moveCost;
 
-                if (newCost < totalCost[nx][ny]) {
-                    totalCost[nx][ny] = newCost;
-                    this.stateID[nx][ny] = current.ownerID;
-                    queue.add(new StateCell(nx, ny, current.ownerID, newCost));
-                }
+    /**
+     * Returns the borders, neighbors and aggregates of the states of a view of this world.
+     * They are computed once per change of the states, for the whole world and for the last other
+     * view asked for (e.g. the overview that is rendered). Windows of the world are not cached.
+     * @param view The whole-world layers of this world, an overview or a window of them.
+     * @return The topology, or null if the world has no states.
+     */
+    StateTopology stateTopology(WorldLayers view) {
+        Color[] colors = stateColors;
+        if (colors == null || view == null || !view.hasStates()) {
+            return null;
+        }
+        int rev = revision;
+        Derived<WorldLayers> shown = overview;
+        if (view != layers && (shown == null || view != shown.value())) {
+            return new StateTopology(view, seaLevel, colors.length - 1);
+        }
+        Derived<StateTopology> cached = view == layers ? topology : viewTopology;
+        if (cached == null || cached.value().layers != view || cached.revision() != rev) {
+            cached = new Derived<>(new StateTopology(view, seaLevel, colors.length - 1), rev);
+            if (view == layers) {
+                topology = cached;
+            } else {
+                viewTopology = cached;
             }
         }
+        return cached.value();
+    }
+
+
+    /**
+     * Returns the topology of the states of the whole world.
+     * @return The topology.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    private StateTopology stateTopology() {
+        StateTopology cached = isChunked() ? null : stateTopology(layers);
+        if (cached == null) {
+            throw new IllegalStateException("The world has no states");
+        }
+        return cached;
+    }
+
+
+    /**
+     * Checks whether a cell lies on a state border, i.e. is an owned land cell next to the ocean or another state.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return True if the cell is on a border.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public boolean isStateBorder(int x, int y) {
+        return stateTopology().isBorder(layers.index(x, y));
+    }
+
+
+    /**
+     * Returns the number of cells owned by a state, land and sea.
+     * @param stateID The ID of the state.
+     * @return The number of cells.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public int getStateArea(int stateID) {
+        return stateTopology().area(stateID);
+    }
+
 
+    /**
+     * Returns the number of land cells owned by a state.
+     * @param stateID The ID of the state.
+     * @return The number of cells at or above sea level.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public int getStateLandCells(int stateID) {
+        return stateTopology().landCells(stateID);
+    }
 
 
+    /**
+     * Returns the number of mountain cells owned by a state.
+     * @param stateID The ID of the state.
+     * @return The number of cells of the mountain biome.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public int getStateMountainCells(int stateID) {
+        return stateTopology().mountainCells(stateID);
+    }
+
+
+    /**
+     * Returns the number of cells of a biome owned by a state.
+     * @param stateID The ID of the state.
+     * @param biome The biome.
+     * @return The number of cells.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public int getStateBiomeCells(int stateID, Biome biome) {
+        return stateTopology().biomeCells(stateID, biome);
+    }
+
+
+    /**
+     * Returns the bounding box of a state; see {@link StateTopology#bounds} for states crossing the seam.
+     * @param stateID The ID of the state.
+     * @return {minX, minY, maxX, maxY}, inclusive, or null if the state owns no cells.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public int[] getStateBounds(int stateID) {
+        return stateTopology().bounds(stateID);
+    }
+
+
+    /**
+     * Returns the states sharing a border with a state.
+     * @param stateID The ID of the state.
+     * @return The IDs of the neighboring states, in ascending order.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public int[] getNeighborStates(int stateID) {
+        return stateTopology().neighbors(stateID);
+    }
+
+
+    /**
+     * Returns the length of the border between two states.
+     * @param stateID One state ID.
+     * @param otherID The other state ID.
+     * @return The number of cell edges between the two states, 0 if they are not neighbors.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    public int getSharedBorderLength(int stateID, int otherID) {
+        return stateTopology().sharedBorder(stateID, otherID);
+    }
+
+
+    /**
+     * A rectangle of cells that may wrap around the seam at x = 0.
+     * @param x The first column.
+     * @param y The first row.
+     * @param width The number of columns (1 to the world size).
+     * @param height The number of rows.
+     */
+    private record Region(int x, int y, int width, int height) {
+
+        /**
+         * Returns the number of cells in the rectangle.
+         * @return The number of cells.
+         */
+        int cells() {
+            return width * height;
+        }
+    }
+
+
+    /**
+     * Returns the summed-area tables of the layers, building them on the pool the first time they are
+     * needed after the layers change. They cost 64 bytes per cell, so worlds that are never queried
+     * do not pay for them.
+     * @return The tables.
+     * @throws IllegalStateException If the world is chunked or not generated.
+     */
+    RegionTables regionTables() {
+        if (isChunked() || layers == null) {
+            throw new IllegalStateException("Region queries need a generated in-memory world");
+        }
+        RegionTables tables = regionTables;
+        if (tables == null || tables.layers != layers) {
+            RegionTables built = new RegionTables(layers);
+            withPool(pool -> {
+                forEachRowBand(pool, built.height, built::sumRows);
+                forEachRowBand(pool, built.width + 1, built::sumColumns);
+            });
+            regionTables = tables = built;
+        }
+        return tables;
+    }
+
+
+    /**
+     * Converts a latitude/longitude rectangle to the cells it covers.
+     * @param south The southern latitude in degrees (-90 to 90).
+     * @param west The western longitude in degrees (-180 to 180).
+     * @param north The northern latitude in degrees, at least south.
+     * @param east The eastern longitude in degrees; less than west for a rectangle crossing the antimeridian.
+     * @return The rectangle of cells, at least one cell wide and high.
+     * @throws IllegalArgumentException If a bound is out of range or south is north of north.
+     */
+    private Region region(double south, double west, double north, double east) {
+        if (south < -90 || north > 90 || south > north || west < -180 || west > 180 || east < -180 || east > 180) {
+            throw new IllegalArgumentException("Invalid region: " + south + ", " + west + " to " + north + ", " + east);
+        }
+        int x0 = (int) Math.floor((west + 180) / 360 * size);
+        int x1 = (int) Math.ceil((east + 180) / 360 * size);
+        int columns = west <= east ? x1 - x0 : x1 - x0 + size;
+        int y0 = Math.min(size - 1, (int) Math.floor((90 - north) / 180 * size));
+        int y1 = Math.max(y0 + 1, Math.min(size, (int) Math.ceil((90 - south) / 180 * size)));
+        return new Region(Math.floorMod(x0, size), y0, Math.max(1, Math.min(size, columns)), y1 - y0);
+    }
+
+
+    /**
+     * Returns the mean elevation over a latitude/longitude rectangle, in constant time.
+     * @param south The southern latitude in degrees (-90 to 90).
+     * @param west The western longitude in degrees (-180 to 180).
+     * @param north The northern latitude in degrees, at least south.
+     * @param east The eastern longitude in degrees; less than west for a rectangle crossing the antimeridian.
+     * @return The mean elevation (0.0 to 1.0) of the cells in the rectangle.
+     * @throws IllegalStateException If the world is chunked or not generated.
+     */
+    public double getMeanElevation(double south, double west, double north, double east) {
+        Region r = region(south, west, north, east);
+        return regionTables().elevationSum(r.x, r.y, r.width, r.height) / r.cells();
+    }
+
+
+    /**
+     * Returns the mean temperature over a latitude/longitude rectangle, in constant time.
+     * @param south The southern latitude in degrees (-90 to 90).
+     * @param west The western longitude in degrees (-180 to 180).
+     * @param north The northern latitude in degrees, at least south.
+     * @param east The eastern longitude in degrees; less than west for a rectangle crossing the antimeridian.
+     * @return The mean temperature in degrees Celsius of the cells in the rectangle.
+     * @throws IllegalStateException If the world is chunked or not generated.
+     */
+    public double getMeanTemperature(double south, double west, double north, double east) {
+        Region r = region(south, west, north, east);
+        return regionTables().temperatureSum(r.x, r.y, r.width, r.height) / r.cells();
+    }
+
+
+    /**
+     * Returns the mean humidity over a latitude/longitude rectangle, in constant time.
+     * @param south The southern latitude in degrees (-90 to 90).
+     * @param west The western longitude in degrees (-180 to 180).
+     * @param north The northern latitude in degrees, at least south.
+     * @param east The eastern longitude in degrees; less than west for a rectangle crossing the antimeridian.
+     * @return The mean humidity (0.0 to 1.0) of the cells in the rectangle.
+     * @throws IllegalStateException If the world is chunked or not generated.
+     */
+    public double getMeanHumidity(double south, double west, double north, double east) {
+        Region r = region(south, west, north, east);
+        return regionTables().humiditySum(r.x, r.y, r.width, r.height) / r.cells();
+    }
+
+
+    /**
+     * Returns the fraction of land over a latitude/longitude rectangle, in constant time.
+     * @param south The southern latitude in degrees (-90 to 90).
+     * @param west The western longitude in degrees (-180 to 180).
+     * @param north The northern latitude in degrees, at least south.
+     * @param east The eastern longitude in degrees; less than west for a rectangle crossing the antimeridian.
+     * @return The fraction (0.0 to 1.0) of the cells in the rectangle that are at or above sea level.
+     * @throws IllegalStateException If the world is chunked or not generated.
+     */
+    public double getLandFraction(double south, double west, double north, double east) {
+        Region r = region(south, west, north, east);
+        return 1.0 - (double) regionTables().biomeCount(Biome.OCEAN, r.x, r.y, r.width, r.height) / r.cells();
+    }
+
+
+    /**
+     * Returns the number of cells of a biome in a latitude/longitude rectangle, in constant time.
+     * @param biome The biome.
+     * @param south The southern latitude in degrees (-90 to 90).
+     * @param west The western longitude in degrees (-180 to 180).
+     * @param north The northern latitude in degrees, at least south.
+     * @param east The eastern longitude in degrees; less than west for a rectangle crossing the antimeridian.
+     * @return The number of cells of the biome in the rectangle.
+     * @throws IllegalStateException If the world is chunked or not generated.
+     */
+    public int getBiomeCount(Biome biome, double south, double west, double north, double east) {
+        Region r = region(south, west, north, east);
+        return regionTables().biomeCount(biome, r.x, r.y, r.width, r.height);
+    }
+
+
+    /**
+     * Returns the number of cells in a latitude/longitude rectangle, the denominator of its means.
+     * @param south The southern latitude in degrees (-90 to 90).
+     * @param west The western longitude in degrees (-180 to 180).
+     * @param north The northern latitude in degrees, at least south.
+     * @param east The eastern longitude in degrees; less than west for a rectangle crossing the antimeridian.
+     * @return The number of cells.
+     */
+    public int getRegionCellCount(double south, double west, double north, double east) {
+        return region(south, west, north, east).cells();
+    }
+
+
+    /**
+     * Returns the state growth of the current states, growing them again from their capitals if the
+     * states were loaded rather than grown. Capitals that were not stored are placed again from the
+     * state seed, which gives the capitals the states were generated from.
+     * @return The state growth.
+     * @throws IllegalStateException If the world is chunked or has no states.
+     */
+    private StateGrowth stateGrowth() {
+        if (isChunked() || stateColors == null || layers == null || !layers.hasStates()) {
+            throw new IllegalStateException("The world has no states to edit");
+        }
+        if (stateGrowth == null) {
+            int[] placed = capitals != null ? capitals : placeCapitals(stateColors.length - 1, null);
+            StateGrowth growth = new StateGrowth(layers, seaLevel);
+            withPool(pool -> growth.grow(placed, null, pool));
+            stateGrowth = growth;
+        }
+        return stateGrowth;
+    }
+
+
+    /**
+     * Checks that a state exists and still has its capital.
+     * @param growth The state growth.
+     * @param stateID The ID of the state.
+     * @return The ID of the state.
+     * @throws IllegalArgumentException If the state does not exist or was removed.
+     */
+    private static int existingState(StateGrowth growth, int stateID) {
+        int[] placed = growth.capitals();
+        if (stateID < 1 || stateID > placed.length || placed[stateID - 1] < 0) {
+            throw new IllegalArgumentException("No state with ID " + stateID);
+        }
+        return stateID;
+    }
+
+
+    /**
+     * Returns the index of a land cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The cell index.
+     * @throws IllegalArgumentException If the cell is outside the world or below sea level.
+     */
+    private int landCell(int x, int y) {
+        if (x < 0 || x >= size || y < 0 || y >= size || getElevation(x, y) < seaLevel) {
+            throw new IllegalArgumentException("Capitals must be on land: (" + x + ", " + y + ")");
+        }
+        return layers.index(x, y);
+    }
+
+
+    /**
+     * Returns the elevation of a cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The elevation value (0.0 to 1.0).
+     */
+    public double getElevation(int x, int y) {
+        WorldLayers cells = layersAt(x, y);
+        return cells.elevation(cells.worldIndex(x, y));
+    }
+
+
+    /**
+     * Returns the temperature of a cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The temperature in degrees Celsius.
+     */
+    public double getTemperature(int x, int y) {
+        WorldLayers cells = layersAt(x, y);
+        return cells.temperature(cells.worldIndex(x, y));
+    }
+
+
+    /**
+     * Returns the steepness of the terrain at a cell, from the gradient of the elevation.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The change of elevation (0.0 to 1.0 scale) per radian of arc along the steepest direction.
+     */
+    public double getSlope(int x, int y) {
+        WorldLayers cells = layersAt(x, y);
+        return cells.slope(cells.worldIndex(x, y));
+    }
+
+
+    /**
+     * Returns the humidity of a cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The humidity value (0.0 to 1.0).
+     */
+    public double getHumidity(int x, int y) {
+        WorldLayers cells = layersAt(x, y);
+        return cells.humidity(cells.worldIndex(x, y));
+    }
+
+
+    /**
+     * Returns the biome of a cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The biome type.
+     */
+    public Biome getBiome(int x, int y) {
+        WorldLayers cells = layersAt(x, y);
+        return cells.biome(cells.worldIndex(x, y));
+    }
+
+
+    /**
+     * Returns the state owning a cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The state ID, or 0 if the cell belongs to no state.
+     */
+    public int getStateID(int x, int y) {
+        WorldLayers cells = layersAt(x, y);
+        return cells.stateID(cells.worldIndex(x, y));
+    }
+
+
+    /**
+     * Returns the layers holding a cell: the whole world, or the (possibly freshly generated) tile.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The layers containing the cell.
+     */
+    private WorldLayers layersAt(int x, int y) {
+        return tiles != null ? tiles.tileAt(x, y) : layers;
     }
 
 
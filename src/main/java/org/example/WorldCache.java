@@ -0,0 +1,169 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of generated worlds, keyed by (seed, size, seaLevel, worldScale, worldOctaves, terrain style, numStates).
+ * Each entry is a {@link WorldFile} of an in-memory world, including its state colors. Once the total size
+ * of the cache exceeds `maxBytes`, the least recently used entries are deleted.
+ * Cache failures are reported and treated as misses; they never fail a generation.
+ */
+final class WorldCache {
+
+    private static final String SUFFIX = ".world";
+
+    private final Path directory;
+    private final long maxBytes;
+
+
+    /**
+     * Constructs a cache stored in the given directory.
+     * @param directory The directory holding the cache entries; created on first store.
+     * @param maxBytes The maximum total size of all entries.
+     */
+    WorldCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+
+    /**
+     * Loads the cached layers for a world's parameters into it.
+     * The entry is memory-mapped by {@link WorldFile}, so loading does not copy the layers onto the heap.
+     * @param world The world to fill; its layers are replaced by the mapped ones.
+     * @param numStates The number of states generated for the world (0 if none).
+     * @return True if the entry existed and was loaded.
+     */
+    boolean load(World world, int numStates) {
+        Path file = entryFor(world, numStates);
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try {
+            World cached = WorldFile.open(file);
+            if (cached.size != world.size || cached.seed != world.seed || cached.terrainStyle != world.terrainStyle) {
+                return false;
+            }
+            world.layers = cached.layers;
+            world.stateColors = cached.stateColors;
+            world.capitals = cached.capitals;
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Cannot read cached world " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * Stores a generated world, then evicts old entries if the cache is over its size limit.
+     * @param world The generated in-memory world.
+     * @param numStates The number of states generated for the world (0 if none).
+     */
+    void store(World world, int numStates) {
+        Path file = entryFor(world, numStates);
+        try {
+            Files.createDirectories(directory);
+            WorldFile.write(world, file); // Replaces the entry atomically, even while it is mapped
+            evict();
+        } catch (IOException e) {
+            System.err.println("Cannot cache world " + file + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Deletes the least recently used entries until the cache fits in `maxBytes`.
+     * @throws IOException If the cache directory cannot be listed.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).forEach(entries::add);
+        }
+        entries.sort(Comparator.comparing(WorldCache::lastModified).reversed());
+
+        long total = 0;
+        for (Path entry : entries) {
+            long bytes = Files.size(entry);
+            total += bytes;
+            if (total > maxBytes) {
+                Files.deleteIfExists(entry);
+                total -= bytes;
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether an entry exists for the given generation parameters.
+     * @param seed The world seed.
+     * @param size The size of the world grid.
+     * @param seaLevel The sea level threshold.
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @param terrainStyle The terrain style.
+     * @param numStates The number of states (0 if none).
+     * @return True if a cached world can be loaded for these parameters.
+     */
+    boolean contains(long seed, int size, double seaLevel, double worldScale, int worldOctaves, TerrainStyle terrainStyle,
+                     int numStates) {
+        return Files.isRegularFile(entryFor(seed, size, seaLevel, worldScale, worldOctaves, terrainStyle, numStates));
+    }
+
+
+    /**
+     * Returns the entry file for a world's generation parameters.
+     * @param world The world.
+     * @param numStates The number of states generated for the world (0 if none).
+     * @return The path of the entry, which may not exist.
+     */
+    private Path entryFor(World world, int numStates) {
+        return entryFor(world.seed, world.size, world.seaLevel, world.worldScale, world.worldOctaves, world.terrainStyle,
+                numStates);
+    }
+
+
+    /**
+     * Returns the entry file for the given generation parameters.
+     * @param seed The world seed.
+     * @param size The size of the world grid.
+     * @param seaLevel The sea level threshold.
+     * @param worldScale The scale of the world for noise generation.
+     * @param worldOctaves The number of octaves for noise generation.
+     * @param terrainStyle The terrain style.
+     * @param numStates The number of states (0 if none).
+     * @return The path of the entry, which may not exist.
+     */
+    private Path entryFor(long seed, int size, double seaLevel, double worldScale, int worldOctaves,
+                          TerrainStyle terrainStyle, int numStates) {
+        // The default style keeps the key it had before terrain styles existed
+        String style = terrainStyle == TerrainStyle.CONTINENTS ? "" : "-" + terrainStyle.name().toLowerCase();
+        String key = String.format("%016x-%d-%016x-%016x-%d-%d%s",
+                seed, size, Double.doubleToLongBits(seaLevel), Double.doubleToLongBits(worldScale),
+                worldOctaves, numStates, style);
+        return directory.resolve(key + SUFFIX);
+    }
+
+
+    /**
+     * Returns the last modification time of an entry, or the epoch if it cannot be read.
+     * @param entry The entry file.
+     * @return The modification time.
+     */
+    private static FileTime lastModified(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
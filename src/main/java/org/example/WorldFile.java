@@ -0,0 +1,512 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import javafx.scene.paint.Color;
+
+/**
+ * Versioned binary file format for in-memory worlds, opened through memory mapping.
+ * <p>
+ * A file starts with a fixed header (magic, version, dimensions and generation parameters) followed
+ * by a section table. Every layer is one contiguous section starting on a page boundary, stored
+ * little-endian in the same row-major order as {@link WorldLayers}, so opening a file maps each section
+ * and reads the cells straight from the page cache: nothing is parsed or copied onto the heap, and
+ * processes opening the same file share its pages.
+ * <p>
+ * Sections are mapped copy-on-write, so re-deriving layers of an opened world (e.g. after a sea level
+ * change) never modifies the file.
+ */
+final class WorldFile {
+
+    private static final int MAGIC = 0x444C5257; // "WRLD" in little-endian
+    /** The current version of the format; version 2 added the slope layers. */
+    static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 48;
+    private static final int SECTION_ENTRY_BYTES = 24;
+    private static final int ALIGNMENT = 4096;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private static final int ELEVATION = 1;
+    private static final int TEMPERATURE = 2;
+    private static final int HUMIDITY = 3;
+    private static final int TEMPERATURE_NOISE = 4;
+    private static final int HUMIDITY_NOISE = 5;
+    private static final int BIOMES = 6;
+    private static final int STATES = 7;
+    private static final int STATE_COLORS = 8;
+    private static final int STATE_NAMES = 9;
+    private static final int SLOPE_X = 10;
+    private static final int SLOPE_Y = 11;
+    /** Optional: the name of the terrain style; files without it use the default style. */
+    private static final int TERRAIN = 12;
+    /** Optional: the cell index of each state's capital, so edited states can be edited further. */
+    private static final int CAPITALS = 13;
+    private static final int LAST_SECTION = CAPITALS;
+
+    private static final int[] FLOAT_SECTIONS = {
+            ELEVATION, TEMPERATURE, HUMIDITY, TEMPERATURE_NOISE, HUMIDITY_NOISE, SLOPE_X, SLOPE_Y
+    };
+
+
+    private WorldFile() {
+    }
+
+
+    /**
+     * Writes a generated in-memory world to a file, replacing it if it exists.
+     * The world is written to a temporary file next to it, which then atomically replaces the file.
+     * A world opened from the same file keeps reading its mappings of the replaced file, so it can be
+     * saved over its own file.
+     * @param world The generated world; chunked worlds cannot be written.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If the world is chunked.
+     */
+    static void write(World world, Path file) throws IOException {
+        if (world.isChunked()) {
+            throw new IllegalArgumentException("Chunked worlds cannot be written to a world file");
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, file.getFileName() + ".", ".tmp");
+        try {
+            writeFile(world, temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    /**
+     * Writes a generated in-memory world to a new file.
+     * @param world The generated world.
+     * @param file The file to write; must not be mapped by an opened world.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeFile(World world, Path file) throws IOException {
+        WorldLayers layers = world.layers;
+        long cells = (long) layers.width * layers.height;
+        byte[] colors = encodeColors(world.stateColors);
+        byte[] names = encodeNames(world.stateNames);
+        byte[] terrain = world.terrainStyle == TerrainStyle.CONTINENTS
+                ? null : world.terrainStyle.name().getBytes(StandardCharsets.UTF_8);
+        byte[] capitals = layers.hasStates() ? encodeCapitals(world.capitals) : null;
+
+        FloatBuffer[] floatLayers = layers.floatLayers();
+        int[] ids = new int[FLOAT_SECTIONS.length + 6];
+        long[] lengths = new long[ids.length];
+        for (int s = 0; s < FLOAT_SECTIONS.length; s++) {
+            ids[s] = FLOAT_SECTIONS[s];
+            lengths[s] = cells * Float.BYTES;
+        }
+        int biomeSection = FLOAT_SECTIONS.length;
+        ids[biomeSection] = BIOMES;
+        lengths[biomeSection] = cells;
+        ids[biomeSection + 1] = STATES;
+        lengths[biomeSection + 1] = layers.hasStates() ? cells * Short.BYTES : -1;
+        ids[biomeSection + 2] = STATE_COLORS;
+        lengths[biomeSection + 2] = colors == null ? -1 : colors.length;
+        ids[biomeSection + 3] = STATE_NAMES;
+        lengths[biomeSection + 3] = names == null ? -1 : names.length;
+        ids[biomeSection + 4] = TERRAIN;
+        lengths[biomeSection + 4] = terrain == null ? -1 : terrain.length;
+        ids[biomeSection + 5] = CAPITALS;
+        lengths[biomeSection + 5] = capitals == null ? -1 : capitals.length;
+        int count = 0;
+        for (long length : lengths) {
+            count += length >= 0 ? 1 : 0;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + count * SECTION_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(layers.width).putInt(layers.height)
+                .putLong(world.seed).putDouble(world.seaLevel).putDouble(world.worldScale)
+                .putInt(world.worldOctaves).putInt(count);
+        long[] offsets = new long[ids.length];
+        long offset = align(header.capacity());
+        for (int s = 0; s < ids.length; s++) {
+            if (lengths[s] < 0) {
+                continue;
+            }
+            offsets[s] = offset;
+            header.putInt(ids[s]).putInt(0).putLong(offset).putLong(lengths[s]);
+            offset = align(offset + lengths[s]);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header.flip(), 0);
+            for (int s = 0; s < floatLayers.length; s++) {
+                writeFloats(channel, floatLayers[s], offsets[s]);
+            }
+            writeFully(channel, layers.biomeLayer().duplicate().clear(), offsets[biomeSection]);
+            if (layers.hasStates()) {
+                writeShorts(channel, layers.stateLayer(), offsets[biomeSection + 1]);
+            }
+            if (colors != null) {
+                writeFully(channel, ByteBuffer.wrap(colors), offsets[biomeSection + 2]);
+            }
+            if (names != null) {
+                writeFully(channel, ByteBuffer.wrap(names), offsets[biomeSection + 3]);
+            }
+            if (terrain != null) {
+                writeFully(channel, ByteBuffer.wrap(terrain), offsets[biomeSection + 4]);
+            }
+            if (capitals != null) {
+                writeFully(channel, ByteBuffer.wrap(capitals), offsets[biomeSection + 5]);
+            }
+        }
+    }
+
+
+    /**
+     * Opens a world file by mapping its layer sections.
+     * The returned world is generated: its layers read from the mapping, and its noise is derived from the
+     * stored seed, so it can be edited like a freshly generated world. Files that cannot be opened for
+     * writing are still mapped copy-on-write when possible, and copied onto the heap otherwise.
+     * @param file The file to open.
+     * @return The opened world.
+     * @throws IOException If the file cannot be read or is not a world file of a supported version.
+     */
+    static World open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return open(channel, MapMode.PRIVATE, file);
+        } catch (AccessDeniedException e) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return open(channel, MapMode.READ_ONLY, file);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the header of an open world file and maps its sections.
+     * @param channel The channel of the file.
+     * @param mode PRIVATE to map the layers copy-on-write, or READ_ONLY to copy them onto the heap.
+     * @param file The file, for error messages.
+     * @return The opened world.
+     * @throws IOException If the file cannot be read or is not a world file of a supported version.
+     */
+    private static World open(FileChannel channel, MapMode mode, Path file) throws IOException {
+        ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a world file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported world file version " + version);
+        }
+        int width = header.getInt();
+        int height = header.getInt();
+        long seed = header.getLong();
+        double seaLevel = header.getDouble();
+        double worldScale = header.getDouble();
+        int worldOctaves = header.getInt();
+        int count = header.getInt();
+        if (width <= 0 || width != height || count < 0 || count > 64) {
+            throw new IOException(file + " has a corrupt world file header");
+        }
+        long cells = (long) width * height;
+
+        ByteBuffer table = readFully(channel, HEADER_BYTES, count * SECTION_ENTRY_BYTES);
+        ByteBuffer[] sections = new ByteBuffer[LAST_SECTION + 1];
+        for (int s = 0; s < count; s++) {
+            int id = table.getInt();
+            table.getInt();
+            long offset = table.getLong();
+            long length = table.getLong();
+            if (id < ELEVATION || id > LAST_SECTION) {
+                continue; // Unknown sections are skipped, so later versions can add optional ones
+            }
+            if (offset < 0 || length < 0 || offset + length > channel.size()) {
+                throw new IOException(file + " has a section outside the file");
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " has a layer too large to map");
+            }
+            sections[id] = channel.map(mode, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        FloatBuffer[] floatLayers = new FloatBuffer[FLOAT_SECTIONS.length];
+        for (int s = 0; s < FLOAT_SECTIONS.length; s++) {
+            ByteBuffer section = require(sections[FLOAT_SECTIONS[s]], cells * Float.BYTES, file);
+            FloatBuffer layer = section.asFloatBuffer();
+            floatLayers[s] = mode == MapMode.PRIVATE ? layer : FloatBuffer.allocate(layer.capacity()).put(layer).clear();
+        }
+        ByteBuffer biomes = require(sections[BIOMES], cells, file);
+        if (mode != MapMode.PRIVATE) {
+            biomes = ByteBuffer.allocate(biomes.capacity()).put(biomes).clear();
+        }
+        ShortBuffer states = null;
+        if (sections[STATES] != null) {
+            states = require(sections[STATES], cells * Short.BYTES, file).asShortBuffer();
+            if (mode != MapMode.PRIVATE) {
+                states = ShortBuffer.allocate(states.capacity()).put(states).clear();
+            }
+        }
+
+        WorldLayers layers = new WorldLayers(width, height, floatLayers, biomes, states);
+        World world = new World(layers, seed, seaLevel, worldScale, worldOctaves,
+                decodeNames(sections[STATE_NAMES]), decodeColors(sections[STATE_COLORS]));
+        world.setTerrainStyle(decodeTerrain(sections[TERRAIN]));
+        if (states != null && world.stateColors != null) {
+            world.capitals = decodeCapitals(sections[CAPITALS], world.stateColors.length - 1, cells);
+        }
+        return world;
+    }
+
+
+    /**
+     * Checks that a required section exists and has the expected length.
+     * @param section The mapped section, or null if the file has none.
+     * @param length The expected length in bytes.
+     * @param file The file, for error messages.
+     * @return The section.
+     * @throws IOException If the section is missing or has the wrong length.
+     */
+    private static ByteBuffer require(ByteBuffer section, long length, Path file) throws IOException {
+        if (section == null || section.capacity() != length) {
+            throw new IOException(file + " is missing a layer or has a layer of the wrong size");
+        }
+        return section;
+    }
+
+
+    /**
+     * Rounds an offset up to the next section boundary.
+     * @param offset The offset in bytes.
+     * @return The aligned offset.
+     */
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+
+    /**
+     * Writes a float layer in little-endian order, one chunk at a time.
+     * @param channel The channel to write to.
+     * @param layer The layer; its position and limit are left unchanged.
+     * @param position The file offset of the section.
+     * @throws IOException If the channel cannot be written.
+     */
+    private static void writeFloats(FileChannel channel, FloatBuffer layer, long position) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        int perChunk = CHUNK_BYTES / Float.BYTES;
+        for (int from = 0; from < layer.capacity(); from += perChunk) {
+            int n = Math.min(perChunk, layer.capacity() - from);
+            chunk.clear();
+            chunk.asFloatBuffer().put(layer.slice(from, n));
+            chunk.limit(n * Float.BYTES);
+            position += writeFully(channel, chunk, position);
+        }
+    }
+
+
+    /**
+     * Writes a short layer in little-endian order, one chunk at a time.
+     * @param channel The channel to write to.
+     * @param layer The layer; its position and limit are left unchanged.
+     * @param position The file offset of the section.
+     * @throws IOException If the channel cannot be written.
+     */
+    private static void writeShorts(FileChannel channel, ShortBuffer layer, long position) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        int perChunk = CHUNK_BYTES / Short.BYTES;
+        for (int from = 0; from < layer.capacity(); from += perChunk) {
+            int n = Math.min(perChunk, layer.capacity() - from);
+            chunk.clear();
+            chunk.asShortBuffer().put(layer.slice(from, n));
+            chunk.limit(n * Short.BYTES);
+            position += writeFully(channel, chunk, position);
+        }
+    }
+
+
+    /**
+     * Writes all remaining bytes of a buffer at the given file offset.
+     * @param channel The channel to write to.
+     * @param buffer The bytes to write.
+     * @param position The file offset to write at.
+     * @return The number of bytes written.
+     * @throws IOException If the channel cannot be written.
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+
+    /**
+     * Reads exactly `length` bytes at the given file offset.
+     * @param channel The channel to read from.
+     * @param position The file offset to read at.
+     * @param length The number of bytes to read.
+     * @return A little-endian buffer holding the bytes, positioned at 0.
+     * @throws IOException If the channel cannot be read or ends early.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("World file ends inside its header");
+            }
+        }
+        return buffer.flip();
+    }
+
+
+    /**
+     * Encodes state colors as one RGB int per state; entry 0 (no state) is kept as a placeholder.
+     * @param colors The state colors, or null.
+     * @return The encoded section, or null if there are no colors.
+     */
+    private static byte[] encodeColors(Color[] colors) {
+        if (colors == null) {
+            return null;
+        }
+        ByteBuffer out = ByteBuffer.allocate(colors.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < colors.length; i++) {
+            Color c = i == 0 || colors[i] == null ? Color.BLACK : colors[i];
+            out.putInt(((int) Math.round(c.getRed() * 255) << 16)
+                    | ((int) Math.round(c.getGreen() * 255) << 8)
+                    | (int) Math.round(c.getBlue() * 255));
+        }
+        return out.array();
+    }
+
+
+    /**
+     * Decodes the state color section.
+     * @param section The mapped section, or null.
+     * @return The state colors with entry 0 transparent, or null if the file has none.
+     */
+    private static Color[] decodeColors(ByteBuffer section) {
+        if (section == null) {
+            return null;
+        }
+        Color[] colors = new Color[section.capacity() / Integer.BYTES];
+        for (int i = 0; i < colors.length; i++) {
+            int rgb = section.getInt(i * Integer.BYTES);
+            colors[i] = i == 0 ? Color.TRANSPARENT : Color.rgb((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+        }
+        return colors;
+    }
+
+
+    /**
+     * Decodes the terrain style section.
+     * @param section The mapped section, or null.
+     * @return The terrain style, or the default style if the file has none or an unknown one.
+     */
+    private static TerrainStyle decodeTerrain(ByteBuffer section) {
+        if (section == null) {
+            return TerrainStyle.CONTINENTS;
+        }
+        byte[] name = new byte[section.capacity()];
+        section.get(0, name);
+        return TerrainStyle.fromName(new String(name, StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Encodes the capitals of the states as one cell index per state, -1 for removed states.
+     * @param capitals The capitals, or null.
+     * @return The encoded section, or null if the capitals are not known.
+     */
+    private static byte[] encodeCapitals(int[] capitals) {
+        if (capitals == null) {
+            return null;
+        }
+        ByteBuffer out = ByteBuffer.allocate(capitals.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int cell : capitals) {
+            out.putInt(cell);
+        }
+        return out.array();
+    }
+
+
+    /**
+     * Decodes the capital section.
+     * @param section The mapped section, or null.
+     * @param numStates The number of states in the file.
+     * @param cells The number of cells in the world.
+     * @return The capitals, or null if the file has none or they do not match the states.
+     */
+    private static int[] decodeCapitals(ByteBuffer section, int numStates, long cells) {
+        if (section == null || section.capacity() != (long) numStates * Integer.BYTES) {
+            return null;
+        }
+        int[] capitals = new int[numStates];
+        for (int i = 0; i < numStates; i++) {
+            capitals[i] = section.getInt(i * Integer.BYTES);
+            if (capitals[i] < -1 || capitals[i] >= cells) {
+                return null;
+            }
+        }
+        return capitals;
+    }
+
+
+    /**
+     * Encodes state names as a length-prefixed UTF-8 string per state, with length -1 for null entries.
+     * @param names The state names, or null.
+     * @return The encoded section, or null if there are no names.
+     */
+    private static byte[] encodeNames(String[] names) {
+        if (names == null) {
+            return null;
+        }
+        byte[][] encoded = new byte[names.length][];
+        int bytes = Integer.BYTES;
+        for (int i = 0; i < names.length; i++) {
+            encoded[i] = names[i] == null ? null : names[i].getBytes(StandardCharsets.UTF_8);
+            bytes += Integer.BYTES + (encoded[i] == null ? 0 : encoded[i].length);
+        }
+        ByteBuffer out = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(names.length);
+        for (byte[] name : encoded) {
+            out.putInt(name == null ? -1 : name.length);
+            if (name != null) {
+                out.put(name);
+            }
+        }
+        return out.array();
+    }
+
+
+    /**
+     * Decodes the state name section.
+     * @param section The mapped section, or null.
+     * @return The state names, or null if the file has none.
+     */
+    private static String[] decodeNames(ByteBuffer section) {
+        if (section == null) {
+            return null;
+        }
+        String[] names = new String[section.getInt()];
+        for (int i = 0; i < names.length; i++) {
+            int length = section.getInt();
+            if (length >= 0) {
+                byte[] name = new byte[length];
+                section.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+            }
+        }
+        return names;
+    }
+}
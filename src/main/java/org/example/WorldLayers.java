@@ -0,0 +1,391 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Flat, row-major storage for the per-cell layers of a world.
+ * Cell (x, y) lives at index y * width + x in every layer, so passes that walk
+ * rows in the inner loop read memory sequentially.
+ * Climate layers are stored as floats, biomes as their ordinal and states as unsigned shorts.
+ * The raw temperature and humidity noise can be kept next to the derived layers, so the derived
+ * layers can be recomputed without sampling noise again (e.g. when the sea level changes).
+ * The slope layers hold the gradient of the elevation along the grid axes, in elevation
+ * units per radian of arc, from which both slope and surface normals follow.
+ * Like the state layer, the noise and slope layers are only allocated in stores that need them, so
+ * a store holds 13 bytes per cell plus 8 for the slope, 8 for the noise and 2 for the states.
+ * A store may also cover only a window of the world: local cell (x, y) then stands for
+ * world cell (originX + x * stride, originY + y * stride).
+ * Layers are held in NIO buffers: freshly generated stores use heap buffers, while stores opened
+ * by {@link WorldFile} read straight from a memory-mapped file.
+ */
+final class WorldLayers {
+
+    private static final Biome[] BIOMES = Biome.values();
+
+    /** The largest state ID that fits in the state layer. */
+    static final int MAX_STATE_ID = 0xFFFF;
+
+    final int width;
+    final int height;
+    final int originX;
+    final int originY;
+    final int stride;
+    private final int cells;
+    private final FloatBuffer elevation;
+    private final FloatBuffer temperature;
+    private final FloatBuffer humidity;
+    private FloatBuffer temperatureNoise;
+    private FloatBuffer humidityNoise;
+    private FloatBuffer slopeX;
+    private FloatBuffer slopeY;
+    private final ByteBuffer biomes;
+    private ShortBuffer stateID;
+
+
+    /**
+     * Constructs a new, zeroed layer store covering a whole world.
+     * The noise and slope layers are allocated by {@link #allocateClimateNoise()} and {@link #allocateSlope()},
+     * and the state layer once a state ID is written.
+     * @param width The number of cells per row.
+     * @param height The number of rows.
+     */
+    WorldLayers(int width, int height) {
+        this(width, height, 0, 0, 1);
+    }
+
+
+    /**
+     * Constructs a new, zeroed layer store covering a window of a world, without noise, slope or state layers.
+     * @param width The number of cells per row.
+     * @param height The number of rows.
+     * @param originX The world x-coordinate of local cell (0, 0).
+     * @param originY The world y-coordinate of local cell (0, 0).
+     * @param stride The distance in world cells between neighbouring local cells.
+     */
+    WorldLayers(int width, int height, int originX, int originY, int stride) {
+        this.width = width;
+        this.height = height;
+        this.originX = originX;
+        this.originY = originY;
+        this.stride = stride;
+        this.cells = Math.multiplyExact(width, height);
+        this.elevation = FloatBuffer.allocate(cells);
+        this.temperature = FloatBuffer.allocate(cells);
+        this.humidity = FloatBuffer.allocate(cells);
+        this.biomes = ByteBuffer.allocate(cells);
+    }
+
+
+    /**
+     * Constructs a layer store covering a whole world over existing buffers, without copying them.
+     * Used to open mapped world files; every buffer must hold exactly width * height cells.
+     * @param width The number of cells per row.
+     * @param height The number of rows.
+     * @param floatLayers The float layers, in the order of {@link #floatLayers()}.
+     * @param biomes The biome ordinals.
+     * @param stateID The state IDs, or null if the world has no states.
+     */
+    WorldLayers(int width, int height, FloatBuffer[] floatLayers, ByteBuffer biomes, ShortBuffer stateID) {
+        this.width = width;
+        this.height = height;
+        this.originX = 0;
+        this.originY = 0;
+        this.stride = 1;
+        this.cells = Math.multiplyExact(width, height);
+        this.elevation = floatLayers[0];
+        this.temperature = floatLayers[1];
+        this.humidity = floatLayers[2];
+        this.temperatureNoise = floatLayers[3];
+        this.humidityNoise = floatLayers[4];
+        this.slopeX = floatLayers[5];
+        this.slopeY = floatLayers[6];
+        this.biomes = biomes;
+        this.stateID = stateID;
+    }
+
+
+    /**
+     * Computes the flat index of a cell.
+     * @param x The x-coordinate of the cell.
+     * @param y The y-coordinate of the cell.
+     * @return The index of the cell in every layer.
+     */
+    int index(int x, int y) {
+        return y * width + x;
+    }
+
+    /**
+     * Computes the flat index of a world cell inside this window.
+     * @param worldX The world x-coordinate of the cell.
+     * @param worldY The world y-coordinate of the cell.
+     * @return The index of the nearest local cell at or before the world cell.
+     */
+    int worldIndex(int worldX, int worldY) {
+        return index((worldX - originX) / stride, (worldY - originY) / stride);
+    }
+
+    /**
+     * Returns the elevation of a cell (0.0 to 1.0).
+     * @param i The index of the cell.
+     * @return The elevation value.
+     */
+    double elevation(int i) {
+        return elevation.get(i);
+    }
+
+    /**
+     * Sets the elevation of a cell.
+     * @param i The index of the cell.
+     * @param value The elevation value (0.0 to 1.0).
+     */
+    void setElevation(int i, double value) {
+        elevation.put(i, (float) value);
+    }
+
+    /**
+     * Returns the temperature of a cell in degrees Celsius.
+     * @param i The index of the cell.
+     * @return The temperature value.
+     */
+    double temperature(int i) {
+        return temperature.get(i);
+    }
+
+    /**
+     * Sets the temperature of a cell.
+     * @param i The index of the cell.
+     * @param value The temperature in degrees Celsius.
+     */
+    void setTemperature(int i, double value) {
+        temperature.put(i, (float) value);
+    }
+
+    /**
+     * Returns the humidity of a cell (0.0 to 1.0).
+     * @param i The index of the cell.
+     * @return The humidity value.
+     */
+    double humidity(int i) {
+        return humidity.get(i);
+    }
+
+    /**
+     * Sets the humidity of a cell.
+     * @param i The index of the cell.
+     * @param value The humidity value (0.0 to 1.0).
+     */
+    void setHumidity(int i, double value) {
+        humidity.put(i, (float) value);
+    }
+
+    /**
+     * Allocates the raw temperature and humidity noise layers, unless they are allocated already.
+     * Must be called before the noise is written, and not while other threads write to this store.
+     */
+    void allocateClimateNoise() {
+        if (temperatureNoise == null) {
+            temperatureNoise = FloatBuffer.allocate(cells);
+            humidityNoise = FloatBuffer.allocate(cells);
+        }
+    }
+
+    /**
+     * Returns whether this store keeps the raw temperature and humidity noise.
+     * @return True if the noise layers are allocated.
+     */
+    boolean hasClimateNoise() {
+        return temperatureNoise != null;
+    }
+
+    /**
+     * Returns the raw temperature noise of a cell, before latitude and altitude are applied.
+     * @param i The index of the cell.
+     * @return The noise value (-1.0 to 1.0), or 0 if this store keeps no noise.
+     */
+    double temperatureNoise(int i) {
+        return temperatureNoise == null ? 0 : temperatureNoise.get(i);
+    }
+
+    /**
+     * Sets the raw temperature noise of a cell. The noise layers must be allocated.
+     * @param i The index of the cell.
+     * @param value The noise value (-1.0 to 1.0).
+     */
+    void setTemperatureNoise(int i, double value) {
+        temperatureNoise.put(i, (float) value);
+    }
+
+    /**
+     * Returns the raw humidity noise of a cell, before oceans and temperature are applied.
+     * @param i The index of the cell.
+     * @return The noise value (-1.0 to 1.0), or 0 if this store keeps no noise.
+     */
+    double humidityNoise(int i) {
+        return humidityNoise == null ? 0 : humidityNoise.get(i);
+    }
+
+    /**
+     * Sets the raw humidity noise of a cell. The noise layers must be allocated.
+     * @param i The index of the cell.
+     * @param value The noise value (-1.0 to 1.0).
+     */
+    void setHumidityNoise(int i, double value) {
+        humidityNoise.put(i, (float) value);
+    }
+
+    /**
+     * Allocates the slope layers, unless they are allocated already.
+     * Must be called before the slope is written, and not while other threads write to this store.
+     */
+    void allocateSlope() {
+        if (slopeX == null) {
+            slopeX = FloatBuffer.allocate(cells);
+            slopeY = FloatBuffer.allocate(cells);
+        }
+    }
+
+    /**
+     * Returns whether this store holds the elevation gradient.
+     * @return True if the slope layers are allocated.
+     */
+    boolean hasSlope() {
+        return slopeX != null;
+    }
+
+    /**
+     * Returns the elevation gradient of a cell towards increasing x (east).
+     * @param i The index of the cell.
+     * @return The change of elevation per radian of arc, or 0 if this store holds no slope.
+     */
+    double slopeX(int i) {
+        return slopeX == null ? 0 : slopeX.get(i);
+    }
+
+    /**
+     * Returns the elevation gradient of a cell towards increasing y (increasing latitude).
+     * @param i The index of the cell.
+     * @return The change of elevation per radian of arc, or 0 if this store holds no slope.
+     */
+    double slopeY(int i) {
+        return slopeY == null ? 0 : slopeY.get(i);
+    }
+
+    /**
+     * Sets the elevation gradient of a cell. The slope layers must be allocated.
+     * @param i The index of the cell.
+     * @param x The change of elevation per radian of arc towards increasing x.
+     * @param y The change of elevation per radian of arc towards increasing y.
+     */
+    void setSlope(int i, double x, double y) {
+        slopeX.put(i, (float) x);
+        slopeY.put(i, (float) y);
+    }
+
+    /**
+     * Returns the steepness of a cell, the magnitude of its elevation gradient.
+     * @param i The index of the cell.
+     * @return The change of elevation per radian of arc along the steepest direction.
+     */
+    double slope(int i) {
+        return slopeX == null ? 0 : Math.hypot(slopeX.get(i), slopeY.get(i));
+    }
+
+    /**
+     * Returns the biome of a cell.
+     * @param i The index of the cell.
+     * @return The biome type.
+     */
+    Biome biome(int i) {
+        return BIOMES[biomes.get(i)];
+    }
+
+    /**
+     * Returns the ordinal of the biome of a cell, without resolving the enum constant.
+     * @param i The index of the cell.
+     * @return The biome ordinal.
+     */
+    int biomeOrdinal(int i) {
+        return biomes.get(i);
+    }
+
+    /**
+     * Sets the biome of a cell.
+     * @param i The index of the cell.
+     * @param biome The biome type.
+     */
+    void setBiome(int i, Biome biome) {
+        biomes.put(i, (byte) biome.ordinal());
+    }
+
+    /**
+     * Returns the state owning a cell.
+     * @param i The index of the cell.
+     * @return The state ID, or 0 if the cell belongs to no state.
+     */
+    int stateID(int i) {
+        return stateID == null ? 0 : stateID.get(i) & 0xFFFF;
+    }
+
+    /**
+     * Assigns a cell to a state, allocating the state layer on first use.
+     * @param i The index of the cell.
+     * @param id The state ID (0 to {@link #MAX_STATE_ID}).
+     */
+    void setStateID(int i, int id) {
+        if (stateID == null) {
+            stateID = ShortBuffer.allocate(cells);
+        }
+        stateID.put(i, (short) id);
+    }
+
+    /**
+     * Returns whether any cell has been assigned to a state.
+     * @return True if the state layer is allocated.
+     */
+    boolean hasStates() {
+        return stateID != null;
+    }
+
+    /**
+     * Drops all state assignments and releases the state layer.
+     */
+    void clearStates() {
+        stateID = null;
+    }
+
+    /**
+     * Resets every cell to state 0 in a fresh heap state layer.
+     * A mapped state layer is dropped rather than cleared, so the file is left alone.
+     */
+    void resetStates() {
+        stateID = ShortBuffer.allocate(cells);
+    }
+
+    /**
+     * Returns the float layers in file order: elevation, temperature, humidity, temperature noise,
+     * humidity noise, slope x and slope y. The buffers are shared with this store, not copied.
+     * The whole-world store of a generated world always holds all of them.
+     * @return The seven float layers; the noise and slope layers are null if they are not allocated.
+     */
+    FloatBuffer[] floatLayers() {
+        return new FloatBuffer[] { elevation, temperature, humidity, temperatureNoise, humidityNoise, slopeX, slopeY };
+    }
+
+    /**
+     * Returns the biome layer, shared with this store.
+     * @return The biome ordinals.
+     */
+    ByteBuffer biomeLayer() {
+        return biomes;
+    }
+
+    /**
+     * Returns the state layer, shared with this store.
+     * @return The state IDs, or null if no cell has been assigned to a state.
+     */
+    ShortBuffer stateLayer() {
+        return stateID;
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Bounded LRU cache of square world tiles, used by chunked worlds.
+ * A tile is generated the first time one of its cells is accessed, and the least
+ * recently used tile is evicted once more than `maxTiles` tiles are held.
+ */
+final class WorldTileCache {
+
+    /**
+     * Fills the layers of a freshly allocated tile.
+     */
+    @FunctionalInterface
+    interface TileGenerator {
+        void generate(WorldLayers tile);
+    }
+
+    final int worldSize;
+    final int tileSize;
+    private final int maxTiles;
+    private final TileGenerator generator;
+    private final LinkedHashMap<Long, WorldLayers> tiles;
+
+
+    /**
+     * Constructs a new, empty tile cache.
+     * @param worldSize The size of the world grid (worldSize x worldSize).
+     * @param tileSize The size of each tile (tileSize x tileSize).
+     * @param maxTiles The maximum number of tiles kept in memory.
+     * @param generator Generates the layers of a tile on first access.
+     */
+    WorldTileCache(int worldSize, int tileSize, int maxTiles, TileGenerator generator) {
+        this.worldSize = worldSize;
+        this.tileSize = tileSize;
+        this.maxTiles = Math.max(1, maxTiles);
+        this.generator = generator;
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, WorldLayers> eldest) {
+                return size() > WorldTileCache.this.maxTiles;
+            }
+        };
+    }
+
+
+    /**
+     * Returns the tile containing a world cell, generating it if it is not cached.
+     * @param x The world x-coordinate of the cell.
+     * @param y The world y-coordinate of the cell.
+     * @return The tile covering the cell.
+     */
+    synchronized WorldLayers tileAt(int x, int y) {
+        int tx = x / tileSize;
+        int ty = y / tileSize;
+        long key = ((long) ty << 32) | tx;
+
+        WorldLayers tile = tiles.get(key);
+        if (tile == null) {
+            int x0 = tx * tileSize;
+            int y0 = ty * tileSize;
+            tile = new WorldLayers(Math.min(tileSize, worldSize - x0), Math.min(tileSize, worldSize - y0), x0, y0, 1);
+            generator.generate(tile);
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+
+    /**
+     * Runs an action on every tile currently held in memory, without changing their LRU order.
+     * @param action The action to run on each tile.
+     */
+    synchronized void forEachTile(Consumer<WorldLayers> action) {
+        for (WorldLayers tile : tiles.values()) {
+            action.accept(tile);
+        }
+    }
+
+
+    /**
+     * Returns the number of tiles currently held in memory.
+     * @return The number of cached tiles.
+     */
+    synchronized int cachedTiles() {
+        return tiles.size();
+    }
+}
@@ -0,0 +1,133 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that batches evaluated by the SIMD kernel match the scalar simplex noise bit for bit,
+ * including the points of a batch that are left over after the last whole vector.
+ */
+class SimplexNoiseKernelTest {
+
+    /** Batch lengths around the vector length and the kernel block size of 256 points. */
+    private static final int[] COUNTS = {1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 31, 255, 256, 257, 259, 511, 513, 1001};
+    private static final double[] FREQUENCIES = {1.0, 2.0, 0.37, 64.0};
+
+
+    /**
+     * The kernel is only used with the jdk.incubator.vector module, which the build adds to the test JVM.
+     */
+    @BeforeAll
+    static void requireKernel() {
+        assertTrue(SimplexNoise.VECTORIZED, "Tests must run with --add-modules jdk.incubator.vector");
+    }
+
+
+    /**
+     * Batches of noise values equal the scalar noise of each point.
+     */
+    @Test
+    void noiseMatchesScalar() {
+        Random random = new Random(7);
+        for (long seed : new long[] {1, -42, 123456789}) {
+            SimplexNoise noise = new SimplexNoise(seed);
+            for (int count : COUNTS) {
+                double[][] points = points(random, count);
+                for (double frequency : FREQUENCIES) {
+                    double[] out = new double[count];
+                    noise.noise(points[0], points[1], points[2], frequency, out, count);
+                    for (int n = 0; n < count; n++) {
+                        double expected = noise.noise(points[0][n] * frequency, points[1][n] * frequency,
+                                points[2][n] * frequency);
+                        assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(out[n]),
+                                "point " + n + " of " + count + " at frequency " + frequency);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Batches of noise values and gradients equal the scalar noise and gradient of each point.
+     */
+    @Test
+    void gradientMatchesScalar() {
+        Random random = new Random(11);
+        double[] gradient = new double[3];
+        for (long seed : new long[] {3, -5, 987654321}) {
+            SimplexNoise noise = new SimplexNoise(seed);
+            for (int count : COUNTS) {
+                double[][] points = points(random, count);
+                for (double frequency : FREQUENCIES) {
+                    double[] out = new double[count];
+                    double[] gradX = new double[count];
+                    double[] gradY = new double[count];
+                    double[] gradZ = new double[count];
+                    noise.noise(points[0], points[1], points[2], frequency, out, gradX, gradY, gradZ, count);
+                    for (int n = 0; n < count; n++) {
+                        double expected = noise.noise(points[0][n] * frequency, points[1][n] * frequency,
+                                points[2][n] * frequency, gradient, 0);
+                        String where = "point " + n + " of " + count + " at frequency " + frequency;
+                        assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(out[n]), where);
+                        assertEquals(Double.doubleToRawLongBits(gradient[0] * frequency),
+                                Double.doubleToRawLongBits(gradX[n]), where);
+                        assertEquals(Double.doubleToRawLongBits(gradient[1] * frequency),
+                                Double.doubleToRawLongBits(gradY[n]), where);
+                        assertEquals(Double.doubleToRawLongBits(gradient[2] * frequency),
+                                Double.doubleToRawLongBits(gradZ[n]), where);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Draws random points: mostly on the unit sphere, as the world samples them, and otherwise
+     * anywhere in a large cube, on integer lattice points or on the faces between simplex cells.
+     * @param random The source of randomness.
+     * @param count The number of points.
+     * @return The x, y and z coordinates of the points.
+     */
+    private static double[][] points(Random random, int count) {
+        double[][] points = new double[3][count];
+        for (int n = 0; n < count; n++) {
+            double x, y, z;
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    x = Math.floor(random.nextGaussian() * 10);
+                    y = Math.floor(random.nextGaussian() * 10);
+                    z = Math.floor(random.nextGaussian() * 10);
+                }
+                case 1 -> {
+                    x = (random.nextDouble() - 0.5) * 2000;
+                    y = (random.nextDouble() - 0.5) * 2000;
+                    z = (random.nextDouble() - 0.5) * 2000;
+                }
+                case 2 -> {
+                    x = random.nextInt(20) - 10 + 0.5;
+                    y = x;
+                    z = random.nextInt(20) - 10;
+                }
+                default -> {
+                    x = random.nextGaussian();
+                    y = random.nextGaussian();
+                    z = random.nextGaussian();
+                    double length = Math.sqrt(x * x + y * y + z * z);
+                    x /= length;
+                    y /= length;
+                    z /= length;
+                }
+            }
+            points[0][n] = x;
+            points[1][n] = y;
+            points[2][n] = z;
+        }
+        return points;
+    }
+}
@@ -0,0 +1,391 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the ownership map grown by {@link StateGrowth} on seeded and flat worlds against reference
+ * implementations of Dijkstra's algorithm, and the parallel growth and the edits of capitals against
+ * growing the states from scratch.
+ */
+class StateGrowthTest {
+
+    private static final int SIZE = 96;
+    private static final int STATES = 12;
+    /** Pool sizes for the parallel growth; 1 grows on the calling thread. */
+    private static final int[] PARALLELISM = {1, 2, 3, 4, 8};
+
+
+    /**
+     * A cell waiting in the frontier of the reference Dijkstra, as the state generation stored it
+     * before the bucket queue.
+     * @param cell The index of the cell.
+     * @param owner The state that reached the cell.
+     * @param cost The path cost from the capital of that state.
+     */
+    private record QueuedCell(int cell, int owner, double cost) {
+    }
+
+
+    /**
+     * Every cell goes to the same state as with the priority queue Dijkstra that the bucket queue replaced.
+     * Where several capitals reach a cell at the same cost, the priority queue gave it to whichever came
+     * first; the bucket queue gives it to the lowest of the tied state IDs.
+     */
+    @Test
+    void settleMatchesPriorityQueueDijkstra() {
+        World world = world(SIZE, 3, 0);
+        int[] capitals = capitals(world.layers, world.seaLevel, STATES, new Random(5));
+        int[] reference = priorityQueueOwners(world, capitals);
+        new StateGrowth(world.layers, world.seaLevel).grow(capitals, null, null);
+
+        int[][] costs = new int[STATES][];
+        for (int s = 0; s < STATES; s++) {
+            costs[s] = pathCosts(world, capitals[s]);
+        }
+        int ties = 0;
+        for (int cell = 0; cell < SIZE * SIZE; cell++) {
+            int best = Integer.MAX_VALUE;
+            int lowest = 0;
+            int tied = 0;
+            for (int s = 0; s < STATES; s++) {
+                if (costs[s][cell] < best) {
+                    best = costs[s][cell];
+                    lowest = s + 1;
+                    tied = 1;
+                } else if (costs[s][cell] == best) {
+                    tied++;
+                }
+            }
+            int owner = world.layers.stateID(cell);
+            if (tied == 1) {
+                assertEquals(reference[cell], owner, "cell " + cell);
+            } else {
+                ties++;
+                assertEquals(best, costs[reference[cell] - 1][cell], "reference owner of tied cell " + cell);
+                assertEquals(lowest, owner, "tied cell " + cell);
+            }
+        }
+        assertTrue(ties > 0, "The world should have cells that several capitals reach at the same cost");
+    }
+
+
+    /**
+     * Growing in parallel gives every cell the same owner as growing sequentially, with any number of workers.
+     */
+    @Test
+    void parallelGrowthMatchesSequential() {
+        World world = world(512, 11, 0);
+        int[] capitals = capitals(world.layers, world.seaLevel, 64, new Random(13));
+        int[] sequential = owners(world.layers, world.seaLevel, capitals, 1);
+        for (int parallelism : PARALLELISM) {
+            assertArrayEquals(sequential, owners(world.layers, world.seaLevel, capitals, parallelism),
+                    "parallelism " + parallelism);
+        }
+    }
+
+
+    /**
+     * On flat land every path costs its length, so each cell belongs to the capital at the smallest
+     * grid distance, and cells at the same distance from several capitals to the lowest of their IDs.
+     * The wavefronts on a large flat world are wide enough that every worker of the pool settles cells.
+     */
+    @Test
+    void parallelGrowthBreaksTiesByStateID() {
+        int size = 1024;
+        WorldLayers layers = new WorldLayers(size, size);
+        for (int i = 0; i < size * size; i++) {
+            layers.setElevation(i, 0.6);
+        }
+        int[] capitals = capitals(layers, 0.5, 8, new Random(17));
+
+        int[] expected = new int[size * size];
+        int ties = 0;
+        for (int cell = 0; cell < size * size; cell++) {
+            int best = Integer.MAX_VALUE;
+            boolean tied = false;
+            for (int s = 0; s < capitals.length; s++) {
+                int dx = Math.abs(cell % size - capitals[s] % size);
+                int distance = Math.min(dx, size - dx) + Math.abs(cell / size - capitals[s] / size);
+                if (distance < best) {
+                    best = distance;
+                    expected[cell] = s + 1;
+                    tied = false;
+                } else if (distance == best) {
+                    tied = true;
+                }
+            }
+            if (tied) {
+                ties++;
+            }
+        }
+        assertTrue(ties > 0, "The capitals should have cells at the same distance");
+
+        for (int parallelism : PARALLELISM) {
+            assertArrayEquals(expected, owners(layers, 0.5, capitals, parallelism), "parallelism " + parallelism);
+        }
+    }
+
+
+    /**
+     * Adding, moving and removing capitals of a generated world regrows only part of it, but leaves the
+     * same states as generating the world and growing its states from the edited capitals.
+     */
+    @Test
+    void editsMatchGrowingFromScratch() {
+        World edited = world(SIZE, 7, STATES);
+        World scratch = world(SIZE, 7, STATES);
+        assertArrayEquals(stateIDs(scratch.layers), stateIDs(edited.layers), "generated states");
+
+        Random random = new Random(19);
+        for (int step = 0; step < 40; step++) {
+            int[] capitals = edited.capitals;
+            int live = 0;
+            for (int capital : capitals) {
+                if (capital >= 0) {
+                    live++;
+                }
+            }
+            int kind = live < 2 ? 0 : random.nextInt(3);
+            String edit;
+            if (kind == 0) {
+                // Every fourth new capital shares the cell of an existing one
+                int cell = step % 4 == 0 && live > 0 ? capitals[liveState(capitals, random) - 1]
+                        : capitals(edited.layers, edited.seaLevel, 1, random)[0];
+                int id = edited.addCapital(cell % SIZE, cell / SIZE, null);
+                edit = "add " + id + " at " + cell;
+            } else if (kind == 1) {
+                int id = liveState(capitals, random);
+                int cell = capitals(edited.layers, edited.seaLevel, 1, random)[0];
+                edited.moveCapital(id, cell % SIZE, cell / SIZE);
+                edit = "move " + id + " to " + cell;
+            } else {
+                int id = liveState(capitals, random);
+                edited.removeCapital(id);
+                edit = "remove " + id;
+            }
+            int[] expected = owners(scratch.layers, scratch.seaLevel, edited.capitals, 1);
+            assertArrayEquals(expected, stateIDs(edited.layers), "step " + step + ": " + edit);
+        }
+    }
+
+
+    /**
+     * Generates a world.
+     * @param size The width and height of the world.
+     * @param seed The world seed.
+     * @param numStates The number of states to generate, or 0 for none.
+     * @return The world.
+     */
+    private static World world(int size, long seed, int numStates) {
+        World world = new World(size, 0.5, 2.0, 5, null);
+        world.setSeed(seed);
+        world.setParallelism(1);
+        world.generate(numStates > 0, numStates);
+        return world;
+    }
+
+
+    /**
+     * Picks a random state that still has its capital.
+     * @param capitals The cell index of the capital of state i + 1 at index i, or -1 if it was removed.
+     * @param random The source of the choice.
+     * @return The ID of the state.
+     */
+    private static int liveState(int[] capitals, Random random) {
+        int id;
+        do {
+            id = random.nextInt(capitals.length) + 1;
+        } while (capitals[id - 1] < 0);
+        return id;
+    }
+
+
+    /**
+     * Returns the state layer of a store.
+     * @param layers The layers.
+     * @return The state ID of every cell.
+     */
+    private static int[] stateIDs(WorldLayers layers) {
+        int[] states = new int[layers.width * layers.height];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = layers.stateID(i);
+        }
+        return states;
+    }
+
+
+    /**
+     * Grows the states and returns the owner of every cell.
+     * @param layers The layers to grow the states in.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param capitals The cell index of the capital of state i + 1 at index i.
+     * @param parallelism The number of workers, or 1 to grow on the calling thread.
+     * @return The owner of every cell.
+     */
+    private static int[] owners(WorldLayers layers, double seaLevel, int[] capitals, int parallelism) {
+        StateGrowth growth = new StateGrowth(layers, seaLevel);
+        if (parallelism < 2) {
+            growth.grow(capitals, null, null);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                growth.grow(capitals, null, pool);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return stateIDs(layers);
+    }
+
+
+    /**
+     * Places capitals on distinct random land cells.
+     * @param layers The layers of the world.
+     * @param seaLevel The sea level threshold (0.0 to 1.0).
+     * @param count The number of capitals.
+     * @param random The source of the cells.
+     * @return The cell index of the capital of state i + 1 at index i.
+     */
+    private static int[] capitals(WorldLayers layers, double seaLevel, int count, Random random) {
+        int[] capitals = new int[count];
+        for (int i = 0; i < count; i++) {
+            int cell;
+            do {
+                cell = random.nextInt(layers.width * layers.height);
+            } while (layers.elevation(cell) < seaLevel || contains(capitals, i, cell));
+            capitals[i] = cell;
+        }
+        return capitals;
+    }
+
+
+    /**
+     * Returns whether one of the first entries of an array holds a value.
+     * @param values The array.
+     * @param count The number of entries to search.
+     * @param value The value.
+     * @return True if the value is among the first entries.
+     */
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Grows the states as the state generation did before the bucket queue: Dijkstra's algorithm with a
+     * priority queue of cells ordered by their double path cost, where a cell changes owner whenever a
+     * strictly cheaper path reaches it.
+     * @param world The world.
+     * @param capitals The cell index of the capital of state i + 1 at index i.
+     * @return The owner of every cell.
+     */
+    private static int[] priorityQueueOwners(World world, int[] capitals) {
+        WorldLayers layers = world.layers;
+        int width = layers.width;
+        int cells = width * layers.height;
+        int[] owners = new int[cells];
+        double[] totalCost = new double[cells];
+        Arrays.fill(totalCost, Double.MAX_VALUE);
+        PriorityQueue<QueuedCell> queue = new PriorityQueue<>(Comparator.comparingDouble(QueuedCell::cost));
+        for (int i = 0; i < capitals.length; i++) {
+            owners[capitals[i]] = i + 1;
+            totalCost[capitals[i]] = 0;
+            queue.add(new QueuedCell(capitals[i], i + 1, 0));
+        }
+
+        while (!queue.isEmpty()) {
+            QueuedCell current = queue.poll();
+            if (current.cost() > totalCost[current.cell()]) {
+                continue;
+            }
+            for (int n : neighbors(current.cell(), width, cells)) {
+                if (n < 0) {
+                    continue;
+                }
+                double moveCost;
+                if (layers.elevation(n) < world.seaLevel) {
+                    moveCost = 250.0;
+                } else if (layers.elevation(n) > 0.75) {
+                    moveCost = 10.0;
+                } else {
+                    moveCost = 1.0;
+                }
+                double newCost = current.cost() + moveCost;
+                if (newCost < totalCost[n]) {
+                    totalCost[n] = newCost;
+                    owners[n] = current.owner();
+                    queue.add(new QueuedCell(n, current.owner(), newCost));
+                }
+            }
+        }
+        return owners;
+    }
+
+
+    /**
+     * Computes the cheapest path cost from one capital to every cell.
+     * @param world The world.
+     * @param capital The cell index of the capital.
+     * @return The path cost of every cell.
+     */
+    private static int[] pathCosts(World world, int capital) {
+        WorldLayers layers = world.layers;
+        int width = layers.width;
+        int cells = width * layers.height;
+        int[] costs = new int[cells];
+        Arrays.fill(costs, Integer.MAX_VALUE);
+        costs[capital] = 0;
+        PriorityQueue<long[]> queue = new PriorityQueue<>(Comparator.comparingLong(entry -> entry[0]));
+        queue.add(new long[] {0, capital});
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int cell = (int) entry[1];
+            if (entry[0] > costs[cell]) {
+                continue;
+            }
+            for (int n : neighbors(cell, width, cells)) {
+                if (n >= 0) {
+                    int cost = costs[cell] + StateGrowth.moveCost(layers.elevation(n), world.seaLevel);
+                    if (cost < costs[n]) {
+                        costs[n] = cost;
+                        queue.add(new long[] {cost, n});
+                    }
+                }
+            }
+        }
+        return costs;
+    }
+
+
+    /**
+     * Returns the four neighbors of a cell. The grid wraps around horizontally but not vertically.
+     * @param cell The index of the cell.
+     * @param width The width of the grid.
+     * @param cells The number of cells of the grid.
+     * @return The indices of the neighbors, -1 for those beyond the first or last row.
+     */
+    private static int[] neighbors(int cell, int width, int cells) {
+        int x = cell % width;
+        int row = cell - x;
+        return new int[] {
+                row + (x + 1) % width,
+                row + (x + width - 1) % width,
+                cell >= width ? cell - width : -1,
+                cell + width < cells ? cell + width : -1
+        };
+    }
+}